@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.brewtab.irc.impl.PipelineBenchmark;
+import com.brewtab.irc.messages.Message;
+import com.brewtab.irc.messages.filter.MessageFilter;
+import com.brewtab.irc.messages.filter.MessageFilters;
+
+/**
+ * Evaluation of a channel's filter against every recorded line, as built and
+ * as compiled. Scores are per pass over the recording.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+    private Message[] messages;
+    private MessageFilter tree;
+    private MessageFilter compiled;
+
+    @Setup
+    public void setup() {
+        String[] frames = Traffic.frames();
+        messages = new Message[frames.length];
+
+        for (int i = 0; i < frames.length; i++) {
+            messages[i] = Message.fromString(frames[i]);
+            messages[i].getArgs();
+        }
+
+        tree = PipelineBenchmark.channelFilter("#brewtab");
+        compiled = MessageFilters.compile(tree);
+    }
+
+    private static int count(MessageFilter filter, Message[] messages) {
+        int matched = 0;
+
+        for (Message message : messages) {
+            if (filter.check(message)) {
+                matched++;
+            }
+        }
+
+        return matched;
+    }
+
+    @Benchmark
+    public int tree() {
+        return count(tree, messages);
+    }
+
+    @Benchmark
+    public int compiled() {
+        return count(compiled, messages);
+    }
+}
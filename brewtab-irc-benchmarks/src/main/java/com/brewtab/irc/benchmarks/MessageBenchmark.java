@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.brewtab.irc.messages.Message;
+
+/**
+ * Parsing and formatting of every recorded line. Scores are per pass over the
+ * recording.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+    private String[] frames;
+    private Message[] messages;
+
+    @Setup
+    public void setup() {
+        frames = Traffic.frames();
+        messages = new Message[frames.length];
+
+        for (int i = 0; i < frames.length; i++) {
+            messages[i] = Message.fromString(frames[i]);
+        }
+    }
+
+    @Benchmark
+    public void fromString(Blackhole blackhole) {
+        for (String frame : frames) {
+            blackhole.consume(Message.fromString(frame));
+        }
+    }
+
+    @Benchmark
+    public void fromStringAndArgs(Blackhole blackhole) {
+        for (String frame : frames) {
+            blackhole.consume(Message.fromString(frame).getArgs());
+        }
+    }
+
+    @Benchmark
+    public void toString(Blackhole blackhole) {
+        for (Message message : messages) {
+            blackhole.consume(message.toString());
+        }
+    }
+}
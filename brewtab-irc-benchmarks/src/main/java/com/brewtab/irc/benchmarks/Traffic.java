@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recorded IRC traffic used as benchmark input
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public class Traffic {
+    private static final String RESOURCE = "traffic.txt";
+
+    private Traffic() {
+    }
+
+    /**
+     * Load the recorded lines, without line terminators
+     * 
+     * @return the lines in the order they were received
+     */
+    public static List<String> lines() {
+        InputStream in = Traffic.class.getResourceAsStream(RESOURCE);
+
+        if (in == null) {
+            throw new IllegalStateException("missing resource " + RESOURCE);
+        }
+
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            List<String> lines = new ArrayList<String>();
+            String line;
+
+            try {
+                while ((line = reader.readLine()) != null) {
+                    if (line.length() > 0) {
+                        lines.add(line);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+
+            return lines;
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to read " + RESOURCE, e);
+        }
+    }
+
+    /**
+     * Load the recorded lines as they appear on the wire
+     * 
+     * @return the lines, each terminated by CR-LF
+     */
+    public static String[] frames() {
+        List<String> lines = lines();
+        String[] frames = new String[lines.size()];
+
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = lines.get(i) + "\r\n";
+        }
+
+        return frames;
+    }
+}
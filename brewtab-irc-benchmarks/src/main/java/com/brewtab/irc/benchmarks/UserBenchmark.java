@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.brewtab.irc.User;
+import com.brewtab.irc.messages.Message;
+
+/**
+ * Parsing of the prefixes of every recorded line, most of which repeat, and
+ * of prefixes which are always new
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserBenchmark {
+    private String[] prefixes;
+    private int next;
+
+    @Setup
+    public void setup() {
+        List<String> prefixes = new ArrayList<String>();
+
+        for (String frame : Traffic.frames()) {
+            String prefix = Message.fromString(frame).getPrefix();
+
+            if (prefix != null) {
+                prefixes.add(prefix);
+            }
+        }
+
+        this.prefixes = prefixes.toArray(new String[prefixes.size()]);
+    }
+
+    @Benchmark
+    public void fromPrefix(Blackhole blackhole) {
+        for (String prefix : prefixes) {
+            /* Copied so each lookup hashes and compares like a fresh prefix */
+            blackhole.consume(User.fromPrefix(new String(prefix)));
+        }
+    }
+
+    @Benchmark
+    public User fromPrefixUnseen() {
+        return User.fromPrefix("nick" + (next++) + "!user@host.example.com");
+    }
+}
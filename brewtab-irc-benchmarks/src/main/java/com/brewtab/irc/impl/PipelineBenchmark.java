@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.brewtab.irc.OverflowPolicy;
+import com.brewtab.irc.benchmarks.Traffic;
+import com.brewtab.irc.messages.Message;
+import com.brewtab.irc.messages.MessageListener;
+import com.brewtab.irc.messages.MessageType;
+import com.brewtab.irc.messages.filter.MessageFilter;
+import com.brewtab.irc.messages.filter.MessageFilters;
+import com.brewtab.irc.util.CaseMapping;
+
+/**
+ * Recorded traffic pushed through the client's pipeline, from raw bytes
+ * through decoding, routing and filtering to listeners joined to a number of
+ * channels. Listeners run on the I/O thread so their dispatch is measured too.
+ * Scores are per pass over the recording.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+    /* Runs dispatched tasks on the calling thread */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Param({ "1", "20" })
+    public int channels;
+
+    private HashedWheelTimer timer;
+    private DecoderEmbedder<Message> embedder;
+    private ChannelBuffer traffic;
+    private final AtomicInteger delivered = new AtomicInteger();
+
+    /**
+     * The filter a channel registers for its messages
+     */
+    public static MessageFilter channelFilter(String channelName) {
+        return ChannelImpl.newFilter(channelName, CaseMapping.RFC1459);
+    }
+
+    @Setup
+    public void setup() {
+        timer = new HashedWheelTimer();
+
+        ConnectionImpl connection = new ConnectionImpl(
+            new OrderedDispatcher(DIRECT, 1024, OverflowPolicy.BLOCK), timer);
+
+        UserRegistry users = new UserRegistry(connection, CaseMapping.RFC1459);
+        connection.addObserver(users);
+
+        for (int i = 0; i < channels; i++) {
+            /* The first channel is the one in the recording */
+            String channelName = (i == 0) ? "#brewtab" : "#channel" + i;
+            MessageListener channel = new MessageListener() {
+                @Override
+                public void onMessage(Message message) {
+                    delivered.incrementAndGet();
+                }
+            };
+
+            users.addChannel(channelName, channel);
+            connection.addMessageListener(channelFilter(channelName), channel);
+        }
+
+        /* The client's PING responder */
+        connection.addMessageListener(
+            MessageFilters.message(MessageType.PING, (String) null),
+            new MessageListener() {
+                @Override
+                public void onMessage(Message message) {
+                    delivered.incrementAndGet();
+                }
+            });
+
+        /* Only inbound handlers take part in decoding and dispatch */
+        List<ChannelUpstreamHandler> handlers = new ArrayList<ChannelUpstreamHandler>();
+
+        for (ChannelHandler handler : NettyChannelPipeline.newPipeline(connection).toMap().values()) {
+            if (handler instanceof ChannelUpstreamHandler) {
+                handlers.add((ChannelUpstreamHandler) handler);
+            }
+        }
+
+        embedder = new DecoderEmbedder<Message>(handlers.toArray(new ChannelUpstreamHandler[handlers.size()]));
+
+        StringBuilder frames = new StringBuilder();
+
+        for (String frame : Traffic.frames()) {
+            frames.append(frame);
+        }
+
+        traffic = ChannelBuffers.copiedBuffer(frames, Charset.defaultCharset());
+    }
+
+    @TearDown
+    public void tearDown() {
+        embedder.finish();
+        timer.stop();
+    }
+
+    @Benchmark
+    public int decodeAndDispatch() {
+        embedder.offer(traffic.duplicate());
+
+        int decoded = 0;
+
+        while (embedder.poll() != null) {
+            decoded++;
+        }
+
+        return decoded;
+    }
+}
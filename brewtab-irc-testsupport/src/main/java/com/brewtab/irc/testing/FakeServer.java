@@ -0,0 +1,748 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.testing;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.DelimiterBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.Delimiters;
+import org.jboss.netty.handler.codec.string.StringDecoder;
+import org.jboss.netty.handler.codec.string.StringEncoder;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.brewtab.irc.messages.InvalidMessageException;
+import com.brewtab.irc.messages.Message;
+import com.brewtab.irc.util.CaseMapping;
+
+/**
+ * An in-process IRC server for testing clients without a network. It speaks
+ * enough of the protocol for clients to register, join channels, list names,
+ * exchange messages and answer pings. Channels can be populated with
+ * synthetic users, which can be made to flood a channel or to split from and
+ * rejoin the network.
+ * 
+ * <p>
+ * Flood messages carry the time they were sent, see
+ * {@link #getSentNanos(String)}.
+ * </p>
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public class FakeServer {
+    private static final Logger log = LoggerFactory.getLogger(FakeServer.class);
+
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private static final int MAX_LINE_LENGTH = 512;
+
+    /* Prefix of the text of flood messages, followed by System.nanoTime() */
+    private static final String TIMESTAMP_PREFIX = "ts=";
+
+    private static final String FLOOD_TEXT = " the quick brown fox jumps over the lazy dog";
+
+    /* Interval at which flood messages are sent */
+    private static final long FLOOD_TICK_MILLIS = 10;
+
+    private final String serverName;
+    private final CaseMapping caseMapping;
+
+    /* Registered sessions keyed by case-mapped nick */
+    private final ConcurrentMap<String, Session> sessions;
+
+    /* Channels keyed by case-mapped name */
+    private final ConcurrentMap<String, FakeChannel> channels;
+
+    /* Floods keyed by case-mapped channel name */
+    private final ConcurrentMap<String, Flood> floods;
+
+    private final AtomicLong linesReceived;
+    private final AtomicLong linesSent;
+
+    private volatile int population;
+
+    private ServerBootstrap bootstrap;
+    private ChannelGroup allChannels;
+    private Timer timer;
+    private InetSocketAddress address;
+
+    public FakeServer(String serverName) {
+        this.serverName = serverName;
+        this.caseMapping = CaseMapping.RFC1459;
+        this.sessions = new ConcurrentHashMap<String, Session>();
+        this.channels = new ConcurrentHashMap<String, FakeChannel>();
+        this.floods = new ConcurrentHashMap<String, Flood>();
+        this.linesReceived = new AtomicLong();
+        this.linesSent = new AtomicLong();
+        this.population = 0;
+    }
+
+    public FakeServer() {
+        this("irc.test");
+    }
+
+    /**
+     * Set the number of synthetic users in each channel created from now on.
+     * Synthetic users are named user0, user1, etc. and are shared between
+     * channels.
+     * 
+     * @param population the number of synthetic users per channel
+     */
+    public void setChannelPopulation(int population) {
+        this.population = population;
+    }
+
+    /**
+     * Start listening on an ephemeral port of the loopback interface
+     * 
+     * @return the address listened on
+     */
+    public synchronized InetSocketAddress start() {
+        if (bootstrap != null) {
+            throw new IllegalStateException("server already started");
+        }
+
+        timer = new HashedWheelTimer(FLOOD_TICK_MILLIS, TimeUnit.MILLISECONDS);
+        allChannels = new DefaultChannelGroup("fake-server");
+        bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(
+            Executors.newCachedThreadPool(), Executors.newCachedThreadPool()));
+
+        bootstrap.setOption("child.tcpNoDelay", true);
+        bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() throws Exception {
+                return Channels.pipeline(
+                    new DelimiterBasedFrameDecoder(MAX_LINE_LENGTH, Delimiters.lineDelimiter()),
+                    new StringDecoder(CHARSET),
+                    new StringEncoder(CHARSET),
+                    new SessionHandler());
+            }
+        });
+
+        Channel serverChannel = bootstrap.bind(new InetSocketAddress("127.0.0.1", 0));
+        allChannels.add(serverChannel);
+        address = (InetSocketAddress) serverChannel.getLocalAddress();
+
+        log.info("fake server listening on {}", address);
+        return address;
+    }
+
+    /**
+     * Close every connection and stop listening
+     */
+    public synchronized void stop() {
+        if (bootstrap == null) {
+            return;
+        }
+
+        timer.stop();
+        allChannels.close().awaitUninterruptibly();
+        bootstrap.releaseExternalResources();
+        bootstrap = null;
+
+        sessions.clear();
+        channels.clear();
+        floods.clear();
+    }
+
+    /**
+     * Get a URI clients can connect to
+     * 
+     * @param nick the nick to connect with
+     * @return the URI
+     */
+    public String getURI(String nick) {
+        return "irc://" + nick + "@" + address.getAddress().getHostAddress() + ":" + address.getPort();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public long getLinesReceived() {
+        return linesReceived.get();
+    }
+
+    public long getLinesSent() {
+        return linesSent.get();
+    }
+
+    /**
+     * Get the time a flood message was sent
+     * 
+     * @param text the message text
+     * @return the value of System.nanoTime() when the message was sent, or -1
+     *         if the text is not of a flood message
+     */
+    public static long getSentNanos(String text) {
+        if (!text.startsWith(TIMESTAMP_PREFIX)) {
+            return -1;
+        }
+
+        int end = text.indexOf(' ');
+
+        try {
+            return Long.parseLong(text.substring(TIMESTAMP_PREFIX.length(), end < 0 ? text.length() : end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Start sending messages from synthetic users to a channel, replacing any
+     * flood already running in it
+     * 
+     * @param channelName the channel
+     * @param messagesPerSecond the rate messages are sent at
+     */
+    public void startFlood(String channelName, int messagesPerSecond) {
+        Flood flood = new Flood(channelName, messagesPerSecond);
+        Flood previous = floods.put(caseMapping.toLowerCase(channelName), flood);
+
+        if (previous != null) {
+            previous.stopped = true;
+        }
+
+        timer.newTimeout(flood, FLOOD_TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop every flood
+     */
+    public void stopFloods() {
+        for (Flood flood : floods.values()) {
+            flood.stopped = true;
+        }
+
+        floods.clear();
+    }
+
+    /**
+     * Send a PING to every registered session
+     */
+    public void ping() {
+        for (Session session : sessions.values()) {
+            session.send(":" + serverName + " PING :" + serverName);
+        }
+    }
+
+    /**
+     * Split synthetic users from the network: every session sharing a channel
+     * with them sees them QUIT, and after a delay JOIN each of its channels
+     * again, as when servers split and reconnect.
+     * 
+     * @param users the number of synthetic users which split
+     * @param rejoinDelay the time before the users rejoin
+     * @param unit the unit of the delay
+     */
+    public void netsplit(int users, long rejoinDelay, TimeUnit unit) {
+        final Map<Session, List<FakeChannel>> affected = new ConcurrentHashMap<Session, List<FakeChannel>>();
+
+        for (FakeChannel channel : channels.values()) {
+            for (Session session : channel.members) {
+                List<FakeChannel> sessionChannels = affected.get(session);
+
+                if (sessionChannels == null) {
+                    sessionChannels = new ArrayList<FakeChannel>();
+                    affected.put(session, sessionChannels);
+                }
+
+                sessionChannels.add(channel);
+            }
+        }
+
+        final List<String> split = new ArrayList<String>();
+
+        for (int i = 0; i < users; i++) {
+            split.add("user" + i);
+        }
+
+        for (Session session : affected.keySet()) {
+            StringBuilder lines = new StringBuilder();
+
+            for (String nick : split) {
+                lines.append(':').append(syntheticPrefix(nick)).append(" QUIT :*.net *.split\r\n");
+            }
+
+            session.sendLines(lines, split.size());
+        }
+
+        timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) {
+                for (Map.Entry<Session, List<FakeChannel>> entry : affected.entrySet()) {
+                    StringBuilder lines = new StringBuilder();
+                    int count = 0;
+
+                    for (FakeChannel channel : entry.getValue()) {
+                        for (String nick : split) {
+                            if (channel.synthetic.contains(nick)) {
+                                lines.append(':').append(syntheticPrefix(nick)).append(" JOIN ")
+                                    .append(channel.name).append("\r\n");
+                                count++;
+                            }
+                        }
+                    }
+
+                    entry.getKey().sendLines(lines, count);
+                }
+            }
+        }, rejoinDelay, unit);
+    }
+
+    private static String syntheticPrefix(String nick) {
+        return nick + "!" + nick + "@synthetic.test";
+    }
+
+    private FakeChannel getChannel(String name) {
+        String key = caseMapping.toLowerCase(name);
+        FakeChannel channel = channels.get(key);
+
+        if (channel == null) {
+            FakeChannel created = new FakeChannel(name, population);
+            channel = channels.putIfAbsent(key, created);
+
+            if (channel == null) {
+                channel = created;
+            }
+        }
+
+        return channel;
+    }
+
+    /**
+     * A channel with its sessions and synthetic users
+     */
+    private static class FakeChannel {
+        final String name;
+        final Set<Session> members;
+        final Set<String> synthetic;
+
+        FakeChannel(String name, int population) {
+            this.name = name;
+            this.members = new CopyOnWriteArraySet<Session>();
+            this.synthetic = new LinkedHashSet<String>();
+
+            for (int i = 0; i < population; i++) {
+                synthetic.add("user" + i);
+            }
+        }
+    }
+
+    /**
+     * Sends messages from synthetic users to a channel at a fixed rate
+     */
+    private class Flood implements TimerTask {
+        final String channelName;
+        final int messagesPerSecond;
+        final long startNanos;
+        long sent;
+        volatile boolean stopped;
+
+        Flood(String channelName, int messagesPerSecond) {
+            this.channelName = channelName;
+            this.messagesPerSecond = messagesPerSecond;
+            this.startNanos = System.nanoTime();
+            this.sent = 0;
+            this.stopped = false;
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            if (stopped) {
+                return;
+            }
+
+            FakeChannel channel = getChannel(channelName);
+            long now = System.nanoTime();
+            long due = (now - startNanos) * messagesPerSecond / TimeUnit.SECONDS.toNanos(1) - sent;
+
+            /* Don't try to catch up on more than a second after a stall */
+            if (due > messagesPerSecond) {
+                sent += due - messagesPerSecond;
+                due = messagesPerSecond;
+            }
+
+            if (due > 0) {
+                String[] senders = channel.synthetic.toArray(new String[0]);
+                StringBuilder lines = new StringBuilder();
+
+                for (long i = 0; i < due; i++) {
+                    String sender = senders.length > 0 ? senders[(int) ((sent + i) % senders.length)] : "flood";
+
+                    lines.append(':').append(syntheticPrefix(sender)).append(" PRIVMSG ").append(channel.name)
+                        .append(" :").append(TIMESTAMP_PREFIX).append(System.nanoTime()).append(FLOOD_TEXT)
+                        .append("\r\n");
+                }
+
+                for (Session session : channel.members) {
+                    session.sendLines(lines, (int) due);
+                }
+
+                sent += due;
+            }
+
+            timer.newTimeout(this, FLOOD_TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * A connected client
+     */
+    private class Session {
+        final Channel channel;
+        volatile String nick;
+        String user;
+        boolean registered;
+
+        Session(Channel channel) {
+            this.channel = channel;
+            this.nick = null;
+            this.user = null;
+            this.registered = false;
+        }
+
+        String getPrefix() {
+            return nick + "!" + user + "@localhost";
+        }
+
+        void send(String line) {
+            linesSent.incrementAndGet();
+            channel.write(line + "\r\n");
+        }
+
+        void sendLines(StringBuilder lines, int count) {
+            if (count > 0) {
+                linesSent.addAndGet(count);
+                channel.write(lines.toString());
+            }
+        }
+
+        void numeric(String code, String... args) {
+            StringBuilder line = new StringBuilder();
+            line.append(':').append(serverName).append(' ').append(code).append(' ').append(nick == null ? "*" : nick);
+
+            for (int i = 0; i < args.length; i++) {
+                line.append(i == args.length - 1 ? " :" : " ").append(args[i]);
+            }
+
+            send(line.toString());
+        }
+    }
+
+    /**
+     * Handles the lines received from one client
+     */
+    private class SessionHandler extends SimpleChannelUpstreamHandler {
+        private Session session;
+
+        @Override
+        public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            allChannels.add(ctx.getChannel());
+            session = new Session(ctx.getChannel());
+        }
+
+        @Override
+        public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+            if (session != null) {
+                quit(session, "Connection closed");
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+            log.debug("closing session after exception", e.getCause());
+            ctx.getChannel().close();
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+            String line = (String) e.getMessage();
+            linesReceived.incrementAndGet();
+
+            if (line.trim().length() == 0) {
+                return;
+            }
+
+            Message message;
+
+            try {
+                message = Message.fromString(line);
+            } catch (InvalidMessageException ex) {
+                session.numeric("421", line, "Unknown command");
+                return;
+            }
+
+            handle(session, message);
+        }
+    }
+
+    private void handle(Session session, Message message) {
+        String[] args = message.getArgs();
+
+        switch (message.getType()) {
+        case PASS:
+        case PONG:
+            break;
+
+        case NICK:
+            nick(session, args[0]);
+            break;
+
+        case USER:
+            session.user = args[0];
+            register(session);
+            break;
+
+        case PING:
+            session.send(":" + serverName + " PONG " + serverName + " :" + (args.length > 0 ? args[0] : serverName));
+            break;
+
+        case JOIN:
+            if (session.registered) {
+                for (String channelName : args[0].split(",")) {
+                    join(session, getChannel(channelName));
+                }
+            }
+            break;
+
+        case PART:
+            if (session.registered) {
+                for (String channelName : args[0].split(",")) {
+                    part(session, channelName, args.length > 1 ? args[1] : session.nick);
+                }
+            }
+            break;
+
+        case NAMES:
+            if (session.registered && args.length > 0) {
+                names(session, getChannel(args[0]));
+            }
+            break;
+
+        case PRIVMSG:
+        case NOTICE:
+            if (session.registered && args.length > 1) {
+                privmsg(session, message.getCommand(), args[0], args[1]);
+            }
+            break;
+
+        case QUIT:
+            quit(session, args.length > 0 ? args[0] : "Quit");
+            session.channel.close();
+            break;
+
+        default:
+            session.numeric("421", message.getCommand(), "Unknown command");
+            break;
+        }
+    }
+
+    private void nick(Session session, String nick) {
+        String key = caseMapping.toLowerCase(nick);
+
+        if (session.nick != null && key.equals(caseMapping.toLowerCase(session.nick))) {
+            return;
+        }
+
+        if (sessions.putIfAbsent(key, session) != null) {
+            session.numeric("433", nick, "Nickname is already in use");
+            return;
+        }
+
+        if (session.nick == null) {
+            session.nick = nick;
+            register(session);
+            return;
+        }
+
+        String line = ":" + session.getPrefix() + " NICK :" + nick;
+        sessions.remove(caseMapping.toLowerCase(session.nick));
+        session.nick = nick;
+
+        /* Tell the session and everyone sharing a channel with it, once each */
+        Set<Session> peers = new LinkedHashSet<Session>();
+        peers.add(session);
+
+        for (FakeChannel channel : channels.values()) {
+            if (channel.members.contains(session)) {
+                peers.addAll(channel.members);
+            }
+        }
+
+        for (Session peer : peers) {
+            peer.send(line);
+        }
+    }
+
+    private void register(Session session) {
+        if (session.registered || session.nick == null || session.user == null) {
+            return;
+        }
+
+        session.registered = true;
+
+        session.numeric("001", "Welcome to the test network " + session.getPrefix());
+        session.numeric("251", "There are " + sessions.size() + " users on 1 server");
+        session.numeric("375", "- " + serverName + " Message of the day -");
+        session.numeric("372", "- This server is for testing only");
+        session.numeric("376", "End of /MOTD command.");
+    }
+
+    private void join(Session session, FakeChannel channel) {
+        if (!channel.members.add(session)) {
+            return;
+        }
+
+        String line = ":" + session.getPrefix() + " JOIN " + channel.name;
+
+        for (Session member : channel.members) {
+            member.send(line);
+        }
+
+        names(session, channel);
+    }
+
+    private void names(Session session, FakeChannel channel) {
+        List<String> names = new ArrayList<String>();
+
+        for (Session member : channel.members) {
+            names.add(member.nick);
+        }
+
+        names.addAll(channel.synthetic);
+
+        /* Leave room for the prefix, numeric and channel on each line */
+        int maxNamesLength = MAX_LINE_LENGTH - serverName.length() - session.nick.length() - channel.name.length() - 20;
+        StringBuilder reply = new StringBuilder();
+
+        for (String name : names) {
+            if (reply.length() > 0 && reply.length() + 1 + name.length() > maxNamesLength) {
+                session.numeric("353", "=", channel.name, reply.toString());
+                reply.setLength(0);
+            }
+
+            if (reply.length() > 0) {
+                reply.append(' ');
+            }
+
+            reply.append(name);
+        }
+
+        if (reply.length() > 0) {
+            session.numeric("353", "=", channel.name, reply.toString());
+        }
+
+        session.numeric("366", channel.name, "End of /NAMES list.");
+    }
+
+    private void part(Session session, String channelName, String reason) {
+        FakeChannel channel = channels.get(caseMapping.toLowerCase(channelName));
+
+        if (channel == null || !channel.members.contains(session)) {
+            session.numeric("442", channelName, "You're not on that channel");
+            return;
+        }
+
+        String line = ":" + session.getPrefix() + " PART " + channel.name + " :" + reason;
+
+        for (Session member : channel.members) {
+            member.send(line);
+        }
+
+        channel.members.remove(session);
+    }
+
+    private void privmsg(Session session, String command, String target, String text) {
+        String line = ":" + session.getPrefix() + " " + command + " " + target + " :" + text;
+        FakeChannel channel = channels.get(caseMapping.toLowerCase(target));
+
+        if (channel != null) {
+            for (Session member : channel.members) {
+                if (member != session) {
+                    member.send(line);
+                }
+            }
+
+            return;
+        }
+
+        Session recipient = sessions.get(caseMapping.toLowerCase(target));
+
+        if (recipient != null) {
+            recipient.send(line);
+        } else {
+            session.numeric("401", target, "No such nick/channel");
+        }
+    }
+
+    private void quit(Session session, String reason) {
+        if (session.nick == null || sessions.get(caseMapping.toLowerCase(session.nick)) != session) {
+            return;
+        }
+
+        sessions.remove(caseMapping.toLowerCase(session.nick));
+
+        String line = ":" + session.getPrefix() + " QUIT :" + reason;
+        Set<Session> peers = new LinkedHashSet<Session>();
+
+        for (FakeChannel channel : channels.values()) {
+            if (channel.members.remove(session)) {
+                peers.addAll(channel.members);
+            }
+        }
+
+        for (Session peer : peers) {
+            peer.send(line);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.testing;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Records latencies into a fixed-size uniform sample so percentiles can be
+ * estimated over long runs in bounded memory
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+class LatencyRecorder {
+    private final long[] samples;
+    private final Random random;
+    private long count;
+
+    public LatencyRecorder(int maxSamples) {
+        this.samples = new long[maxSamples];
+        this.random = new Random();
+        this.count = 0;
+    }
+
+    /**
+     * Record a latency
+     * 
+     * @param nanos the latency in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        if (count < samples.length) {
+            samples[(int) count] = nanos;
+        } else {
+            /* Reservoir sampling keeps every latency equally likely to be kept */
+            long slot = (long) (random.nextDouble() * (count + 1));
+
+            if (slot < samples.length) {
+                samples[(int) slot] = nanos;
+            }
+        }
+
+        count++;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the latencies at the given percentiles
+     * 
+     * @param percentiles percentiles between 0 and 100
+     * @return the latency in nanoseconds at each percentile, or 0 if nothing
+     *         was recorded
+     */
+    public synchronized long[] getPercentiles(double... percentiles) {
+        int size = (int) Math.min(count, samples.length);
+        long[] sorted = Arrays.copyOf(samples, size);
+        long[] result = new long[percentiles.length];
+
+        Arrays.sort(sorted);
+
+        for (int i = 0; i < percentiles.length; i++) {
+            if (size > 0) {
+                int index = (int) Math.ceil(percentiles[i] / 100 * size) - 1;
+                result[i] = sorted[Math.max(0, Math.min(size - 1, index))];
+            }
+        }
+
+        return result;
+    }
+}
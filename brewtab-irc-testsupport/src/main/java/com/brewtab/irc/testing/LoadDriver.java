@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.testing;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.brewtab.irc.User;
+import com.brewtab.irc.client.Channel;
+import com.brewtab.irc.client.ChannelListener;
+import com.brewtab.irc.client.Client;
+import com.brewtab.irc.client.ClientFactory;
+import com.brewtab.irc.client.ClientHost;
+
+/**
+ * Connects a number of clients to a {@link FakeServer}, floods their channels
+ * and reports the rate messages were delivered to channel listeners, the
+ * latency from the server sending a message to its delivery, and garbage
+ * collector activity.
+ * 
+ * <pre>
+ * java com.brewtab.irc.testing.LoadDriver [clients] [channels] [messagesPerSecond] [seconds]
+ * </pre>
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public class LoadDriver {
+    private static final int MAX_LATENCY_SAMPLES = 1 << 20;
+
+    private int clients = 10;
+    private int channels = 1;
+    private int population = 50;
+    private int messagesPerSecond = 1000;
+    private long durationMillis = 10000;
+
+    /**
+     * @param clients the number of clients to connect
+     */
+    public void setClients(int clients) {
+        this.clients = clients;
+    }
+
+    /**
+     * @param channels the number of channels clients are spread over
+     */
+    public void setChannels(int channels) {
+        this.channels = channels;
+    }
+
+    /**
+     * @param population the number of synthetic users in each channel
+     */
+    public void setPopulation(int population) {
+        this.population = population;
+    }
+
+    /**
+     * @param messagesPerSecond the rate each channel is flooded at
+     */
+    public void setMessagesPerSecond(int messagesPerSecond) {
+        this.messagesPerSecond = messagesPerSecond;
+    }
+
+    /**
+     * @param duration the length of the measured period
+     * @param unit the unit of the duration
+     */
+    public void setDuration(long duration, TimeUnit unit) {
+        this.durationMillis = unit.toMillis(duration);
+    }
+
+    private static Map<String, long[]> gcSnapshot() {
+        Map<String, long[]> snapshot = new LinkedHashMap<String, long[]>();
+
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            snapshot.put(gc.getName(), new long[] { gc.getCollectionCount(), gc.getCollectionTime() });
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Start a server, connect the clients, flood their channels for the
+     * configured duration and shut everything down
+     * 
+     * @return the results
+     * @throws InterruptedException if interrupted while waiting for the run to
+     *             complete
+     */
+    public LoadReport run() throws InterruptedException {
+        final AtomicLong received = new AtomicLong();
+        final LatencyRecorder latencies = new LatencyRecorder(MAX_LATENCY_SAMPLES);
+
+        ChannelListener listener = new ChannelListener() {
+            @Override
+            public void onJoin(Channel channel, User user) {
+            }
+
+            @Override
+            public void onPart(Channel channel, User user) {
+            }
+
+            @Override
+            public void onQuit(Channel channel, User user) {
+            }
+
+            @Override
+            public void onMessage(Channel channel, User from, String message) {
+                long sent = FakeServer.getSentNanos(message);
+
+                if (sent >= 0) {
+                    latencies.record(System.nanoTime() - sent);
+                    received.incrementAndGet();
+                }
+            }
+        };
+
+        FakeServer server = new FakeServer();
+        server.setChannelPopulation(population);
+        server.start();
+
+        ClientHost host = ClientHost.newInstance();
+        List<Client> connected = new ArrayList<Client>();
+
+        try {
+            ClientFactory factory = host.newClientFactory();
+
+            for (int i = 0; i < clients; i++) {
+                Client client = factory.connect(server.getURI("load" + i));
+                connected.add(client);
+
+                Channel channel = client.join("#load" + (i % channels));
+
+                if (channel == null) {
+                    throw new IllegalStateException("client " + i + " could not join");
+                }
+
+                channel.addListener(listener);
+            }
+
+            Map<String, long[]> gcBefore = gcSnapshot();
+            long sentBefore = server.getLinesSent();
+            long start = System.nanoTime();
+
+            for (int i = 0; i < Math.min(channels, clients); i++) {
+                server.startFlood("#load" + i, messagesPerSecond);
+            }
+
+            Thread.sleep(durationMillis);
+            server.stopFloods();
+
+            long elapsed = System.nanoTime() - start;
+            long sent = server.getLinesSent() - sentBefore;
+            Map<String, long[]> gcStats = gcSnapshot();
+
+            for (Map.Entry<String, long[]> entry : gcStats.entrySet()) {
+                long[] before = gcBefore.get(entry.getKey());
+
+                if (before != null) {
+                    entry.getValue()[0] -= before[0];
+                    entry.getValue()[1] -= before[1];
+                }
+            }
+
+            return new LoadReport(clients, elapsed, sent, received.get(),
+                latencies.getPercentiles(50, 90, 99, 100), gcStats);
+        } finally {
+            for (Client client : connected) {
+                try {
+                    client.quit();
+                } catch (RuntimeException e) {
+                    // Already disconnected
+                }
+            }
+
+            host.shutdown();
+            server.stop();
+        }
+    }
+
+    private static int intArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        LoadDriver driver = new LoadDriver();
+
+        driver.setClients(intArg(args, 0, 10));
+        driver.setChannels(intArg(args, 1, 1));
+        driver.setMessagesPerSecond(intArg(args, 2, 1000));
+        driver.setDuration(intArg(args, 3, 10), TimeUnit.SECONDS);
+
+        driver.run().print(System.out);
+    }
+}
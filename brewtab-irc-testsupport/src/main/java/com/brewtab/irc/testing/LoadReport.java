@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.testing;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The results of a {@link LoadDriver} run
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public class LoadReport {
+    private final int clients;
+    private final long elapsedNanos;
+    private final long messagesSent;
+    private final long messagesReceived;
+    private final long[] latencyPercentiles;
+    private final Map<String, long[]> gcStats;
+
+    /**
+     * @param clients the number of clients
+     * @param elapsedNanos the length of the measured period
+     * @param messagesSent the messages sent by the server in the period
+     * @param messagesReceived the messages delivered to client listeners
+     * @param latencyPercentiles the 50th, 90th, 99th and 100th percentile
+     *            latencies in nanoseconds
+     * @param gcStats the collection count and time in milliseconds of each
+     *            garbage collector during the period
+     */
+    LoadReport(int clients, long elapsedNanos, long messagesSent, long messagesReceived,
+        long[] latencyPercentiles, Map<String, long[]> gcStats) {
+        this.clients = clients;
+        this.elapsedNanos = elapsedNanos;
+        this.messagesSent = messagesSent;
+        this.messagesReceived = messagesReceived;
+        this.latencyPercentiles = latencyPercentiles;
+        this.gcStats = Collections.unmodifiableMap(gcStats);
+    }
+
+    public int getClients() {
+        return clients;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    public long getMessagesSent() {
+        return messagesSent;
+    }
+
+    public long getMessagesReceived() {
+        return messagesReceived;
+    }
+
+    /**
+     * @return messages delivered to client listeners per second
+     */
+    public double getMessagesPerSecond() {
+        return messagesReceived * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    public long getLatencyP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(latencyPercentiles[0]);
+    }
+
+    public long getLatencyP90Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(latencyPercentiles[1]);
+    }
+
+    public long getLatencyP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(latencyPercentiles[2]);
+    }
+
+    public long getLatencyMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(latencyPercentiles[3]);
+    }
+
+    /**
+     * Get the activity of each garbage collector during the run
+     * 
+     * @return the collection count and total time in milliseconds keyed by
+     *         collector name
+     */
+    public Map<String, long[]> getGcStats() {
+        return gcStats;
+    }
+
+    public void print(PrintStream out) {
+        out.printf("clients:            %d%n", clients);
+        out.printf("elapsed:            %d ms%n", getElapsedMillis());
+        out.printf("messages sent:      %d%n", messagesSent);
+        out.printf("messages received:  %d (%.0f/s)%n", messagesReceived, getMessagesPerSecond());
+        out.printf("latency:            p50 %d us, p90 %d us, p99 %d us, max %d us%n",
+            getLatencyP50Micros(), getLatencyP90Micros(), getLatencyP99Micros(), getLatencyMaxMicros());
+
+        for (Map.Entry<String, long[]> entry : gcStats.entrySet()) {
+            out.printf("gc %-15s %d collections, %d ms%n",
+                entry.getKey() + ":", entry.getValue()[0], entry.getValue()[1]);
+        }
+    }
+}
@@ -23,6 +23,7 @@
 package com.brewtab.irc;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.jboss.netty.channel.ChannelFuture;
 
@@ -83,7 +84,34 @@ public interface Connection {
     public ChannelFuture send(Message... messages);
 
     /**
-     * Send a message and return a response.
+     * Send messages and return a future for the response without waiting.
+     * 
+     * @param match a filter to match messages which should be included in the response
+     * @param last a filter to match the last message of the response
+     * @param messages the messages to send, if none the response is only awaited
+     * @return a future for the list of response messages matching the provided filters
+     */
+    public ResponseFuture requestAsync(MessageFilter match, MessageFilter last, Message... messages);
+
+    /**
+     * Send messages and return a future for the response without waiting. The
+     * request fails with a {@link java.util.concurrent.TimeoutException} if
+     * the response is not complete within the given time.
+     * 
+     * @param match a filter to match messages which should be included in the response
+     * @param last a filter to match the last message of the response
+     * @param timeout the time to wait for the response, or 0 to wait forever
+     * @param unit the unit of timeout
+     * @param messages the messages to send, if none the response is only awaited
+     * @return a future for the list of response messages matching the provided filters
+     */
+    public ResponseFuture requestAsync(MessageFilter match, MessageFilter last, long timeout, TimeUnit unit,
+        Message... messages);
+
+    /**
+     * Send a message and return a response. Blocks until the response is
+     * complete. Throws {@link ConnectionException} if the connection closes
+     * first.
      * 
      * @param match a filter to match messages which should be included in the response
      * @param last a filter to match the last message of the response
@@ -94,7 +122,9 @@ public interface Connection {
     public List<Message> request(MessageFilter match, MessageFilter last, Message message) throws InterruptedException;
 
     /**
-     * Send a message and return a response.
+     * Send a message and return a response. Blocks until the response is
+     * complete. Throws {@link ConnectionException} if the connection closes
+     * first.
      * 
      * @param match a filter to match messages which should be included in the response
      * @param last a filter to match the last message of the response
@@ -104,6 +134,72 @@ public interface Connection {
      */
     public List<Message> request(MessageFilter match, MessageFilter last, Message... messages) throws InterruptedException;
 
+    /**
+     * Set the policy which determines when sent messages are written to the
+     * socket. The default is {@link FlushPolicy#COALESCE}.
+     * 
+     * @param policy the flush policy
+     */
+    public void setFlushPolicy(FlushPolicy policy);
+
+    /**
+     * Get the current flush policy
+     * 
+     * @return the flush policy
+     */
+    public FlushPolicy getFlushPolicy();
+
+    /**
+     * Write any messages held by the flush policy immediately.
+     */
+    public void flush();
+
+    /**
+     * Set the rate limit applied to all messages sent on this connection.
+     * PING, PONG and registration messages are never delayed but do count
+     * against the limit. By default there is no limit; servers which
+     * disconnect flooding clients typically accept {@link RateLimit#RFC1459}.
+     * 
+     * @param limit the rate limit or null to disable rate limiting
+     */
+    public void setRateLimit(RateLimit limit);
+
+    /**
+     * Get the rate limit applied to all messages
+     * 
+     * @return the rate limit or null if disabled
+     */
+    public RateLimit getRateLimit();
+
+    /**
+     * Set the rate limit applied separately to the PRIVMSG and NOTICE
+     * messages sent to each target. By default there is no per-target limit.
+     * 
+     * @param limit the rate limit or null to disable per-target limiting
+     */
+    public void setTargetRateLimit(RateLimit limit);
+
+    /**
+     * Get the rate limit applied to each target
+     * 
+     * @return the rate limit or null if disabled
+     */
+    public RateLimit getTargetRateLimit();
+
+    /**
+     * Get statistics for the outbound message queue
+     * 
+     * @return a snapshot of the outbound statistics
+     */
+    public OutboundStats getOutboundStats();
+
+    /**
+     * Get statistics for received messages and their dispatch to listeners
+     * 
+     * @return a snapshot of the inbound statistics
+     */
+    public InboundStats getInboundStats();
+
     /**
      * Close this connection.
      * 
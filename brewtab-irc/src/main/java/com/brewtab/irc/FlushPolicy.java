@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Determines when messages sent on a {@link Connection} are written to the
+ * socket. Messages written together are encoded into a single buffer and
+ * written with a single socket write.
+ */
+public final class FlushPolicy {
+    /**
+     * Write every message as soon as it is sent
+     */
+    public static final FlushPolicy IMMEDIATE = new FlushPolicy(false, 0);
+
+    /**
+     * Write a message immediately when no other write is in progress.
+     * Otherwise hold it and write it, along with any other held messages,
+     * once the write in progress completes. This is the default.
+     */
+    public static final FlushPolicy COALESCE = new FlushPolicy(true, 0);
+
+    /* Hold messages while a write is in progress */
+    private final boolean coalesce;
+
+    /* Time in milliseconds to hold messages before writing them */
+    private final long windowMillis;
+
+    private FlushPolicy(boolean coalesce, long windowMillis) {
+        this.coalesce = coalesce;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Hold messages for up to the given time and write everything sent in
+     * that window together. Held messages are also written when they exceed
+     * the connection's buffer limit or when {@link Connection#flush()} is
+     * called.
+     * 
+     * @param window the time to hold messages
+     * @param unit the unit of window
+     * @return the flush policy
+     */
+    public static FlushPolicy window(long window, TimeUnit unit) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be positive");
+        }
+
+        return new FlushPolicy(true, unit.toMillis(window));
+    }
+
+    /**
+     * @return true if messages may be held while a write is in progress
+     */
+    public boolean isCoalescing() {
+        return coalesce;
+    }
+
+    /**
+     * @return the time in milliseconds messages are held before being
+     *         written, or 0 if they are only held while a write is in progress
+     */
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    @Override
+    public String toString() {
+        if (!coalesce) {
+            return "IMMEDIATE";
+        } else if (windowMillis == 0) {
+            return "COALESCE";
+        } else {
+            return "WINDOW(" + windowMillis + "ms)";
+        }
+    }
+}
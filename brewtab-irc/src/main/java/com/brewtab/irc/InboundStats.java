@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc;
+
+/**
+ * A snapshot of the state of a connection's inbound messages and the queues
+ * they are dispatched to listeners through
+ */
+public final class InboundStats {
+    private final long receivedCount;
+    private final long dispatchedCount;
+    private final int dispatchQueueDepth;
+    private final long droppedCount;
+
+    public InboundStats(long receivedCount, long dispatchedCount, int dispatchQueueDepth, long droppedCount) {
+        this.receivedCount = receivedCount;
+        this.dispatchedCount = dispatchedCount;
+        this.dispatchQueueDepth = dispatchQueueDepth;
+        this.droppedCount = droppedCount;
+    }
+
+    /**
+     * @return the number of messages received
+     */
+    public long getReceivedCount() {
+        return receivedCount;
+    }
+
+    /**
+     * @return the number of times a received message was queued for a
+     *         listener
+     */
+    public long getDispatchedCount() {
+        return dispatchedCount;
+    }
+
+    /**
+     * @return the number of messages currently waiting to be handled by
+     *         listeners
+     */
+    public int getDispatchQueueDepth() {
+        return dispatchQueueDepth;
+    }
+
+    /**
+     * @return the number of messages discarded because a listener's queue
+     *         was full
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "InboundStats(received=" + receivedCount + ", dispatched=" + dispatchedCount + ", queueDepth="
+            + dispatchQueueDepth + ", dropped=" + droppedCount + ")";
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc;
+
+/**
+ * A snapshot of the state of a connection's outbound message queue
+ */
+public final class OutboundStats {
+    private final int queueDepth;
+    private final long sentCount;
+    private final long delayedCount;
+    private final long totalDelayMillis;
+    private final long maxDelayMillis;
+
+    public OutboundStats(int queueDepth, long sentCount, long delayedCount, long totalDelayMillis,
+        long maxDelayMillis) {
+        this.queueDepth = queueDepth;
+        this.sentCount = sentCount;
+        this.delayedCount = delayedCount;
+        this.totalDelayMillis = totalDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @return the number of messages currently waiting to be sent
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * @return the number of messages sent
+     */
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    /**
+     * @return the number of sent messages which had to wait for the rate limit
+     */
+    public long getDelayedCount() {
+        return delayedCount;
+    }
+
+    /**
+     * @return the total time in milliseconds sent messages spent queued
+     */
+    public long getTotalDelayMillis() {
+        return totalDelayMillis;
+    }
+
+    /**
+     * @return the longest time in milliseconds a sent message spent queued
+     */
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * @return the average time in milliseconds sent messages spent queued
+     */
+    public double getAverageDelayMillis() {
+        return sentCount == 0 ? 0.0 : (double) totalDelayMillis / sentCount;
+    }
+
+    @Override
+    public String toString() {
+        return "OutboundStats(queueDepth=" + queueDepth + ", sent=" + sentCount + ", delayed=" + delayedCount
+            + ", maxDelay=" + maxDelayMillis + "ms)";
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket rate limit. Up to burst messages may be sent at once after
+ * which one message may be sent per interval.
+ */
+public final class RateLimit {
+    /**
+     * The limit described by RFC 1459, section 8.10. Messages may be sent in
+     * a burst of five after which one may be sent every two seconds.
+     */
+    public static final RateLimit RFC1459 = new RateLimit(5, 2, TimeUnit.SECONDS);
+
+    private final int burst;
+    private final long intervalNanos;
+
+    /**
+     * Create a new rate limit
+     * 
+     * @param burst the number of messages which may be sent at once
+     * @param interval the time taken to earn permission to send one message
+     * @param unit the unit of interval
+     */
+    public RateLimit(int burst, long interval, TimeUnit unit) {
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be at least 1");
+        }
+
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+
+        this.burst = burst;
+        this.intervalNanos = unit.toNanos(interval);
+    }
+
+    /**
+     * @return the number of messages which may be sent at once
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * @return the time in nanoseconds taken to earn permission to send one
+     *         message
+     */
+    public long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimit(burst=" + burst + ", interval=" + TimeUnit.NANOSECONDS.toMillis(intervalNanos) + "ms)";
+    }
+}
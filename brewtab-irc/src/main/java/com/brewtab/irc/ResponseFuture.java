@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+import com.brewtab.irc.messages.Message;
+
+/**
+ * The pending result of a request made with
+ * {@link Connection#requestAsync(com.brewtab.irc.messages.filter.MessageFilter, com.brewtab.irc.messages.filter.MessageFilter, Message...)}.
+ * The result is the list of response messages. A request fails if the
+ * messages can not be sent, the connection closes or the request times out,
+ * in which case the cause is available from {@link #getCause()}.
+ * Cancelling a request stops collecting its response.
+ */
+public interface ResponseFuture extends Future<List<Message>> {
+    /**
+     * Add a listener to be notified when the request completes, fails or is
+     * cancelled. If the request is already done the listener is notified
+     * immediately. Otherwise it is called on the thread which completes the
+     * request, which may be the thread reading from the server, so it must
+     * not block.
+     * 
+     * @param listener the listener
+     */
+    public void addListener(ResponseListener listener);
+
+    /**
+     * Remove a previously added listener.
+     * 
+     * @param listener the listener
+     */
+    public void removeListener(ResponseListener listener);
+
+    /**
+     * @return true if the request completed with a response
+     */
+    public boolean isSuccess();
+
+    /**
+     * @return the reason the request failed or null if it has not failed
+     */
+    public Throwable getCause();
+
+    /**
+     * Get the response without waiting
+     * 
+     * @return the response or null if the request has not completed
+     *         successfully
+     */
+    public List<Message> getNow();
+}
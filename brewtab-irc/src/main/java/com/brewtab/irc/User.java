@@ -22,37 +22,42 @@
 
 package com.brewtab.irc;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * Simple object encapsulating a user's nick, username, and hostname
  * 
  * @author Christopher Thunes <cthunes@brewtab.com>
  */
 public class User {
-    private static final Pattern userPrefixPattern;
+    private static final String SPECIAL_NICK_CHARACTERS = "[]\\`_^{}|";
 
-    static {
-        final String specialNickCharset = Pattern.quote("[]\\`_^{}|");
-        final String nickFirstCharacter = "[a-zA-Z" + specialNickCharset + "]";
-        final String nickRest = "[a-zA-Z0-9\\-" + specialNickCharset + "]*";
+    /* Number of recently parsed prefixes remembered, a power of two */
+    private static final int CACHE_SIZE = 1024;
 
-        final String nick = nickFirstCharacter + nickRest;
-        final String user = "[^@]+";
-        final String host = ".+";
+    /* Recently parsed prefixes, indexed by hash */
+    private static final CacheEntry[] cache = new CacheEntry[CACHE_SIZE];
 
-        userPrefixPattern = Pattern.compile("^(" + nick + ")((!(" + user + "))?@(" + host + "))?$");
+    /**
+     * A parsed prefix. Immutable, so entries can be shared between threads
+     * without locking.
+     */
+    private static final class CacheEntry {
+        final String prefix;
+        final User user;
+
+        CacheEntry(String prefix, User user) {
+            this.prefix = prefix;
+            this.user = user;
+        }
     }
 
     /** The nick */
-    private String nick;
+    private final String nick;
 
     /** The user */
-    private String user;
+    private final String user;
 
     /** The host */
-    private String host;
+    private final String host;
 
     /**
      * Construct a new IRCUser with the given parameters. Only a nick is
@@ -114,23 +119,91 @@ public class User {
     /**
      * Construct a new IRCUser from the give String. The String should be in the
      * format {@literal <nick>!<user>@<host>}. This format is the same as is
-     * used in IRC message prefixes
+     * used in IRC message prefixes. Recently parsed prefixes are remembered,
+     * so the same User may be returned for equal prefixes.
      * 
      * @param prefix The prefix to extract the information from
      * @return a new IRCUser object or null if the prefix could not be parsed
      */
     public static User fromPrefix(String prefix) {
-        Matcher matcher = userPrefixPattern.matcher(prefix);
+        int hash = prefix.hashCode();
+        int index = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+        CacheEntry entry = cache[index];
+
+        if (entry != null && entry.prefix.equals(prefix)) {
+            return entry.user;
+        }
+
+        User user = parsePrefix(prefix);
+        cache[index] = new CacheEntry(prefix, user);
+
+        return user;
+    }
+
+    private static boolean isNickFirstCharacter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || SPECIAL_NICK_CHARACTERS.indexOf(c) >= 0;
+    }
+
+    private static boolean isNickCharacter(char c) {
+        return isNickFirstCharacter(c) || (c >= '0' && c <= '9') || c == '-';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Parse a prefix in a single pass. A prefix is a nick, optionally followed
+     * by "@host" or "!user@host". The user ends at the first '@' and the host
+     * is the remainder.
+     */
+    private static User parsePrefix(String prefix) {
+        int length = prefix.length();
 
-        if (matcher.find()) {
-            String nick = matcher.group(1);
-            String user = matcher.group(4);
-            String host = matcher.group(5);
+        if (length == 0 || !isNickFirstCharacter(prefix.charAt(0))) {
+            return null;
+        }
+
+        int i = 1;
+        while (i < length && isNickCharacter(prefix.charAt(i))) {
+            i++;
+        }
+
+        String nick = prefix.substring(0, i);
 
-            return new User(nick, user, host);
-        } else {
+        if (i == length) {
+            return new User(nick, null, null);
+        }
+
+        String user = null;
+
+        if (prefix.charAt(i) == '!') {
+            int at = prefix.indexOf('@', i + 1);
+
+            if (at <= i + 1) {
+                return null;
+            }
+
+            user = prefix.substring(i + 1, at);
+            i = at;
+        } else if (prefix.charAt(i) != '@') {
+            return null;
+        }
+
+        /* Skip the '@', the host must not be empty */
+        i++;
+
+        if (i == length) {
             return null;
         }
+
+        for (int j = i; j < length; j++) {
+            if (isLineTerminator(prefix.charAt(j))) {
+                return null;
+            }
+        }
+
+        return new User(nick, user, prefix.substring(i));
     }
 
     public String toPrefix() {
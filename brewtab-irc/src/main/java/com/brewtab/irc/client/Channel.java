@@ -70,6 +70,22 @@ public interface Channel {
      */
     public List<String> getNames();
 
+    /**
+     * Retrieve the users in the channel along with their mode prefixes. Like
+     * {@link #getNames()} this returns a snapshot of the cached membership.
+     * 
+     * @return the members of the channel
+     */
+    public List<ChannelMember> getMembers();
+
+    /**
+     * Look up a user in the channel. Nicks are compared case insensitively.
+     * 
+     * @param nick the nick to look up
+     * @return the member or null if the nick is not in the channel
+     */
+    public ChannelMember getMember(String nick);
+
     /**
      * Add an IRCChannelListener to this channel.
      * 
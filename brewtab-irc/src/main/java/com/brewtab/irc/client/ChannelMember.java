@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.client;
+
+/**
+ * A user in a channel along with their channel mode prefixes, e.g. @ for
+ * operators and + for voiced users. Instances are immutable.
+ */
+public final class ChannelMember {
+    /** Mode prefixes in order of rank, highest first */
+    public static final String PREFIXES = "~&@%+";
+
+    private final String nick;
+    private final String prefixes;
+
+    /**
+     * Create a new member
+     * 
+     * @param nick the member's nick
+     * @param prefixes the member's mode prefixes, possibly empty
+     */
+    public ChannelMember(String nick, String prefixes) {
+        this.nick = nick;
+        this.prefixes = prefixes;
+    }
+
+    /**
+     * Parse a member from an entry of a names list, e.g. "@nick"
+     * 
+     * @param name the names list entry
+     * @return the member
+     */
+    public static ChannelMember parse(String name) {
+        int i = 0;
+
+        while (i < name.length() - 1 && PREFIXES.indexOf(name.charAt(i)) >= 0) {
+            i++;
+        }
+
+        return new ChannelMember(name.substring(i), name.substring(0, i));
+    }
+
+    /**
+     * @return the member's nick
+     */
+    public String getNick() {
+        return nick;
+    }
+
+    /**
+     * @return the member's mode prefixes, highest rank first
+     */
+    public String getPrefixes() {
+        return prefixes;
+    }
+
+    /**
+     * @param prefix a mode prefix character
+     * @return true if the member has the given prefix
+     */
+    public boolean hasPrefix(char prefix) {
+        return prefixes.indexOf(prefix) >= 0;
+    }
+
+    /**
+     * @return true if the member is a channel operator
+     */
+    public boolean isOperator() {
+        return hasPrefix('@');
+    }
+
+    /**
+     * @return true if the member is voiced
+     */
+    public boolean isVoiced() {
+        return hasPrefix('+');
+    }
+
+    /**
+     * @param newNick the new nick
+     * @return this member under a new nick
+     */
+    public ChannelMember withNick(String newNick) {
+        return new ChannelMember(newNick, prefixes);
+    }
+
+    /**
+     * @param prefix the prefix to add or remove
+     * @param present true to add the prefix, false to remove it
+     * @return this member with the prefix added or removed
+     */
+    public ChannelMember withPrefix(char prefix, boolean present) {
+        if (hasPrefix(prefix) == present) {
+            return this;
+        }
+
+        StringBuilder newPrefixes = new StringBuilder();
+
+        for (int i = 0; i < PREFIXES.length(); i++) {
+            char c = PREFIXES.charAt(i);
+
+            if (c == prefix ? present : hasPrefix(c)) {
+                newPrefixes.append(c);
+            }
+        }
+
+        return new ChannelMember(nick, newPrefixes.toString());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ChannelMember)) {
+            return false;
+        }
+
+        ChannelMember other = (ChannelMember) obj;
+        return nick.equals(other.nick) && prefixes.equals(other.prefixes);
+    }
+
+    @Override
+    public int hashCode() {
+        return nick.hashCode() * 31 + prefixes.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return prefixes + nick;
+    }
+}
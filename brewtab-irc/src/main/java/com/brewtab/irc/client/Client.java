@@ -22,6 +22,9 @@
 
 package com.brewtab.irc.client;
 
+import java.util.Collection;
+import java.util.Map;
+
 import com.brewtab.irc.Connection;
 import com.brewtab.irc.User;
 
@@ -57,6 +60,33 @@ public interface Client {
      */
     public Channel join(String channelName);
 
+    /**
+     * Join several channels at once. JOINs are packed into as few lines as
+     * possible and the channels are joined concurrently. Returns once every
+     * channel has been joined or refused.
+     * 
+     * @param channelNames the channels to join
+     * @return a map from each channel name to its channel, or to null if the
+     *         channel could not be joined, in the order given
+     */
+    public Map<String, Channel> joinAll(Collection<String> channelNames);
+
+    /**
+     * Add a listener notified as the client reconnects after losing its
+     * connection. Reconnecting is enabled with
+     * {@link ClientFactory#setReconnectPolicy(ReconnectPolicy)}.
+     * 
+     * @param listener the listener
+     */
+    public void addReconnectListener(ReconnectListener listener);
+
+    /**
+     * Remove a reconnect listener
+     * 
+     * @param listener the listener
+     */
+    public void removeReconnectListener(ReconnectListener listener);
+
     /**
      * Send a message to a user
      * 
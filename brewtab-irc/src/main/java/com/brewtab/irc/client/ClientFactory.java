@@ -22,6 +22,7 @@
 
 package com.brewtab.irc.client;
 
+import com.brewtab.irc.OverflowPolicy;
 import com.brewtab.irc.impl.ClientFactoryImpl;
 
 public abstract class ClientFactory {
@@ -32,6 +33,10 @@ public abstract class ClientFactory {
     public static final String DEFAULT_HOSTNAME = "localhost";
     public static final String DEFAULT_REALNAME = "Brewtab IRC Client";
 
+    public static final int DEFAULT_DISPATCH_THREADS = 16;
+    public static final int DEFAULT_DISPATCH_QUEUE_SIZE = 10000;
+    public static final OverflowPolicy DEFAULT_DISPATCH_OVERFLOW_POLICY = OverflowPolicy.BLOCK;
+
     public abstract void setUsername(String username);
 
     public abstract void setHostname(String hostname);
@@ -40,6 +45,47 @@ public abstract class ClientFactory {
 
     public abstract void setNick(String nick);
 
+    /**
+     * Set the number of threads used to deliver messages to listeners.
+     * Messages for a single listener are always delivered in order, one at a
+     * time. Clients created by one factory share its dispatch threads, so
+     * this must be called before the first connect. Ignored by factories
+     * created from a {@link ClientHost}.
+     * 
+     * @param threads the maximum number of dispatch threads
+     */
+    public abstract void setDispatchThreads(int threads);
+
+    /**
+     * Set the number of messages which may be waiting for delivery to a single
+     * listener.
+     * 
+     * @param queueSize the per-listener queue bound
+     */
+    public abstract void setDispatchQueueSize(int queueSize);
+
+    /**
+     * Set what happens when a listener's queue is full. The default,
+     * {@link OverflowPolicy#BLOCK}, never loses a message but stops reading
+     * from the server until there is space. Responses to requests are
+     * collected on the reading thread, so a listener waiting for one, e.g. in
+     * {@link Client#join(String)}, only holds up reading once its own queue
+     * fills. The drop policies never hold up reading, but a listener which
+     * misses messages may see stale channel state.
+     * 
+     * @param policy the overflow policy
+     */
+    public abstract void setDispatchOverflowPolicy(OverflowPolicy policy);
+
+    /**
+     * Set how clients reconnect after losing their connection. A reconnected
+     * client registers again and rejoins its channels; its listeners are kept.
+     * By default clients do not reconnect.
+     * 
+     * @param policy the reconnect policy, or null to not reconnect
+     */
+    public abstract void setReconnectPolicy(ReconnectPolicy policy);
+
     public abstract Client connect(String uri);
 
     public abstract Client connect(String uri, String password);
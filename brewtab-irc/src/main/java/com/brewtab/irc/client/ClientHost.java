@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.client;
+
+import com.brewtab.irc.impl.ClientHostImpl;
+
+/**
+ * Runs any number of clients, possibly connected to different networks, on a
+ * shared set of network threads, a shared listener dispatch pool and a shared
+ * timer. Clients are created with factories obtained from
+ * {@link #newClientFactory()}.
+ */
+public abstract class ClientHost {
+    public static final int DEFAULT_WORKER_THREADS = Runtime.getRuntime().availableProcessors() * 2;
+
+    /**
+     * Create a new factory for clients run by this host. Dispatch thread
+     * settings on the factory are ignored; dispatch threads are shared by
+     * every client of the host.
+     * 
+     * @return a new client factory
+     */
+    public abstract ClientFactory newClientFactory();
+
+    /**
+     * Get the number of clients currently connected or reconnecting through
+     * this host
+     * 
+     * @return the number of clients
+     */
+    public abstract int getClientCount();
+
+    /**
+     * Close every client's connection and release the host's threads. The
+     * host may not be used afterwards. Must not be called from a listener.
+     */
+    public abstract void shutdown();
+
+    /**
+     * @return true if {@link #shutdown()} has been called
+     */
+    public abstract boolean isShutdown();
+
+    /**
+     * Create a new host with the default number of threads
+     * 
+     * @return the new host
+     */
+    public static ClientHost newInstance() {
+        return newInstance(DEFAULT_WORKER_THREADS, ClientFactory.DEFAULT_DISPATCH_THREADS);
+    }
+
+    /**
+     * Create a new host
+     * 
+     * @param workerThreads the number of network I/O threads
+     * @param dispatchThreads the maximum number of threads delivering messages
+     *            to listeners
+     * @return the new host
+     */
+    public static ClientHost newInstance(int workerThreads, int dispatchThreads) {
+        return new ClientHostImpl(workerThreads, dispatchThreads);
+    }
+}
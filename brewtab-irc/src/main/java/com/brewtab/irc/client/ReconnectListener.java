@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.client;
+
+/**
+ * Notified as a client reconnects after losing its connection
+ */
+public interface ReconnectListener {
+    /**
+     * Called when a reconnect attempt has been scheduled
+     * 
+     * @param attempt the attempt number, starting at 1
+     * @param delayMillis the time until the attempt
+     */
+    public void onReconnecting(int attempt, long delayMillis);
+
+    /**
+     * Called once the client has reconnected, registered and rejoined its
+     * channels
+     */
+    public void onReconnected();
+
+    /**
+     * Called when the client gives up reconnecting
+     */
+    public void onReconnectAbandoned();
+}
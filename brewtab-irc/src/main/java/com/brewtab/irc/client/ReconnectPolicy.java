@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.client;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Determines how a client reconnects after losing its connection. The delay
+ * before each attempt grows exponentially from the initial delay up to the
+ * maximum delay, and a random fraction of it, up to the jitter, is removed so
+ * that many clients dropped at once do not reconnect in step.
+ */
+public final class ReconnectPolicy {
+    /**
+     * Start at one second, double up to five minutes, with up to half of each
+     * delay removed at random, and never give up
+     */
+    public static final ReconnectPolicy DEFAULT = new ReconnectPolicy(1, 300, TimeUnit.SECONDS, 2.0, 0.5, 0);
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final double multiplier;
+    private final double jitter;
+    private final int maxAttempts;
+
+    /**
+     * Create a new reconnect policy
+     * 
+     * @param initialDelay the delay before the first attempt
+     * @param maxDelay the longest delay between attempts
+     * @param unit the unit of initialDelay and maxDelay
+     * @param multiplier the factor by which the delay grows after each attempt
+     * @param jitter the largest fraction of each delay removed at random,
+     *            between 0 and 1
+     * @param maxAttempts the number of attempts before giving up, or 0 to
+     *            never give up
+     */
+    public ReconnectPolicy(long initialDelay, long maxDelay, TimeUnit unit, double multiplier, double jitter,
+        int maxAttempts) {
+        if (initialDelay < 0 || maxDelay < initialDelay) {
+            throw new IllegalArgumentException("delays must satisfy 0 <= initialDelay <= maxDelay");
+        }
+
+        if (multiplier < 1.0) {
+            throw new IllegalArgumentException("multiplier must be at least 1");
+        }
+
+        if (jitter < 0.0 || jitter > 1.0) {
+            throw new IllegalArgumentException("jitter must be between 0 and 1");
+        }
+
+        if (maxAttempts < 0) {
+            throw new IllegalArgumentException("maxAttempts must not be negative");
+        }
+
+        this.initialDelayMillis = unit.toMillis(initialDelay);
+        this.maxDelayMillis = unit.toMillis(maxDelay);
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Get the delay before the given attempt
+     * 
+     * @param attempt the attempt number, starting at 1
+     * @param random the source of jitter
+     * @return the delay in milliseconds
+     */
+    public long getDelayMillis(int attempt, Random random) {
+        double delay = initialDelayMillis * Math.pow(multiplier, attempt - 1);
+        delay = Math.min(delay, maxDelayMillis);
+        delay -= delay * jitter * random.nextDouble();
+
+        return (long) delay;
+    }
+
+    /**
+     * @return the number of attempts before giving up, or 0 if unlimited
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
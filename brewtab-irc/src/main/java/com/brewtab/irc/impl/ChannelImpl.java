@@ -23,19 +23,26 @@
 package com.brewtab.irc.impl;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.brewtab.irc.Connection;
+import com.brewtab.irc.ResponseFuture;
 import com.brewtab.irc.User;
 import com.brewtab.irc.client.Channel;
 import com.brewtab.irc.client.ChannelListener;
+import com.brewtab.irc.client.ChannelMember;
 import com.brewtab.irc.client.Client;
 import com.brewtab.irc.messages.Message;
 import com.brewtab.irc.messages.MessageListener;
 import com.brewtab.irc.messages.MessageType;
+import com.brewtab.irc.messages.filter.MessageFilter;
 import com.brewtab.irc.messages.filter.MessageFilters;
+import com.brewtab.irc.util.CaseMapping;
 
 /**
  * An IRC channel. Represents a connection to an IRC channel.
@@ -43,23 +50,45 @@ import com.brewtab.irc.messages.filter.MessageFilters;
  * @author Christopher Thunes <cthunes@brewtab.com>
  */
 class ChannelImpl implements MessageListener, Channel {
+    /* Longest wait for the server to answer a JOIN or NAMES request */
+    static final long RESPONSE_TIMEOUT_MILLIS = 60000;
+
+    /* Modes granting the prefixes in ChannelMember.PREFIXES, in the same order */
+    private static final String MEMBER_MODES = "qaohv";
+
+    /* Other modes which always take a parameter */
+    private static final String LIST_MODES = "beIk";
+
     /* Channel name */
     private String channelName;
 
     /* IRC Client */
-    private Client client;
+    private ClientImpl client;
 
     /* Associated IRCConnection object */
     private Connection connection;
 
+    /* Case mapping channel names in replies are compared with */
+    private CaseMapping caseMapping;
+
     /* Set once the channel has been joined */
     private CountDownLatch joined;
 
     /* IRCChanneListners for this channel */
     private List<ChannelListener> listeners;
 
-    /* List of nicks in the channel */
-    private List<String> names;
+    /* Users in the channel */
+    private ChannelMembers members;
+
+    /*
+     * Names list being received. Only accessed from onMessage, which is never
+     * called concurrently, so updates from JOIN, PART, etc. are applied in
+     * order with the names list.
+     */
+    private List<ChannelMember> pendingNames;
+
+    /* Released when the end of a names list is received */
+    private volatile CountDownLatch namesReceived;
 
     /**
      * Instantiate a new IRCChannel object associated with the given IRCClient
@@ -67,35 +96,38 @@ class ChannelImpl implements MessageListener, Channel {
      * @param client The client to operate with
      * @param channelName The channel to join
      */
-    public ChannelImpl(Client client, String channelName) {
+    public ChannelImpl(ClientImpl client, String channelName) {
         this.client = client;
         this.connection = client.getConnection();
         this.channelName = channelName;
+        this.caseMapping = client.getUserRegistry().getCaseMapping();
         this.joined = new CountDownLatch(1);
-        this.listeners = new LinkedList<ChannelListener>();
-        this.names = new ArrayList<String>();
+        this.listeners = new CopyOnWriteArrayList<ChannelListener>();
+        this.members = new ChannelMembers(caseMapping);
+        this.pendingNames = new ArrayList<ChannelMember>();
+        this.namesReceived = new CountDownLatch(1);
 
-        /*
-         * Build a compound filter collecting messages sent regarding this
-         * channel and include all QUIT messages. Some QUIT messages will
-         * concern this channel if it's a user in this channel QUITing
-         */
+        client.getUserRegistry().addChannel(channelName, this);
+        connection.addMessageListener(newFilter(channelName, caseMapping), this);
+    }
 
-        connection.addMessageListener(
-            MessageFilters.any(
-                // Messages targeted to the channel
-                MessageFilters.message(MessageType.PRIVMSG, channelName),
-                MessageFilters.message(MessageType.JOIN, channelName),
-                MessageFilters.message(MessageType.PART, channelName),
-                MessageFilters.message(MessageType.RPL_TOPIC, channelName),
-                MessageFilters.message(MessageType.RPL_NOTOPIC, channelName),
-                MessageFilters.message(MessageType.RPL_NAMREPLY, null, "=", channelName),
-                MessageFilters.message(MessageType.RPL_ENDOFNAMES, null, channelName),
-
-                // Messages which may be relevant to our channel
-                MessageFilters.message(MessageType.QUIT),
-                MessageFilters.message(MessageType.NICK)),
-            this);
+    /**
+     * Build a compound filter collecting messages sent regarding a channel.
+     * QUIT and NICK messages from its members are delivered by the client's
+     * user registry.
+     */
+    static MessageFilter newFilter(String channelName, CaseMapping caseMapping) {
+        return MessageFilters.any(
+            // Messages targeted to the channel
+            MessageFilters.message(MessageType.PRIVMSG, channelName),
+            MessageFilters.message(MessageType.JOIN, channelName),
+            MessageFilters.message(MessageType.PART, channelName),
+            MessageFilters.message(MessageType.KICK, channelName),
+            MessageFilters.message(MessageType.MODE, channelName),
+            MessageFilters.message(MessageType.RPL_TOPIC, channelName),
+            MessageFilters.message(MessageType.RPL_NOTOPIC, channelName),
+            namesReply(channelName, caseMapping),
+            reply(MessageType.RPL_ENDOFNAMES, channelName, caseMapping));
     }
 
     /*
@@ -117,39 +149,136 @@ class ChannelImpl implements MessageListener, Channel {
     }
 
     /**
-     * Perform the join to the channel. Returns once the join operation is
-     * complete
+     * Match a numeric reply about this channel, which gives the channel name
+     * after our nick in whichever case the server uses
+     */
+    private MessageFilter reply(MessageType type) {
+        return reply(type, channelName, caseMapping);
+    }
+
+    private static MessageFilter reply(MessageType type, String channelName, CaseMapping caseMapping) {
+        return MessageFilters.name(type, 1, channelName, caseMapping);
+    }
+
+    /**
+     * Match a names list entry for this channel
+     */
+    private MessageFilter namesReply() {
+        return namesReply(channelName, caseMapping);
+    }
+
+    private static MessageFilter namesReply(String channelName, CaseMapping caseMapping) {
+        return MessageFilters.name(MessageType.RPL_NAMREPLY, 2, channelName, caseMapping);
+    }
+
+    /**
+     * Send a message which is answered with a names list for this channel.
+     * The names are stored by {@link #onMessage(Message)} as the list arrives.
      * 
-     * @return true if joined successfully, false otherwise
+     * @param last a filter matching the last message of the response
+     * @param messages the messages to send, may be empty
+     * @return a future for the response
      */
-    public boolean join() {
-        Message joinMessage = new Message(MessageType.JOIN, this.channelName);
-        List<Message> response;
+    private ResponseFuture requestNames(MessageFilter last, Message... messages) {
+        namesReceived = new CountDownLatch(1);
 
-        try {
-            response = connection.request(
-                MessageFilters.message(MessageType.RPL_NAMREPLY, null, "=", channelName),
-                MessageFilters.message(MessageType.RPL_ENDOFNAMES, null, channelName),
-                joinMessage);
-        } catch (InterruptedException e) {
+        return connection.requestAsync(namesReply(), last, messages);
+    }
+
+    /**
+     * Check if a request completed with a full names list rather than an
+     * error
+     */
+    private static boolean isNamesResponse(ResponseFuture future) {
+        if (!future.isSuccess()) {
             return false;
         }
 
-        List<String> names = new ArrayList<String>();
+        List<Message> response = future.getNow();
+        return response.get(response.size() - 1).getType() == MessageType.RPL_ENDOFNAMES;
+    }
 
-        for (Message message : response) {
-            if (message.getType() == MessageType.RPL_NAMREPLY) {
-                String[] args = message.getArgs();
+    /**
+     * Wait for a names request to complete and for its names to be stored,
+     * cancelling the request if it is not answered in time
+     * 
+     * @return true if names were received
+     */
+    private boolean awaitNames(ResponseFuture future) {
+        CountDownLatch latch = namesReceived;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RESPONSE_TIMEOUT_MILLIS);
 
-                for (String name : args[args.length - 1].split(" ")) {
-                    names.add(name.replaceFirst("^[@+]", ""));
-                }
+        try {
+            future.get(RESPONSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+            if (!isNamesResponse(future)) {
+                return false;
             }
+
+            return latch.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            return false;
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            return false;
+        } catch (ExecutionException e) {
+            return false;
         }
+    }
+
+    /**
+     * Wait for the response to a JOIN for this channel without sending one.
+     * The response ends with the end of the names list or with an error
+     * preventing the join.
+     * 
+     * @param messages the messages to send once the response is awaited
+     * @return a future for the response
+     */
+    ResponseFuture awaitJoin(Message... messages) {
+        return requestNames(
+            MessageFilters.any(
+                reply(MessageType.RPL_ENDOFNAMES),
+                reply(MessageType.ERR_NOSUCHCHANNEL),
+                reply(MessageType.ERR_TOOMANYCHANNELS),
+                reply(MessageType.ERR_CHANNELISFULL),
+                reply(MessageType.ERR_INVITEONLYCHAN),
+                reply(MessageType.ERR_BANNEDFROMCHAN),
+                reply(MessageType.ERR_BADCHANNELKEY),
+                reply(MessageType.ERR_BADCHANMASK),
+                reply(MessageType.ERR_NOCHANMODES),
+                reply(MessageType.ERR_UNAVAILRESOURCE)),
+            messages);
+    }
 
-        this.names = names;
+    /**
+     * Check if a response awaited with {@link #awaitJoin(Message...)} means
+     * the channel was joined
+     * 
+     * @param future a completed future
+     * @return true if the channel was joined
+     */
+    static boolean isJoined(ResponseFuture future) {
+        return isNamesResponse(future);
+    }
+
+    /**
+     * Start joining the channel without waiting for the join to complete
+     * 
+     * @return a future for the names list sent in response to the join
+     */
+    public ResponseFuture joinAsync() {
+        return awaitJoin(new Message(MessageType.JOIN, this.channelName));
+    }
 
-        return true;
+    /**
+     * Perform the join to the channel. Returns once the join operation is
+     * complete
+     * 
+     * @return true if joined successfully, false otherwise
+     */
+    public boolean join() {
+        return awaitNames(joinAsync());
     }
 
     /*
@@ -160,6 +289,7 @@ class ChannelImpl implements MessageListener, Channel {
     public void part(String reason) {
         Message partMessage = new Message(MessageType.PART, this.channelName, reason);
         this.client.getConnection().send(partMessage);
+        this.client.channelParted(this);
         this.joined = new CountDownLatch(1);
     }
 
@@ -192,7 +322,29 @@ class ChannelImpl implements MessageListener, Channel {
      */
     @Override
     public List<String> getNames() {
-        return names;
+        return members.nicks();
+    }
+
+    @Override
+    public List<ChannelMember> getMembers() {
+        return members.snapshot();
+    }
+
+    @Override
+    public ChannelMember getMember(String nick) {
+        return members.get(nick);
+    }
+
+    /**
+     * Makes a NAMES request to the server for this channel without waiting for
+     * the reply. The names list is replaced once the reply is complete.
+     * 
+     * @return a future for the names reply
+     */
+    public ResponseFuture refreshNamesAsync() {
+        return requestNames(
+            reply(MessageType.RPL_ENDOFNAMES),
+            new Message(MessageType.NAMES, this.channelName));
     }
 
     /**
@@ -201,31 +353,7 @@ class ChannelImpl implements MessageListener, Channel {
      * IRCChannel#getNames
      */
     public void refreshNames() {
-        Message namesMessage = new Message(MessageType.NAMES, this.channelName);
-        List<Message> response;
-
-        try {
-            response = connection.request(
-                MessageFilters.message(MessageType.RPL_NAMREPLY, null, "=", channelName),
-                MessageFilters.message(MessageType.RPL_ENDOFNAMES, null, channelName),
-                namesMessage);
-        } catch (InterruptedException e) {
-            return;
-        }
-
-        List<String> names = new ArrayList<String>();
-
-        for (Message message : response) {
-            if (message.getType() == MessageType.RPL_NAMREPLY) {
-                String[] args = message.getArgs();
-
-                for (String name : args[args.length - 1].split(" ")) {
-                    names.add(name.replaceFirst("^[@+]", ""));
-                }
-            }
-        }
-
-        this.names = names;
+        awaitNames(refreshNamesAsync());
     }
 
     /*
@@ -238,9 +366,41 @@ class ChannelImpl implements MessageListener, Channel {
         this.listeners.add(listener);
     }
 
+    /**
+     * Apply channel operator and voice changes from a MODE message. Modes
+     * are given as e.g. "+o-v nick1 nick2"; modes which take a parameter
+     * consume the next one in order.
+     * 
+     * @param args the MODE message arguments, starting with the channel
+     */
+    private void updateMemberModes(String[] args) {
+        if (args.length < 2) {
+            return;
+        }
+
+        String modes = args[1];
+        int param = 2;
+        boolean adding = true;
+
+        for (int i = 0; i < modes.length(); i++) {
+            char mode = modes.charAt(i);
+            int prefixIndex = MEMBER_MODES.indexOf(mode);
+
+            if (mode == '+' || mode == '-') {
+                adding = (mode == '+');
+            } else if (prefixIndex >= 0) {
+                if (param < args.length) {
+                    members.setPrefix(args[param++], ChannelMember.PREFIXES.charAt(prefixIndex), adding);
+                }
+            } else if (LIST_MODES.indexOf(mode) >= 0 || (adding && mode == 'l')) {
+                param++;
+            }
+        }
+    }
+
     @Override
     public void onMessage(Message message) {
-        User user = User.fromPrefix(message.getPrefix());
+        User user = message.getUser();
 
         switch (message.getType()) {
         case JOIN:
@@ -256,9 +416,7 @@ class ChannelImpl implements MessageListener, Channel {
             this.joined.countDown();
 
             /* Add user to names list */
-            if (!this.names.contains(user.getNick())) {
-                this.names.add(user.getNick());
-            }
+            this.members.add(user.getNick());
 
             /* Call listeners */
             for (ChannelListener listener : this.listeners) {
@@ -273,9 +431,7 @@ class ChannelImpl implements MessageListener, Channel {
             }
 
             /* Remove nick from names list */
-            if (this.names.contains(user.getNick())) {
-                this.names.remove(user.getNick());
-            }
+            this.members.remove(user.getNick());
 
             /* Call listeners */
             for (ChannelListener listener : this.listeners) {
@@ -283,6 +439,31 @@ class ChannelImpl implements MessageListener, Channel {
             }
             break;
 
+        case KICK:
+            /* Remove kicked nick from names list */
+            if (message.getArgCount() > 1) {
+                this.members.remove(message.getArgs()[1]);
+            }
+            break;
+
+        case MODE:
+            updateMemberModes(message.getArgs());
+            break;
+
+        case RPL_NAMREPLY:
+            for (String name : message.getArgs()[message.getArgCount() - 1].split(" ")) {
+                if (name.length() > 0) {
+                    this.pendingNames.add(ChannelMember.parse(name));
+                }
+            }
+            break;
+
+        case RPL_ENDOFNAMES:
+            this.members.replaceAll(this.pendingNames);
+            this.pendingNames = new ArrayList<ChannelMember>();
+            this.namesReceived.countDown();
+            break;
+
         case PRIVMSG:
             /* Must have valid user prefix */
             if (user == null) {
@@ -302,9 +483,7 @@ class ChannelImpl implements MessageListener, Channel {
             }
 
             /* Remove nick from names list */
-            if (this.names.contains(user.getNick())) {
-                this.names.remove(user.getNick());
-            }
+            this.members.remove(user.getNick());
 
             /* Call listeners */
             for (ChannelListener listener : this.listeners) {
@@ -319,10 +498,7 @@ class ChannelImpl implements MessageListener, Channel {
             }
 
             /* Replace nick in names list */
-            if (this.names.contains(user.getNick())) {
-                this.names.remove(user.getNick());
-                this.names.add(message.getArgs()[0]);
-            }
+            this.members.rename(user.getNick(), message.getArgs()[0]);
             break;
 
         default:
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.brewtab.irc.client.ChannelMember;
+import com.brewtab.irc.util.CaseMapping;
+
+/**
+ * The members of a channel keyed by case-mapped nick. Updates are O(1) and
+ * safe to make concurrently with reads. Readers iterate over snapshots.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+class ChannelMembers {
+    private final CaseMapping caseMapping;
+
+    /* Replaced wholesale when a new names list is received */
+    private volatile ConcurrentMap<String, ChannelMember> members;
+
+    public ChannelMembers(CaseMapping caseMapping) {
+        this.caseMapping = caseMapping;
+        this.members = new ConcurrentHashMap<String, ChannelMember>();
+    }
+
+    private String key(String nick) {
+        return caseMapping.toLowerCase(nick);
+    }
+
+    /**
+     * Replace every member, e.g. with a fresh names list
+     * 
+     * @param newMembers the new members
+     */
+    public void replaceAll(Collection<ChannelMember> newMembers) {
+        ConcurrentMap<String, ChannelMember> map = new ConcurrentHashMap<String, ChannelMember>(
+            Math.max(16, newMembers.size() * 2));
+
+        for (ChannelMember member : newMembers) {
+            map.put(key(member.getNick()), member);
+        }
+
+        members = map;
+    }
+
+    /**
+     * Add a member with no prefixes unless already present
+     * 
+     * @param nick the member's nick
+     */
+    public void add(String nick) {
+        members.putIfAbsent(key(nick), new ChannelMember(nick, ""));
+    }
+
+    /**
+     * Remove a member
+     * 
+     * @param nick the member's nick
+     * @return the removed member or null if not a member
+     */
+    public ChannelMember remove(String nick) {
+        return members.remove(key(nick));
+    }
+
+    /**
+     * Change a member's nick, keeping their prefixes
+     * 
+     * @param oldNick the current nick
+     * @param newNick the new nick
+     * @return true if the nick was a member
+     */
+    public boolean rename(String oldNick, String newNick) {
+        ConcurrentMap<String, ChannelMember> map = members;
+        ChannelMember member = map.remove(key(oldNick));
+
+        if (member == null) {
+            return false;
+        }
+
+        map.put(key(newNick), member.withNick(newNick));
+        return true;
+    }
+
+    /**
+     * Add or remove a mode prefix of a member
+     * 
+     * @param nick the member's nick
+     * @param prefix the prefix character
+     * @param present true to add the prefix, false to remove it
+     */
+    public void setPrefix(String nick, char prefix, boolean present) {
+        ConcurrentMap<String, ChannelMember> map = members;
+        String key = key(nick);
+        ChannelMember member = map.get(key);
+
+        if (member != null) {
+            map.replace(key, member, member.withPrefix(prefix, present));
+        }
+    }
+
+    public ChannelMember get(String nick) {
+        return members.get(key(nick));
+    }
+
+    public boolean contains(String nick) {
+        return members.containsKey(key(nick));
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * @return a snapshot of the members
+     */
+    public List<ChannelMember> snapshot() {
+        return new ArrayList<ChannelMember>(members.values());
+    }
+
+    /**
+     * @return a snapshot of the members' nicks
+     */
+    public List<String> nicks() {
+        List<String> nicks = new ArrayList<String>(members.size());
+
+        for (ChannelMember member : members.values()) {
+            nicks.add(member.getNick());
+        }
+
+        return nicks;
+    }
+}
@@ -28,17 +28,36 @@ import java.net.URI;
 import java.net.URISyntaxException;
 
 import com.brewtab.irc.ConnectionException;
+import com.brewtab.irc.OverflowPolicy;
 import com.brewtab.irc.client.Client;
 import com.brewtab.irc.client.ClientFactory;
+import com.brewtab.irc.client.ClientHost;
+import com.brewtab.irc.client.ReconnectPolicy;
 
 public class ClientFactoryImpl extends ClientFactory {
     private String username = DEFAULT_USERNAME;
     private String hostname = DEFAULT_HOSTNAME;
     private String realName = DEFAULT_REALNAME;
     private String nick = null;
+    private int dispatchThreads = DEFAULT_DISPATCH_THREADS;
+    private int dispatchQueueSize = DEFAULT_DISPATCH_QUEUE_SIZE;
+    private OverflowPolicy dispatchOverflowPolicy = DEFAULT_DISPATCH_OVERFLOW_POLICY;
+
+    private ReconnectPolicy reconnectPolicy = null;
+
+    /* Host running this factory's clients */
+    private ClientHostImpl host;
+
+    /* True if host was created by and belongs to this factory */
+    private final boolean ownsHost;
+
+    ClientFactoryImpl(ClientHostImpl host) {
+        this.host = host;
+        this.ownsHost = (host == null);
+    }
 
     public static ClientFactory newInstance() {
-        return new ClientFactoryImpl();
+        return new ClientFactoryImpl(null);
     }
 
     @Override
@@ -64,6 +83,38 @@ public class ClientFactoryImpl extends ClientFactory {
         this.nick = nick;
     }
 
+    @Override
+    public void setDispatchThreads(int threads) {
+        this.dispatchThreads = threads;
+    }
+
+    /**
+     * Get the host for new clients. A factory created without a host creates
+     * one on first use which is shared by all of its clients.
+     */
+    private synchronized ClientHostImpl getHost() {
+        if (host == null && ownsHost) {
+            host = new ClientHostImpl(ClientHost.DEFAULT_WORKER_THREADS, dispatchThreads);
+        }
+
+        return host;
+    }
+
+    @Override
+    public void setDispatchQueueSize(int queueSize) {
+        this.dispatchQueueSize = queueSize;
+    }
+
+    @Override
+    public void setDispatchOverflowPolicy(OverflowPolicy policy) {
+        this.dispatchOverflowPolicy = policy;
+    }
+
+    @Override
+    public void setReconnectPolicy(ReconnectPolicy policy) {
+        this.reconnectPolicy = policy;
+    }
+
     private URI parseConnectURISpec(String uriSpec) {
         final URI uri;
 
@@ -109,11 +160,18 @@ public class ClientFactoryImpl extends ClientFactory {
             throw new ConnectionException("Nick must be provided to connect");
         }
 
-        ClientImpl client = new ClientImpl();
+        ClientHostImpl clientHost = getHost();
+        OrderedDispatcher dispatcher = new OrderedDispatcher(
+            clientHost.getDispatchExecutor(),
+            dispatchQueueSize,
+            dispatchOverflowPolicy);
+
+        ClientImpl client = new ClientImpl(clientHost, dispatcher);
         SocketAddress socketAddress = new InetSocketAddress(host, port);
 
         client.connect(socketAddress, useSSL);
         client.registerConnection(nick, username, hostname, realName, password);
+        client.setReconnectPolicy(reconnectPolicy);
 
         return client;
     }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.brewtab.irc.NotConnectedException;
+import com.brewtab.irc.client.ClientFactory;
+import com.brewtab.irc.client.ClientHost;
+
+public class ClientHostImpl extends ClientHost {
+    private static final Logger log = LoggerFactory.getLogger(ClientHostImpl.class);
+
+    /* Netty objects shared by all clients */
+    private final ExecutorService bossExecutor;
+    private final ExecutorService workerExecutor;
+    private final ChannelFactory channelFactory;
+    private final Timer timer;
+
+    /* Executor delivering messages to listeners of all clients */
+    private final ThreadPoolExecutor dispatchExecutor;
+
+    /* Executor running reconnect attempts, which block */
+    private final ExecutorService reconnectExecutor;
+
+    /* Connected clients */
+    private final Set<ClientImpl> clients;
+
+    private volatile boolean shutdown;
+
+    public ClientHostImpl(int workerThreads, int dispatchThreads) {
+        this.bossExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("irc-boss"));
+        this.workerExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("irc-worker"));
+        this.channelFactory = new NioClientSocketChannelFactory(bossExecutor, workerExecutor, workerThreads);
+        this.timer = new HashedWheelTimer(new NamedThreadFactory("irc-timer", true), 10, TimeUnit.MILLISECONDS);
+        this.dispatchExecutor = OrderedDispatcher.newExecutor(dispatchThreads);
+        this.reconnectExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("irc-reconnect", true));
+        this.clients = new CopyOnWriteArraySet<ClientImpl>();
+        this.shutdown = false;
+    }
+
+    @Override
+    public ClientFactory newClientFactory() {
+        checkNotShutdown();
+        return new ClientFactoryImpl(this);
+    }
+
+    @Override
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    ChannelFactory getChannelFactory() {
+        return channelFactory;
+    }
+
+    ThreadPoolExecutor getDispatchExecutor() {
+        return dispatchExecutor;
+    }
+
+    ExecutorService getReconnectExecutor() {
+        return reconnectExecutor;
+    }
+
+    Timer getTimer() {
+        return timer;
+    }
+
+    private void checkNotShutdown() {
+        if (shutdown) {
+            throw new IllegalStateException("client host has been shut down");
+        }
+    }
+
+    /**
+     * Track a client while it is connected or reconnecting
+     * 
+     * @param client the client
+     */
+    void register(ClientImpl client) {
+        checkNotShutdown();
+        clients.add(client);
+    }
+
+    /**
+     * Stop tracking a client which has closed for good
+     * 
+     * @param client the client
+     */
+    void deregister(ClientImpl client) {
+        clients.remove(client);
+    }
+
+    @Override
+    public void shutdown() {
+        if (shutdown) {
+            return;
+        }
+
+        shutdown = true;
+        log.debug("shutting down client host with {} clients", clients.size());
+
+        List<ChannelFuture> closeFutures = new ArrayList<ChannelFuture>();
+
+        for (ClientImpl client : clients) {
+            client.stopReconnecting();
+
+            try {
+                closeFutures.add(client.getConnection().close());
+            } catch (NotConnectedException e) {
+                // Already closed
+            }
+        }
+
+        for (ChannelFuture future : closeFutures) {
+            future.awaitUninterruptibly();
+        }
+
+        clients.clear();
+
+        channelFactory.releaseExternalResources();
+        timer.stop();
+        dispatchExecutor.shutdown();
+        reconnectExecutor.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+}
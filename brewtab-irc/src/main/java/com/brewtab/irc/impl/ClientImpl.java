@@ -23,23 +23,31 @@
 package com.brewtab.irc.impl;
 
 import java.net.SocketAddress;
+import java.nio.charset.Charset;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 import org.jboss.netty.bootstrap.ClientBootstrap;
-import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelPipeline;
-import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.handler.ssl.SslHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,51 +56,115 @@ import com.brewtab.irc.Connection;
 import com.brewtab.irc.ConnectionException;
 import com.brewtab.irc.ConnectionStateListener;
 import com.brewtab.irc.NotConnectedException;
+import com.brewtab.irc.ResponseFuture;
 import com.brewtab.irc.User;
 import com.brewtab.irc.client.Channel;
 import com.brewtab.irc.client.Client;
 import com.brewtab.irc.client.NickNameInUseException;
+import com.brewtab.irc.client.ReconnectListener;
+import com.brewtab.irc.client.ReconnectPolicy;
 import com.brewtab.irc.messages.Message;
 import com.brewtab.irc.messages.MessageListener;
 import com.brewtab.irc.messages.MessageType;
 import com.brewtab.irc.messages.filter.MessageFilters;
+import com.brewtab.irc.util.CaseMapping;
 
 class ClientImpl implements Client {
     private static final Logger log = LoggerFactory.getLogger(ClientImpl.class);
 
+    /* Maximum length of a line sent to the server including CR-LF */
+    private static final int MAX_LINE_LENGTH = 512;
+
     /* Default SSL context, initialized lazily */
     private static SSLContext defaultSSLContext = null;
 
     /* SSLContext used by this client, may be specified externally */
     private SSLContext sslContext = null;
 
+    /* Host providing threads and the channel factory */
+    private ClientHostImpl host;
+
     /* Netty objects */
     private ClientBootstrap bootstrap;
 
     /* Connection information */
     private String nick;
+    private String configuredNick;
     private String username;
     private String hostname;
     private String realName;
+    private String password;
+    private SocketAddress socketAddress;
+    private boolean useSSL;
 
     private ConnectionImpl connection;
 
-    private boolean connected;
+    private volatile boolean connected;
+
+    /* Joined channels, rejoined after reconnecting */
+    private Set<ChannelImpl> channels;
+
+    private ReconnectSupervisor reconnectSupervisor;
+
+    /* Channels each nick is in, shared by every channel */
+    private UserRegistry users;
 
     /**
-     * Construct a new IRCClient connected to the given address
+     * Construct a new IRCClient run by the given host and delivering messages
+     * with the given dispatcher
      * 
-     * @param address The address to connect to
+     * @param host The host providing threads for the client
+     * @param dispatcher The dispatcher used to deliver inbound messages
      */
-    ClientImpl() {
-        this.connection = new ConnectionImpl();
+    ClientImpl(ClientHostImpl host, OrderedDispatcher dispatcher) {
+        this.host = host;
+        this.connection = new ConnectionImpl(dispatcher, host.getTimer());
 
         this.nick = null;
+        this.configuredNick = null;
         this.username = null;
         this.hostname = null;
         this.realName = null;
 
         this.connected = false;
+        this.channels = new CopyOnWriteArraySet<ChannelImpl>();
+        this.users = new UserRegistry(connection, CaseMapping.RFC1459);
+        this.connection.addObserver(users);
+        this.reconnectSupervisor = new ReconnectSupervisor(this, host.getTimer(), host.getReconnectExecutor());
+
+        this.connection.addConnectionStateListener(new ConnectionStateListener() {
+            @Override
+            public void onConnectionConnected() {
+            }
+
+            @Override
+            public void onConnectionClosing() {
+            }
+
+            @Override
+            public void onConnectionClosed() {
+                connected = false;
+
+                if (!reconnectSupervisor.connectionLost()) {
+                    ClientImpl.this.host.deregister(ClientImpl.this);
+                }
+            }
+        });
+
+        this.reconnectSupervisor.addListener(new ReconnectListener() {
+            @Override
+            public void onReconnecting(int attempt, long delayMillis) {
+            }
+
+            @Override
+            public void onReconnected() {
+            }
+
+            @Override
+            public void onReconnectAbandoned() {
+                ClientImpl.this.host.deregister(ClientImpl.this);
+            }
+        });
 
         this.connection.addMessageListener(
             MessageFilters.message(MessageType.PING, (String) null),
@@ -180,9 +252,8 @@ class ClientImpl implements Client {
      * Connect to the remote server and perform the SSL handshake if SSL is being used.
      */
     void connect(SocketAddress socketAddress, boolean useSSL) {
-        ChannelFactory channelFactory = new NioClientSocketChannelFactory(
-            Executors.newCachedThreadPool(),
-            Executors.newCachedThreadPool());
+        this.socketAddress = socketAddress;
+        this.useSSL = useSSL;
 
         ChannelPipeline clientPipeline = NettyChannelPipeline.newPipeline(connection);
         SslHandler sslHandler = null;
@@ -192,7 +263,7 @@ class ClientImpl implements Client {
             clientPipeline.addFirst("ssl", sslHandler);
         }
 
-        bootstrap = new ClientBootstrap(channelFactory);
+        bootstrap = new ClientBootstrap(host.getChannelFactory());
         bootstrap.setOption("tcpNoDelay", true);
         bootstrap.setPipeline(clientPipeline);
 
@@ -238,6 +309,7 @@ class ClientImpl implements Client {
                 }
 
                 connected = true;
+                host.register(this);
             } else {
                 log.debug("connection failed");
                 throw new ConnectionException(future.getCause());
@@ -250,6 +322,21 @@ class ClientImpl implements Client {
     }
 
     void registerConnection(String nick, String username, String hostname, String realName, String password) {
+        this.username = username;
+        this.hostname = hostname;
+        this.realName = realName;
+        this.password = password;
+
+        register(nick);
+
+        this.configuredNick = nick;
+    }
+
+    /**
+     * Register the connection under the given nick with the stored user
+     * details. The nick is used for this session only.
+     */
+    private void register(String nick) {
         log.debug("registering connection");
 
         Message nickMessage = new Message(MessageType.NICK, nick);
@@ -287,9 +374,101 @@ class ClientImpl implements Client {
         }
 
         this.nick = nick;
-        this.username = username;
-        this.hostname = hostname;
-        this.realName = realName;
+    }
+
+    void setReconnectPolicy(ReconnectPolicy policy) {
+        reconnectSupervisor.setPolicy(policy);
+    }
+
+    /**
+     * Stop reconnecting, e.g. because the client is being shut down
+     */
+    void stopReconnecting() {
+        reconnectSupervisor.stop();
+    }
+
+    /**
+     * Re-establish a lost connection: connect to the same server, register
+     * with the same details and rejoin every joined channel. Message listeners
+     * remain registered with the connection throughout. The configured nick is
+     * always tried first; if it is in use, most likely by our own stale
+     * session, an underscore is appended to it for this session only.
+     * 
+     * @throws ConnectionException if the connection is lost before every
+     *         channel has been rejoined, so that the attempt is retried
+     */
+    void reconnect() {
+        /* Members are relearned from the names lists sent on rejoining */
+        users.clear();
+
+        connect(socketAddress, useSSL);
+
+        try {
+            register(configuredNick);
+        } catch (NickNameInUseException e) {
+            log.info("nick {} in use, registering as {}_", configuredNick, configuredNick);
+            register(configuredNick + "_");
+        }
+
+        Map<String, ChannelImpl> rejoin = new LinkedHashMap<String, ChannelImpl>();
+
+        for (ChannelImpl channel : channels) {
+            rejoin.put(channel.getName(), channel);
+        }
+
+        for (Map.Entry<String, Boolean> entry : joinChannels(rejoin).entrySet()) {
+            if (!entry.getValue()) {
+                log.warn("could not rejoin {}", entry.getKey());
+            }
+        }
+
+        /* A close while rejoining was ignored by the supervisor, so report it */
+        if (!connection.isConnected()) {
+            throw new ConnectionException("connection lost while rejoining channels");
+        }
+    }
+
+    /**
+     * Close the connection if open and wait for it to close
+     */
+    void closeQuietly() {
+        try {
+            connection.close().awaitUninterruptibly();
+        } catch (NotConnectedException e) {
+            // Already closed
+        }
+    }
+
+    /**
+     * Called by a channel when it is parted
+     * 
+     * @param channel the channel
+     */
+    void channelParted(ChannelImpl channel) {
+        channels.remove(channel);
+        users.removeChannel(channel.getName());
+    }
+
+    /**
+     * Stop delivering messages to a channel which was not joined
+     */
+    private void discardChannel(ChannelImpl channel) {
+        connection.removeMessageListener(channel);
+        users.removeChannel(channel.getName());
+    }
+
+    UserRegistry getUserRegistry() {
+        return users;
+    }
+
+    @Override
+    public void addReconnectListener(ReconnectListener listener) {
+        reconnectSupervisor.addListener(listener);
+    }
+
+    @Override
+    public void removeReconnectListener(ReconnectListener listener) {
+        reconnectSupervisor.removeListener(listener);
     }
 
     /**
@@ -303,6 +482,8 @@ class ClientImpl implements Client {
             throw new NotConnectedException();
         }
 
+        reconnectSupervisor.stop();
+
         Message quit = new Message(MessageType.QUIT, reason);
         ChannelFuture future = connection.send(quit);
 
@@ -338,13 +519,143 @@ class ClientImpl implements Client {
 
         /* Attempt to join */
         if (channel.join()) {
+            channels.add(channel);
             return channel;
         }
 
+        discardChannel(channel);
+
         /* Error while joining */
         return null;
     }
 
+    @Override
+    public Map<String, Channel> joinAll(Collection<String> channelNames) {
+        if (!connected) {
+            throw new NotConnectedException();
+        }
+
+        Map<String, ChannelImpl> toJoin = new LinkedHashMap<String, ChannelImpl>();
+
+        for (String channelName : channelNames) {
+            if (!toJoin.containsKey(channelName)) {
+                toJoin.put(channelName, new ChannelImpl(this, channelName));
+            }
+        }
+
+        Map<String, Channel> result = new LinkedHashMap<String, Channel>();
+
+        for (Map.Entry<String, Boolean> entry : joinChannels(toJoin).entrySet()) {
+            ChannelImpl channel = toJoin.get(entry.getKey());
+
+            if (entry.getValue()) {
+                channels.add(channel);
+                result.put(entry.getKey(), channel);
+            } else {
+                discardChannel(channel);
+                result.put(entry.getKey(), null);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Join channels concurrently with packed JOIN messages. Channels whose
+     * response does not arrive in time are treated as not joined.
+     * 
+     * @param toJoin the channels to join keyed by name
+     * @return whether each channel was joined, in the order given
+     */
+    private Map<String, Boolean> joinChannels(Map<String, ChannelImpl> toJoin) {
+        Map<String, Boolean> result = new LinkedHashMap<String, Boolean>();
+
+        if (toJoin.isEmpty()) {
+            return result;
+        }
+
+        /* Await every response before sending anything */
+        Map<String, ResponseFuture> responses = new LinkedHashMap<String, ResponseFuture>();
+
+        for (Map.Entry<String, ChannelImpl> entry : toJoin.entrySet()) {
+            responses.put(entry.getKey(), entry.getValue().awaitJoin());
+        }
+
+        connection.send(packJoins(toJoin.keySet(), NettyChannelPipeline.CHARSET));
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ChannelImpl.RESPONSE_TIMEOUT_MILLIS);
+        boolean interrupted = false;
+
+        for (Map.Entry<String, ResponseFuture> entry : responses.entrySet()) {
+            ResponseFuture response = entry.getValue();
+
+            if (!interrupted) {
+                try {
+                    response.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (TimeoutException e) {
+                    log.warn("no response joining {}", entry.getKey());
+                } catch (ExecutionException e) {
+                    // Handled below
+                }
+            }
+
+            if (response.isDone() && ChannelImpl.isJoined(response)) {
+                result.put(entry.getKey(), true);
+            } else {
+                response.cancel(false);
+                result.put(entry.getKey(), false);
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        return result;
+    }
+
+    /**
+     * Build JOIN messages for the given channels, each joining as many
+     * channels as fit in a single line
+     * 
+     * @param charset the charset lines are encoded with, which the line
+     *        limit is measured in
+     */
+    static Message[] packJoins(Collection<String> channelNames, Charset charset) {
+        /* Room for the channel list after "JOIN " and before CR-LF */
+        final int maxLength = MAX_LINE_LENGTH - 2 - MessageType.JOIN.toString().length() - 1;
+
+        List<Message> joins = new ArrayList<Message>();
+        StringBuilder channels = new StringBuilder();
+        int length = 0;
+
+        for (String channelName : channelNames) {
+            int channelLength = channelName.getBytes(charset).length;
+
+            if (length > 0 && length + 1 + channelLength > maxLength) {
+                joins.add(new Message(MessageType.JOIN, channels.toString()));
+                channels.setLength(0);
+                length = 0;
+            }
+
+            if (length > 0) {
+                channels.append(',');
+                length++;
+            }
+
+            channels.append(channelName);
+            length += channelLength;
+        }
+
+        if (channels.length() > 0) {
+            joins.add(new Message(MessageType.JOIN, channels.toString()));
+        }
+
+        return joins.toArray(new Message[joins.size()]);
+    }
+
     @Override
     public void sendMessage(User user, String message) {
         if (!connected) {
@@ -22,30 +22,45 @@
 
 package com.brewtab.irc.impl;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelStateEvent;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.brewtab.irc.Connection;
+import com.brewtab.irc.ConnectionException;
 import com.brewtab.irc.ConnectionStateListener;
+import com.brewtab.irc.FlushPolicy;
 import com.brewtab.irc.NotConnectedException;
+import com.brewtab.irc.InboundStats;
+import com.brewtab.irc.OutboundStats;
+import com.brewtab.irc.RateLimit;
+import com.brewtab.irc.ResponseFuture;
+import com.brewtab.irc.ResponseListener;
 import com.brewtab.irc.messages.Message;
 import com.brewtab.irc.messages.MessageListener;
+import com.brewtab.irc.messages.filter.CompiledFilter;
 import com.brewtab.irc.messages.filter.MessageFilter;
 import com.brewtab.irc.messages.filter.MessageFilters;
 
@@ -55,17 +70,43 @@ class ConnectionImpl extends SimpleChannelHandler implements Connection {
     private Channel channel;
     private boolean connected;
     private Map<MessageListener, MessageFilter> messageListeners;
+
+    /* Listeners called on the I/O thread rather than dispatched */
+    private Set<MessageListener> inlineListeners;
+    private List<MessageListener> observers;
     private List<ConnectionStateListener> connectionStateListeners;
-    private ExecutorService executor;
+    private MessageRouter router;
+    private OrderedDispatcher dispatcher;
+    private WriteCoalescer writeCoalescer;
+    private FloodController floodController;
+    private Timer timer;
 
-    public ConnectionImpl() {
+    /* Requests awaiting a response */
+    private Set<ResponseFutureImpl> pendingRequests;
+
+    /* Inbound statistics */
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong dispatchedCount = new AtomicLong();
+
+    public ConnectionImpl(OrderedDispatcher dispatcher, Timer timer) {
         channel = null;
         connected = false;
 
         messageListeners = new ConcurrentHashMap<MessageListener, MessageFilter>();
+        inlineListeners = Collections.newSetFromMap(new ConcurrentHashMap<MessageListener, Boolean>());
+        router = new MessageRouter();
+        observers = new CopyOnWriteArrayList<MessageListener>();
         connectionStateListeners = new CopyOnWriteArrayList<ConnectionStateListener>();
 
-        executor = Executors.newCachedThreadPool();
+        this.dispatcher = dispatcher;
+        this.timer = timer;
+        this.pendingRequests = Collections.newSetFromMap(new ConcurrentHashMap<ResponseFutureImpl, Boolean>());
+        this.writeCoalescer = new WriteCoalescer(timer);
+        this.floodController = new FloodController(null, null, timer);
+    }
+
+    public ConnectionImpl() {
+        this(new OrderedDispatcher(), SharedTimer.get());
     }
 
     @Override
@@ -83,7 +124,7 @@ class ConnectionImpl extends SimpleChannelHandler implements Connection {
         connected = true;
 
         for (final ConnectionStateListener listener : connectionStateListeners) {
-            executor.execute(new Runnable() {
+            dispatcher.dispatch(listener, new Runnable() {
                 @Override
                 public void run() {
                     try {
@@ -103,7 +144,7 @@ class ConnectionImpl extends SimpleChannelHandler implements Connection {
         log.debug("channel closing");
 
         for (final ConnectionStateListener listener : connectionStateListeners) {
-            executor.execute(new Runnable() {
+            dispatcher.dispatch(listener, new Runnable() {
                 @Override
                 public void run() {
                     try {
@@ -124,8 +165,12 @@ class ConnectionImpl extends SimpleChannelHandler implements Connection {
 
         connected = false;
 
+        for (ResponseFutureImpl request : pendingRequests) {
+            request.fail(new ConnectionException("connection closed"));
+        }
+
         for (final ConnectionStateListener listener : connectionStateListeners) {
-            executor.execute(new Runnable() {
+            dispatcher.dispatch(listener, new Runnable() {
                 @Override
                 public void run() {
                     try {
@@ -142,33 +187,82 @@ class ConnectionImpl extends SimpleChannelHandler implements Connection {
 
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
-        final Message message = (Message) e.getMessage();
+        Message message = (Message) e.getMessage();
+        receivedCount.incrementAndGet();
 
         if (log.isDebugEnabled()) {
             log.debug("<<< {}", message.toString().trim());
         }
 
-        for (Map.Entry<MessageListener, MessageFilter> entry : messageListeners.entrySet()) {
-            final MessageListener listener = entry.getKey();
-            final MessageFilter filter = entry.getValue();
-
-            if (filter.check(message)) {
-                executor.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            listener.onMessage(message);
-                        } catch (Exception e) {
-                            log.error("caught exception from onMessage", e);
-                        }
-                    }
-                });
+        for (MessageListener observer : observers) {
+            try {
+                observer.onMessage(message);
+            } catch (Exception ex) {
+                log.error("caught exception from observer", ex);
+            }
+        }
+
+        for (MessageListener listener : router.candidates(message)) {
+            MessageFilter filter = messageListeners.get(listener);
+
+            if (filter != null && filter.check(message)) {
+                dispatch(listener, message);
             }
         }
 
         super.messageReceived(ctx, e);
     }
 
+    private void dispatch(final MessageListener listener, final Message message) {
+        if (inlineListeners.contains(listener)) {
+            try {
+                listener.onMessage(message);
+            } catch (Exception e) {
+                log.error("caught exception from onMessage", e);
+            }
+
+            return;
+        }
+
+        dispatchedCount.incrementAndGet();
+        dispatcher.dispatch(listener, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    listener.onMessage(message);
+                } catch (Exception e) {
+                    log.error("caught exception from onMessage", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Deliver a message to a registered listener regardless of its filter.
+     * Delivery is ordered with messages the listener receives through its
+     * filter. Nothing is delivered if the listener has been removed.
+     * 
+     * @param listener the listener
+     * @param message the message
+     */
+    void deliver(MessageListener listener, Message message) {
+        if (messageListeners.containsKey(listener)) {
+            dispatch(listener, message);
+        }
+    }
+
+    /**
+     * Add an observer which is given every received message before it is
+     * dispatched to listeners. Observers are called on the I/O thread, so
+     * anything they deliver is ordered with the message's other deliveries,
+     * and must not block.
+     * 
+     * @param observer the observer
+     */
+    void addObserver(MessageListener observer) {
+        observers.add(observer);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
         log.error("caught exception in Netty pipeline, closing channel", e.getCause());
@@ -210,56 +304,179 @@ class ConnectionImpl extends SimpleChannelHandler implements Connection {
     }
 
     @Override
-    public List<Message> request(MessageFilter match, final MessageFilter last, Message message)
-        throws InterruptedException {
-        final List<Message> response = new LinkedList<Message>();
-        final CountDownLatch responseReceived = new CountDownLatch(1);
+    public ResponseFuture requestAsync(MessageFilter match, MessageFilter last, Message... messages) {
+        return requestAsync(match, last, 0, TimeUnit.MILLISECONDS, messages);
+    }
+
+    /**
+     * Responses are collected on the I/O thread, so a request completes even
+     * while every dispatch thread is busy, e.g. with listeners waiting on
+     * other requests. The future's listeners are called on the thread which
+     * completes it.
+     */
+    @Override
+    public ResponseFuture requestAsync(MessageFilter match, final MessageFilter last, long timeout, TimeUnit unit,
+        Message... messages) {
+        if (!connected) {
+            throw new NotConnectedException();
+        }
 
-        addMessageListener(
-            MessageFilters.range(match, last),
-            new MessageListener() {
+        final ResponseFutureImpl future = new ResponseFutureImpl();
+        final MessageListener listener = new MessageListener() {
+            private final List<Message> response = new ArrayList<Message>();
+
+            @Override
+            public void onMessage(Message message) {
+                response.add(message);
+
+                if (last.check(message)) {
+                    future.complete(response);
+                }
+            }
+        };
+
+        final Timeout timeoutHandle;
+
+        if (timeout > 0) {
+            timeoutHandle = timer.newTimeout(new TimerTask() {
                 @Override
-                public void onMessage(Message message) {
-                    response.add(message);
+                public void run(Timeout timeout) throws Exception {
+                    future.fail(new TimeoutException("no response received in time"));
+                }
+            }, timeout, unit);
+        } else {
+            timeoutHandle = null;
+        }
+
+        /* Stop collecting the response however the request ends */
+        future.addListener(new ResponseListener() {
+            @Override
+            public void onResponse(ResponseFuture f) {
+                removeMessageListener(listener);
+                pendingRequests.remove(future);
+
+                if (timeoutHandle != null) {
+                    timeoutHandle.cancel();
+                }
+            }
+        });
+
+        pendingRequests.add(future);
+        inlineListeners.add(listener);
+        addMessageListener(MessageFilters.range(match, last), listener);
 
-                    if (last.check(message)) {
-                        responseReceived.countDown();
-                        removeMessageListener(this);
+        if (messages.length == 0) {
+            return future;
+        }
+
+        try {
+            send(messages).addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture sent) throws Exception {
+                    if (!sent.isSuccess()) {
+                        future.fail(sent.getCause());
                     }
                 }
             });
+        } catch (NotConnectedException e) {
+            future.fail(e);
+        }
 
-        send(message);
-        responseReceived.await();
+        return future;
+    }
 
-        return response;
+    @Override
+    public List<Message> request(MessageFilter match, MessageFilter last, Message message)
+        throws InterruptedException {
+        return awaitResponse(requestAsync(match, last, message));
     }
 
     @Override
-    public List<Message> request(MessageFilter match, final MessageFilter last, Message... messages)
+    public List<Message> request(MessageFilter match, MessageFilter last, Message... messages)
         throws InterruptedException {
+        return awaitResponse(requestAsync(match, last, messages));
+    }
 
-        final List<Message> response = new LinkedList<Message>();
-        final CountDownLatch responseReceived = new CountDownLatch(1);
+    /**
+     * Wait for a response, cancelling the request if interrupted
+     */
+    private static List<Message> awaitResponse(ResponseFuture future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
 
-        addMessageListener(
-            MessageFilters.range(match, last),
-            new MessageListener() {
-                @Override
-                public void onMessage(Message message) {
-                    response.add(message);
+            throw new ConnectionException("request failed", e.getCause());
+        }
+    }
 
-                    if (last.check(message)) {
-                        responseReceived.countDown();
-                        removeMessageListener(this);
-                    }
-                }
-            });
+    @Override
+    public void setFlushPolicy(FlushPolicy policy) {
+        writeCoalescer.setPolicy(policy);
+    }
 
-        send(messages);
-        responseReceived.await();
+    @Override
+    public FlushPolicy getFlushPolicy() {
+        return writeCoalescer.getPolicy();
+    }
 
-        return response;
+    @Override
+    public void flush() {
+        if (!connected) {
+            throw new NotConnectedException();
+        }
+
+        writeCoalescer.flush(channel);
+    }
+
+    @Override
+    public void setRateLimit(RateLimit limit) {
+        floodController.setConnectionLimit(limit);
+    }
+
+    @Override
+    public RateLimit getRateLimit() {
+        return floodController.getConnectionLimit();
+    }
+
+    @Override
+    public void setTargetRateLimit(RateLimit limit) {
+        floodController.setTargetLimit(limit);
+    }
+
+    @Override
+    public RateLimit getTargetRateLimit() {
+        return floodController.getTargetLimit();
+    }
+
+    @Override
+    public OutboundStats getOutboundStats() {
+        return floodController.getStats();
+    }
+
+    @Override
+    public InboundStats getInboundStats() {
+        return new InboundStats(receivedCount.get(), dispatchedCount.get(), dispatcher.getQueueDepth(),
+            dispatcher.getDroppedCount());
+    }
+
+    /**
+     * @return the handler which limits the rate of writes on this connection
+     */
+    FloodController getFloodController() {
+        return floodController;
+    }
+
+    /**
+     * @return the handler which coalesces writes on this connection
+     */
+    WriteCoalescer getWriteCoalescer() {
+        return writeCoalescer;
     }
 
     @Override
@@ -273,7 +490,10 @@ class ConnectionImpl extends SimpleChannelHandler implements Connection {
 
     @Override
     public void addMessageListener(MessageFilter filter, MessageListener listener) {
-        messageListeners.put(listener, filter);
+        CompiledFilter compiled = MessageFilters.compile(filter);
+
+        messageListeners.put(listener, compiled);
+        router.add(listener, compiled);
     }
 
     @Override
@@ -283,12 +503,16 @@ class ConnectionImpl extends SimpleChannelHandler implements Connection {
 
     @Override
     public void removeMessageListener(MessageListener listener) {
+        router.remove(listener);
         messageListeners.remove(listener);
+        inlineListeners.remove(listener);
+        dispatcher.remove(listener);
     }
 
     @Override
     public void removeConnectionStateListener(ConnectionStateListener listener) {
         connectionStateListeners.remove(listener);
+        dispatcher.remove(listener);
     }
 
     @Override
@@ -0,0 +1,538 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+import com.brewtab.irc.OutboundStats;
+import com.brewtab.irc.RateLimit;
+import com.brewtab.irc.messages.Message;
+import com.brewtab.irc.messages.MessageType;
+
+/**
+ * Limits the rate at which messages are written using token buckets, one for
+ * the connection and one per message target. Messages which must not wait
+ * behind chat output (PING, PONG and registration) are written immediately.
+ * Other messages are queued per target and the queues are served round-robin
+ * so one long response does not hold up every other target. Untargeted
+ * commands (JOIN, PART, QUIT and so on) are barriers: they are written only
+ * after every message queued before them, and nothing queued after them is
+ * written first.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+class FloodController extends SimpleChannelHandler {
+    /* Message types which bypass the queues */
+    private static final Set<MessageType> PRIORITY_TYPES = EnumSet.of(
+        MessageType.PING,
+        MessageType.PONG,
+        MessageType.PASS,
+        MessageType.NICK,
+        MessageType.USER);
+
+    /* Message types whose first argument is used as the target */
+    private static final Set<MessageType> TARGETED_TYPES = EnumSet.of(
+        MessageType.PRIVMSG,
+        MessageType.NOTICE);
+
+    /* Number of idle target buckets kept before pruning */
+    private static final int MAX_IDLE_BUCKETS = 256;
+
+    /**
+     * A queued message
+     */
+    private static class Pending {
+        final Message message;
+        final ChannelFuture future;
+        final String target;
+        final long sequence;
+        final long enqueuedNanos;
+
+        Pending(Message message, ChannelFuture future, String target, long sequence, long enqueuedNanos) {
+            this.message = message;
+            this.future = future;
+            this.target = target;
+            this.sequence = sequence;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    /**
+     * A token bucket. Not thread safe.
+     */
+    static class TokenBucket {
+        private final int burst;
+        private final long intervalNanos;
+
+        /* Tokens in units of 1/intervalNanos */
+        private long credit;
+        private long lastRefill;
+
+        TokenBucket(RateLimit limit, long now) {
+            this.burst = limit.getBurst();
+            this.intervalNanos = limit.getIntervalNanos();
+            this.credit = burst * intervalNanos;
+            this.lastRefill = now;
+        }
+
+        private void refill(long now) {
+            credit = Math.min(burst * intervalNanos, credit + (now - lastRefill));
+            lastRefill = now;
+        }
+
+        /**
+         * @return 0 if a token is available or the nanoseconds until one is
+         */
+        long waitNanos(long now) {
+            refill(now);
+            return credit >= intervalNanos ? 0 : intervalNanos - credit;
+        }
+
+        void take() {
+            credit -= intervalNanos;
+        }
+
+        /**
+         * Take a token even if none is available, borrowing from the future
+         */
+        void takeAlways(long now) {
+            refill(now);
+            credit = Math.max(credit - intervalNanos, -burst * intervalNanos);
+        }
+
+        boolean isFull(long now) {
+            refill(now);
+            return credit >= burst * intervalNanos;
+        }
+    }
+
+    /* Timer used to schedule drains when tokens run out */
+    private final Timer timer;
+
+    private RateLimit connectionLimit;
+    private RateLimit targetLimit;
+
+    private TokenBucket connectionBucket;
+    private final Map<String, TokenBucket> targetBuckets;
+
+    /* Queues by target in round-robin order, null for untargeted messages */
+    private final LinkedHashMap<String, Queue<Pending>> queues;
+    private int queueDepth;
+
+    /* Sequence number of the next queued message, for ordering barriers */
+    private long nextSequence;
+
+    /* True while a thread is writing queued messages */
+    private boolean draining;
+
+    /* Scheduled drain for when the next token is available */
+    private Timeout drainTimeout;
+
+    /* Statistics */
+    private long sentCount;
+    private long delayedCount;
+    private long totalDelayNanos;
+    private long maxDelayNanos;
+
+    public FloodController(RateLimit connectionLimit, RateLimit targetLimit, Timer timer) {
+        this.timer = timer;
+        this.connectionLimit = connectionLimit;
+        this.targetLimit = targetLimit;
+        this.connectionBucket = null;
+        this.targetBuckets = new HashMap<String, TokenBucket>();
+        this.queues = new LinkedHashMap<String, Queue<Pending>>();
+        this.queueDepth = 0;
+        this.nextSequence = 0;
+        this.draining = false;
+        this.drainTimeout = null;
+    }
+
+    public synchronized RateLimit getConnectionLimit() {
+        return connectionLimit;
+    }
+
+    /**
+     * Set the limit applied to all messages on the connection
+     * 
+     * @param limit the limit or null for no limit
+     */
+    public synchronized void setConnectionLimit(RateLimit limit) {
+        connectionLimit = limit;
+        connectionBucket = null;
+    }
+
+    public synchronized RateLimit getTargetLimit() {
+        return targetLimit;
+    }
+
+    /**
+     * Set the limit applied separately to messages for each target
+     * 
+     * @param limit the limit or null for no limit
+     */
+    public synchronized void setTargetLimit(RateLimit limit) {
+        targetLimit = limit;
+        targetBuckets.clear();
+    }
+
+    public synchronized OutboundStats getStats() {
+        return new OutboundStats(
+            queueDepth,
+            sentCount,
+            delayedCount,
+            TimeUnit.NANOSECONDS.toMillis(totalDelayNanos),
+            TimeUnit.NANOSECONDS.toMillis(maxDelayNanos));
+    }
+
+    private static String getTarget(Message message) {
+        if (TARGETED_TYPES.contains(message.getType()) && message.getArgCount() > 0) {
+            return message.getArgs()[0].toLowerCase(Locale.ENGLISH);
+        }
+
+        return null;
+    }
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        Object msg = e.getMessage();
+
+        if (msg instanceof Message) {
+            write(ctx, (Message) msg, e.getFuture());
+        } else if (msg instanceof Message[]) {
+            Message[] messages = (Message[]) msg;
+            ChannelFutureListener aggregate = aggregate(e.getFuture(), messages.length);
+
+            for (Message message : messages) {
+                ChannelFuture future = Channels.future(ctx.getChannel());
+                future.addListener(aggregate);
+                write(ctx, message, future);
+            }
+        } else {
+            super.writeRequested(ctx, e);
+        }
+    }
+
+    /**
+     * Create a listener which completes the given future once it has seen
+     * count successful futures, or fails it on the first failure
+     */
+    private static ChannelFutureListener aggregate(final ChannelFuture future, int count) {
+        final AtomicInteger remaining = new AtomicInteger(count);
+
+        if (count == 0) {
+            future.setSuccess();
+        }
+
+        return new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture part) throws Exception {
+                if (!part.isSuccess()) {
+                    future.setFailure(part.getCause());
+                } else if (remaining.decrementAndGet() == 0) {
+                    future.setSuccess();
+                }
+            }
+        };
+    }
+
+    private void write(ChannelHandlerContext ctx, Message message, ChannelFuture future) {
+        long now = System.nanoTime();
+
+        if (PRIORITY_TYPES.contains(message.getType())) {
+            synchronized (this) {
+                if (connectionLimit != null) {
+                    getConnectionBucket(now).takeAlways(now);
+                }
+
+                sentCount++;
+            }
+
+            Channels.write(ctx, future, message);
+            return;
+        }
+
+        String target = getTarget(message);
+
+        synchronized (this) {
+            Queue<Pending> queue = queues.get(target);
+
+            if (queue == null) {
+                queue = new LinkedList<Pending>();
+                queues.put(target, queue);
+            }
+
+            queue.add(new Pending(message, future, target, nextSequence++, now));
+            queueDepth++;
+        }
+
+        drain(ctx);
+    }
+
+    private TokenBucket getConnectionBucket(long now) {
+        if (connectionBucket == null) {
+            connectionBucket = new TokenBucket(connectionLimit, now);
+        }
+
+        return connectionBucket;
+    }
+
+    private TokenBucket getTargetBucket(String target, long now) {
+        TokenBucket bucket = targetBuckets.get(target);
+
+        if (bucket == null) {
+            if (targetBuckets.size() >= MAX_IDLE_BUCKETS) {
+                pruneTargetBuckets(now);
+            }
+
+            bucket = new TokenBucket(targetLimit, now);
+            targetBuckets.put(target, bucket);
+        }
+
+        return bucket;
+    }
+
+    /**
+     * Remove buckets which have refilled and have nothing queued. A new bucket
+     * behaves identically.
+     */
+    private void pruneTargetBuckets(long now) {
+        Iterator<Map.Entry<String, TokenBucket>> iter = targetBuckets.entrySet().iterator();
+
+        while (iter.hasNext()) {
+            Map.Entry<String, TokenBucket> entry = iter.next();
+
+            if (!queues.containsKey(entry.getKey()) && entry.getValue().isFull(now)) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Write queued messages while tokens are available. Only one thread
+     * writes at a time so messages to a target are written in order.
+     */
+    private void drain(ChannelHandlerContext ctx) {
+        synchronized (this) {
+            if (draining) {
+                return;
+            }
+
+            draining = true;
+        }
+
+        while (true) {
+            List<Pending> ready;
+
+            synchronized (this) {
+                ready = takeReady(ctx);
+
+                if (ready.isEmpty()) {
+                    draining = false;
+                    return;
+                }
+            }
+
+            for (Pending pending : ready) {
+                Channels.write(ctx, pending.future, pending.message);
+            }
+        }
+    }
+
+    /**
+     * Remove the messages which may be written now, scheduling a drain for
+     * when the next token is available if messages remain
+     */
+    private List<Pending> takeReady(ChannelHandlerContext ctx) {
+        List<Pending> ready = new ArrayList<Pending>();
+        long now = System.nanoTime();
+
+        while (!queues.isEmpty()) {
+            long wait = connectionLimit == null ? 0 : getConnectionBucket(now).waitNanos(now);
+
+            if (wait > 0) {
+                scheduleDrain(ctx, wait);
+                break;
+            }
+
+            Pending next = null;
+            long minTargetWait = Long.MAX_VALUE;
+
+            /* The oldest untargeted message, which nothing newer may pass */
+            Queue<Pending> untargeted = queues.get(null);
+            long barrier = untargeted == null ? Long.MAX_VALUE : untargeted.peek().sequence;
+
+            for (Map.Entry<String, Queue<Pending>> entry : queues.entrySet()) {
+                String target = entry.getKey();
+                Pending head = entry.getValue().peek();
+
+                if (target == null) {
+                    if (hasTargetedBefore(barrier)) {
+                        continue;
+                    }
+
+                    next = head;
+                    break;
+                }
+
+                if (head.sequence > barrier) {
+                    continue;
+                }
+
+                if (targetLimit == null) {
+                    next = head;
+                    break;
+                }
+
+                TokenBucket bucket = getTargetBucket(target, now);
+                long targetWait = bucket.waitNanos(now);
+
+                if (targetWait == 0) {
+                    bucket.take();
+                    next = head;
+                    break;
+                }
+
+                minTargetWait = Math.min(minTargetWait, targetWait);
+            }
+
+            if (next == null) {
+                scheduleDrain(ctx, minTargetWait);
+                break;
+            }
+
+            if (connectionLimit != null) {
+                connectionBucket.take();
+            }
+
+            /* Move the target to the back of the round-robin order */
+            Queue<Pending> queue = queues.remove(next.target);
+            queue.remove();
+
+            if (!queue.isEmpty()) {
+                queues.put(next.target, queue);
+            }
+
+            queueDepth--;
+            recordSent(next, now);
+            ready.add(next);
+        }
+
+        return ready;
+    }
+
+    /**
+     * @return true if a targeted message older than the given sequence number
+     *         is queued
+     */
+    private boolean hasTargetedBefore(long sequence) {
+        for (Map.Entry<String, Queue<Pending>> entry : queues.entrySet()) {
+            if (entry.getKey() != null && entry.getValue().peek().sequence < sequence) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void recordSent(Pending pending, long now) {
+        long delay = now - pending.enqueuedNanos;
+
+        sentCount++;
+        totalDelayNanos += delay;
+        maxDelayNanos = Math.max(maxDelayNanos, delay);
+
+        if (delay >= TimeUnit.MILLISECONDS.toNanos(1)) {
+            delayedCount++;
+        }
+    }
+
+    private void scheduleDrain(final ChannelHandlerContext ctx, long delayNanos) {
+        if (drainTimeout != null) {
+            return;
+        }
+
+        drainTimeout = timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                synchronized (FloodController.this) {
+                    drainTimeout = null;
+                }
+
+                drain(ctx);
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        List<Pending> dropped = new ArrayList<Pending>();
+
+        synchronized (this) {
+            for (Queue<Pending> queue : queues.values()) {
+                dropped.addAll(queue);
+            }
+
+            queues.clear();
+            queueDepth = 0;
+            connectionBucket = null;
+            targetBuckets.clear();
+
+            if (drainTimeout != null) {
+                drainTimeout.cancel();
+                drainTimeout = null;
+            }
+        }
+
+        Throwable cause = new ClosedChannelException();
+
+        for (Pending pending : dropped) {
+            pending.future.setFailure(cause);
+        }
+
+        super.channelClosed(ctx, e);
+    }
+}
@@ -22,9 +22,12 @@
 
 package com.brewtab.irc.impl;
 
+import java.nio.charset.Charset;
+
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
-import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,24 +35,79 @@ import com.brewtab.irc.messages.InvalidMessageException;
 import com.brewtab.irc.messages.Message;
 
 /**
- * Decode a String into an IRCMessage object. The String should be a newline
- * terminated line formatted as it would be as part of an IRC connection.
+ * Decode IRCMessage objects directly from the inbound byte stream. Each line
+ * is located with a single scan for its terminator, copied out of the buffer
+ * once and then parsed in place by {@link Message#fromBytes(byte[], Charset)}.
  * 
  * @author Christopher Thunes <cthunes@brewtab.com>
  * @see <a href="http://www.irchelp.org/irchelp/rfc/rfc.html">
  *      http://www.irchelp.org/irchelp/rfc/rfc.html</a>
  */
-class MessageDecoder extends OneToOneDecoder {
+class MessageDecoder extends FrameDecoder {
     private static final Logger log = LoggerFactory.getLogger(MessageDecoder.class);
 
+    /* Lines longer than this are discarded */
+    private final int maxFrameLength;
+
+    /* Charset used to decode message contents */
+    private final Charset charset;
+
+    /* Set while discarding the remainder of an overlong line */
+    private boolean discarding;
+
+    public MessageDecoder(int maxFrameLength, Charset charset) {
+        this.maxFrameLength = maxFrameLength;
+        this.charset = charset;
+        this.discarding = false;
+    }
+
     @Override
-    protected Object decode(ChannelHandlerContext ctx, Channel channel, Object msg) {
-        String message = (String) msg;
+    protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) {
+        int start = buffer.readerIndex();
+        int eol = buffer.indexOf(start, buffer.writerIndex(), (byte) '\n');
+
+        if (eol == -1) {
+            if (buffer.readableBytes() > maxFrameLength) {
+                if (!discarding) {
+                    log.warn("Discarding line longer than {} bytes", maxFrameLength);
+                    discarding = true;
+                }
+
+                buffer.skipBytes(buffer.readableBytes());
+            }
+
+            return null;
+        }
+
+        /* Consume the line and its terminator */
+        buffer.readerIndex(eol + 1);
+
+        if (discarding) {
+            discarding = false;
+            return null;
+        }
+
+        int length = eol - start;
+        if (length > 0 && buffer.getByte(eol - 1) == '\r') {
+            length--;
+        }
+
+        if (length == 0) {
+            return null;
+        }
+
+        if (length > maxFrameLength) {
+            log.warn("Discarding line longer than {} bytes", maxFrameLength);
+            return null;
+        }
+
+        byte[] frame = new byte[length];
+        buffer.getBytes(start, frame);
 
         try {
-            return Message.fromString(message);
+            return Message.fromBytes(frame, charset);
         } catch (InvalidMessageException e) {
-            log.warn("Received unknown/invalid message: {}", e.getMessage());
+            log.warn("Received invalid message: {}", e.getMessage());
             return null;
         }
     }
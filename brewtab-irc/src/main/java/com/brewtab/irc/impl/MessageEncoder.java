@@ -22,6 +22,9 @@
 
 package com.brewtab.irc.impl;
 
+import java.nio.charset.Charset;
+
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
@@ -29,33 +32,33 @@ import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
 import com.brewtab.irc.messages.Message;
 
 /**
- * Encode an IRCMessage or IRCMessage[] into a String
+ * Encode a Message or Message[] into a ChannelBuffer. All messages in a single
+ * write are encoded into one buffer.
  * 
  * @author Christopher Thunes <cthunes@brewtab.com>
  */
 class MessageEncoder extends OneToOneEncoder {
-    private String encodeMessage(Message message) {
-        return message.toString();
-    }
+    /* Charset used to encode messages */
+    private final Charset charset;
 
-    private String encodeMessages(Message[] messages) {
-        StringBuilder sb = new StringBuilder();
-
-        for (Message message : messages) {
-            sb.append(encodeMessage(message));
-        }
-
-        return sb.toString();
+    public MessageEncoder(Charset charset) {
+        this.charset = charset;
     }
 
     @Override
     protected Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) {
-        if (Message.class.isAssignableFrom(msg.getClass())) {
-            return encodeMessage((Message) msg);
-        } else if (Message[].class.isAssignableFrom(msg.getClass())) {
-            return encodeMessages((Message[]) msg);
+        StringBuilder builder = new StringBuilder();
+
+        if (msg instanceof Message) {
+            ((Message) msg).appendTo(builder);
+        } else if (msg instanceof Message[]) {
+            for (Message message : (Message[]) msg) {
+                message.appendTo(builder);
+            }
         } else {
-            throw new IllegalArgumentException("msg must be one of IRCMessage or IRCMessage[]");
+            throw new IllegalArgumentException("msg must be one of Message or Message[]");
         }
+
+        return ChannelBuffers.copiedBuffer(builder, charset);
     }
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import com.brewtab.irc.messages.Message;
+import com.brewtab.irc.messages.MessageListener;
+import com.brewtab.irc.messages.MessageType;
+import com.brewtab.irc.messages.filter.MessageFilter;
+import com.brewtab.irc.messages.filter.MessageFilters;
+import com.brewtab.irc.messages.filter.MessageRoute;
+
+/**
+ * Index of message listeners keyed by message type and first argument. Given
+ * a message it yields the listeners whose filters could accept it, so that
+ * only those filters need to be evaluated. Listeners whose filters can not
+ * describe their routes are always returned.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+class MessageRouter {
+    /**
+     * Listeners interested in a single message type
+     */
+    private static class TypeRoutes {
+        /* Listeners accepting any first argument */
+        private final Set<MessageListener> anyTarget = new CopyOnWriteArraySet<MessageListener>();
+
+        /* Listeners keyed by the first argument they accept */
+        private final ConcurrentMap<String, Set<MessageListener>> byTarget =
+            new ConcurrentHashMap<String, Set<MessageListener>>();
+    }
+
+    /* Routes indexed by message type ordinal */
+    private final TypeRoutes[] routesByType;
+
+    /* Listeners whose filters have no routes */
+    private final Set<MessageListener> unrouted;
+
+    /* Routes each listener was registered with, null for unrouted listeners */
+    private final Map<MessageListener, Set<MessageRoute>> registrations;
+
+    public MessageRouter() {
+        routesByType = new TypeRoutes[MessageType.values().length];
+        for (int i = 0; i < routesByType.length; i++) {
+            routesByType[i] = new TypeRoutes();
+        }
+
+        unrouted = new CopyOnWriteArraySet<MessageListener>();
+        registrations = new HashMap<MessageListener, Set<MessageRoute>>();
+    }
+
+    /**
+     * Add a listener, replacing any previous registration
+     * 
+     * @param listener the listener
+     * @param filter the listener's filter
+     */
+    public synchronized void add(MessageListener listener, MessageFilter filter) {
+        remove(listener);
+
+        Set<MessageRoute> routes = MessageFilters.routes(filter);
+        registrations.put(listener, routes);
+
+        if (routes == null) {
+            unrouted.add(listener);
+            return;
+        }
+
+        for (MessageRoute route : routes) {
+            TypeRoutes typeRoutes = routesByType[route.getType().ordinal()];
+
+            if (route.getTarget() == null) {
+                typeRoutes.anyTarget.add(listener);
+            } else {
+                Set<MessageListener> listeners = typeRoutes.byTarget.get(route.getTarget());
+
+                if (listeners == null) {
+                    listeners = new CopyOnWriteArraySet<MessageListener>();
+                    typeRoutes.byTarget.put(route.getTarget(), listeners);
+                }
+
+                listeners.add(listener);
+            }
+        }
+    }
+
+    /**
+     * Remove a listener
+     * 
+     * @param listener the listener
+     */
+    public synchronized void remove(MessageListener listener) {
+        if (!registrations.containsKey(listener)) {
+            return;
+        }
+
+        Set<MessageRoute> routes = registrations.remove(listener);
+
+        if (routes == null) {
+            unrouted.remove(listener);
+            return;
+        }
+
+        for (MessageRoute route : routes) {
+            TypeRoutes typeRoutes = routesByType[route.getType().ordinal()];
+
+            if (route.getTarget() == null) {
+                typeRoutes.anyTarget.remove(listener);
+            } else {
+                Set<MessageListener> listeners = typeRoutes.byTarget.get(route.getTarget());
+
+                if (listeners != null) {
+                    listeners.remove(listener);
+
+                    if (listeners.isEmpty()) {
+                        typeRoutes.byTarget.remove(route.getTarget());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the listeners whose filters may accept the given message. Each
+     * listener appears at most once.
+     * 
+     * @param message the message
+     * @return the candidate listeners
+     */
+    public List<MessageListener> candidates(Message message) {
+        TypeRoutes typeRoutes = routesByType[message.getType().ordinal()];
+        Set<MessageListener> targeted = null;
+
+        if (message.getArgCount() > 0 && !typeRoutes.byTarget.isEmpty()) {
+            targeted = typeRoutes.byTarget.get(message.getArgs()[0]);
+        }
+
+        List<MessageListener> candidates = new ArrayList<MessageListener>();
+        candidates.addAll(unrouted);
+
+        if (targeted != null) {
+            candidates.addAll(targeted);
+        }
+
+        for (MessageListener listener : typeRoutes.anyTarget) {
+            if (targeted == null || !targeted.contains(listener)) {
+                candidates.add(listener);
+            }
+        }
+
+        return candidates;
+    }
+}
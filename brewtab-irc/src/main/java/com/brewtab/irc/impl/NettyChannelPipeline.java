@@ -22,25 +22,19 @@
 
 package com.brewtab.irc.impl;
 
-import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBuffers;
-import org.jboss.netty.channel.ChannelHandler;
+import java.nio.charset.Charset;
+
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.Channels;
-import org.jboss.netty.handler.codec.frame.DelimiterBasedFrameDecoder;
-import org.jboss.netty.handler.codec.string.StringDecoder;
-import org.jboss.netty.handler.codec.string.StringEncoder;
 
 class NettyChannelPipeline {
-    private static ChannelHandler getFrameDecoder() {
-        /* Frame decoder. Splits stream by \r\n terminated lines */
-        ChannelBuffer delimiterBuffer = ChannelBuffers.wrappedBuffer(new byte[] { '\r', '\n' });
-        ChannelHandler frameDecoder = new DelimiterBasedFrameDecoder(1024, delimiterBuffer);
+    /* Lines longer than this are discarded by the decoder */
+    private static final int MAX_FRAME_LENGTH = 1024;
 
-        return frameDecoder;
-    }
+    /* Charset used on the wire */
+    static final Charset CHARSET = Charset.defaultCharset();
 
-    public static ChannelPipeline newPipeline(ChannelHandler connectionHandler) {
+    public static ChannelPipeline newPipeline(ConnectionImpl connection) {
         ChannelPipeline pipeline = Channels.pipeline();
 
         /*
@@ -49,12 +43,11 @@ class NettyChannelPipeline {
          * messages.
          */
 
-        pipeline.addLast("frameDecoder", getFrameDecoder());
-        pipeline.addLast("stringDecoder", new StringDecoder());
-        pipeline.addLast("stringEncoder", new StringEncoder());
-        pipeline.addLast("ircDecoder", new MessageDecoder());
-        pipeline.addLast("ircEncoder", new MessageEncoder());
-        pipeline.addLast("ircConnectionHandler", connectionHandler);
+        pipeline.addLast("ircDecoder", new MessageDecoder(MAX_FRAME_LENGTH, CHARSET));
+        pipeline.addLast("writeCoalescer", connection.getWriteCoalescer());
+        pipeline.addLast("ircEncoder", new MessageEncoder(CHARSET));
+        pipeline.addLast("floodController", connection.getFloodController());
+        pipeline.addLast("ircConnectionHandler", connection);
 
         return pipeline;
     }
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.brewtab.irc.OverflowPolicy;
+import com.brewtab.irc.client.ClientFactory;
+
+/**
+ * Runs tasks on a bounded pool of threads. Tasks dispatched with the same key
+ * are run one at a time in the order they were dispatched, while tasks for
+ * different keys run in parallel. Each key has its own bounded queue and the
+ * {@link OverflowPolicy} decides what happens when it is full.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+class OrderedDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(OrderedDispatcher.class);
+
+    /* Tasks run by a queue before yielding its thread to other queues */
+    private static final int DRAIN_BATCH_SIZE = 64;
+
+    private final Executor executor;
+    private final int queueSize;
+    private final OverflowPolicy overflowPolicy;
+    private final ConcurrentMap<Object, SerialQueue> queues;
+    private final AtomicLong dropped;
+
+    public OrderedDispatcher(Executor executor, int queueSize, OverflowPolicy overflowPolicy) {
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("queueSize must be positive");
+        }
+
+        this.executor = executor;
+        this.queueSize = queueSize;
+        this.overflowPolicy = overflowPolicy;
+        this.queues = new ConcurrentHashMap<Object, SerialQueue>();
+        this.dropped = new AtomicLong(0);
+    }
+
+    public OrderedDispatcher() {
+        this(newExecutor(ClientFactory.DEFAULT_DISPATCH_THREADS),
+            ClientFactory.DEFAULT_DISPATCH_QUEUE_SIZE,
+            ClientFactory.DEFAULT_DISPATCH_OVERFLOW_POLICY);
+    }
+
+    /**
+     * Create a pool suitable for dispatching. Threads are started on demand
+     * and exit after being idle for a minute.
+     */
+    public static ThreadPoolExecutor newExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            threads, threads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new NamedThreadFactory("irc-dispatch"));
+
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Queue a task to be run after all tasks previously dispatched with the
+     * same key.
+     * 
+     * @param key the key to order the task by
+     * @param task the task
+     */
+    public void dispatch(Object key, Runnable task) {
+        SerialQueue queue = queues.get(key);
+
+        if (queue == null) {
+            SerialQueue newQueue = new SerialQueue();
+
+            queue = queues.putIfAbsent(key, newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+
+        queue.add(task);
+    }
+
+    /**
+     * Forget the queue for the given key. Tasks already queued are still run.
+     * 
+     * @param key the key
+     */
+    public void remove(Object key) {
+        queues.remove(key);
+    }
+
+    /**
+     * Get the total number of tasks waiting to be run
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+
+        for (SerialQueue queue : queues.values()) {
+            depth += queue.size();
+        }
+
+        return depth;
+    }
+
+    /**
+     * Get the number of tasks discarded because a queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Tasks for a single key. At most one thread drains the queue at a time.
+     */
+    private class SerialQueue implements Runnable {
+        /* Guarded by this */
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+
+        /* Set while the queue is submitted to, or running on, the executor */
+        private boolean scheduled = false;
+
+        /* Set from the first task dropped until a task is run again */
+        private boolean overflowing = false;
+
+        synchronized int size() {
+            return tasks.size();
+        }
+
+        void add(Runnable task) {
+            boolean schedule = false;
+
+            synchronized (this) {
+                while (tasks.size() >= queueSize) {
+                    if (overflowPolicy == OverflowPolicy.BLOCK) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            dropped.incrementAndGet();
+                            log.warn("interrupted while waiting for dispatch queue space, dropping task");
+                            return;
+                        }
+                    } else if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                        tasks.poll();
+                        dropped.incrementAndGet();
+                        warnOverflow("oldest");
+                    } else {
+                        dropped.incrementAndGet();
+                        warnOverflow("newest");
+                        return;
+                    }
+                }
+
+                tasks.add(task);
+
+                if (!scheduled) {
+                    scheduled = true;
+                    schedule = true;
+                }
+            }
+
+            if (schedule) {
+                schedule();
+            }
+        }
+
+        /**
+         * Warn once each time the queue fills up rather than for every task
+         * dropped
+         */
+        private void warnOverflow(String which) {
+            if (!overflowing) {
+                overflowing = true;
+                log.warn("dispatch queue full, dropping {} tasks until a listener catches up", which);
+            }
+        }
+
+        private void schedule() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    dropped.addAndGet(tasks.size());
+                    tasks.clear();
+                    scheduled = false;
+                    notifyAll();
+                }
+
+                log.error("dispatch executor rejected task, dropping queued tasks", e);
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < DRAIN_BATCH_SIZE; i++) {
+                Runnable task;
+
+                synchronized (this) {
+                    task = tasks.poll();
+
+                    if (task == null) {
+                        scheduled = false;
+                        return;
+                    }
+
+                    overflowing = false;
+
+                    /* Wake producers blocked on a full queue */
+                    if (tasks.size() == queueSize - 1) {
+                        notifyAll();
+                    }
+                }
+
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.error("caught exception from dispatched task", e);
+                }
+            }
+
+            /* Yield to other queues, rescheduling if there's more to do */
+            synchronized (this) {
+                if (tasks.isEmpty()) {
+                    scheduled = false;
+                    return;
+                }
+            }
+
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.brewtab.irc.client.ReconnectListener;
+import com.brewtab.irc.client.ReconnectPolicy;
+
+/**
+ * Reconnects a client after its connection is lost, waiting between attempts
+ * as directed by a {@link ReconnectPolicy}. Attempts block while connecting
+ * and registering so they run on an executor rather than the timer thread.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+class ReconnectSupervisor {
+    private static final Logger log = LoggerFactory.getLogger(ReconnectSupervisor.class);
+
+    private final ClientImpl client;
+    private final Timer timer;
+    private final Executor executor;
+    private final Random random;
+    private final List<ReconnectListener> listeners;
+
+    private volatile ReconnectPolicy policy;
+
+    /* Attempts made since the connection was lost */
+    private int attempt;
+
+    /* True from losing the connection until reconnected or abandoned */
+    private boolean reconnecting;
+
+    /* True if the connection closed while an attempt was running */
+    private boolean lostDuringAttempt;
+
+    /* True once stopped, no further attempts are made */
+    private boolean stopped;
+
+    private Timeout pendingAttempt;
+
+    public ReconnectSupervisor(ClientImpl client, Timer timer, Executor executor) {
+        this.client = client;
+        this.timer = timer;
+        this.executor = executor;
+        this.random = new Random();
+        this.listeners = new CopyOnWriteArrayList<ReconnectListener>();
+        this.policy = null;
+        this.attempt = 0;
+        this.reconnecting = false;
+        this.lostDuringAttempt = false;
+        this.stopped = false;
+        this.pendingAttempt = null;
+    }
+
+    public void setPolicy(ReconnectPolicy policy) {
+        this.policy = policy;
+    }
+
+    public void addListener(ReconnectListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ReconnectListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Stop reconnecting, cancelling any scheduled attempt
+     */
+    public synchronized void stop() {
+        stopped = true;
+        reconnecting = false;
+
+        if (pendingAttempt != null) {
+            pendingAttempt.cancel();
+            pendingAttempt = null;
+        }
+    }
+
+    /**
+     * Called when the client's connection closes. A close while a reconnect is
+     * in progress is recorded so that an attempt which otherwise succeeded is
+     * retried.
+     * 
+     * @return true if the client is reconnecting
+     */
+    public boolean connectionLost() {
+        synchronized (this) {
+            if (reconnecting) {
+                lostDuringAttempt = true;
+                return true;
+            }
+
+            if (policy == null || stopped) {
+                return false;
+            }
+
+            reconnecting = true;
+            attempt = 0;
+        }
+
+        log.info("connection lost, reconnecting");
+        scheduleAttempt();
+        return true;
+    }
+
+    private void scheduleAttempt() {
+        ReconnectPolicy policy = this.policy;
+        int thisAttempt;
+        boolean abandon = false;
+
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+
+            thisAttempt = ++attempt;
+
+            if (policy == null || (policy.getMaxAttempts() > 0 && thisAttempt > policy.getMaxAttempts())) {
+                reconnecting = false;
+                abandon = true;
+            }
+        }
+
+        if (abandon) {
+            log.warn("giving up reconnecting after {} attempts", thisAttempt - 1);
+
+            for (ReconnectListener listener : listeners) {
+                try {
+                    listener.onReconnectAbandoned();
+                } catch (Exception e) {
+                    log.error("caught exception from onReconnectAbandoned", e);
+                }
+            }
+
+            return;
+        }
+
+        long delay = policy.getDelayMillis(thisAttempt, random);
+        log.info("reconnect attempt {} in {} ms", thisAttempt, delay);
+
+        for (ReconnectListener listener : listeners) {
+            try {
+                listener.onReconnecting(thisAttempt, delay);
+            } catch (Exception e) {
+                log.error("caught exception from onReconnecting", e);
+            }
+        }
+
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+
+            pendingAttempt = timer.newTimeout(new TimerTask() {
+                @Override
+                public void run(Timeout timeout) throws Exception {
+                    try {
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                attempt();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        log.debug("reconnect executor shut down, not reconnecting");
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void attempt() {
+        synchronized (this) {
+            pendingAttempt = null;
+            lostDuringAttempt = false;
+
+            if (stopped) {
+                return;
+            }
+        }
+
+        try {
+            client.reconnect();
+        } catch (RuntimeException e) {
+            log.warn("reconnect attempt failed", e);
+            client.closeQuietly();
+            scheduleAttempt();
+            return;
+        }
+
+        boolean lost;
+
+        synchronized (this) {
+            lost = lostDuringAttempt;
+
+            if (!lost) {
+                reconnecting = false;
+            }
+        }
+
+        if (lost) {
+            log.warn("connection lost during reconnect attempt");
+            client.closeQuietly();
+            scheduleAttempt();
+            return;
+        }
+
+        log.info("reconnected");
+
+        for (ReconnectListener listener : listeners) {
+            try {
+                listener.onReconnected();
+            } catch (Exception e) {
+                log.error("caught exception from onReconnected", e);
+            }
+        }
+    }
+}
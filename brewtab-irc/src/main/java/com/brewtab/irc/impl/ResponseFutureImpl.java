@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.brewtab.irc.ResponseFuture;
+import com.brewtab.irc.ResponseListener;
+import com.brewtab.irc.messages.Message;
+
+/**
+ * ResponseFuture completed by the connection which issued the request
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+class ResponseFutureImpl implements ResponseFuture {
+    private static final Logger log = LoggerFactory.getLogger(ResponseFutureImpl.class);
+
+    private boolean done;
+    private boolean cancelled;
+    private List<Message> response;
+    private Throwable cause;
+
+    /* Listeners to notify once done, null after notification */
+    private List<ResponseListener> listeners;
+
+    public ResponseFutureImpl() {
+        this.done = false;
+        this.cancelled = false;
+        this.response = null;
+        this.cause = null;
+        this.listeners = new ArrayList<ResponseListener>(2);
+    }
+
+    /**
+     * Complete the request with the given response
+     * 
+     * @param response the response messages
+     * @return true if the request was not already done
+     */
+    boolean complete(List<Message> response) {
+        return finish(Collections.unmodifiableList(response), null, false);
+    }
+
+    /**
+     * Fail the request
+     * 
+     * @param cause the reason the request failed
+     * @return true if the request was not already done
+     */
+    boolean fail(Throwable cause) {
+        return finish(null, cause, false);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(null, new CancellationException("request cancelled"), true);
+    }
+
+    private boolean finish(List<Message> response, Throwable cause, boolean cancelled) {
+        List<ResponseListener> toNotify;
+
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+
+            this.done = true;
+            this.response = response;
+            this.cause = cause;
+            this.cancelled = cancelled;
+
+            toNotify = listeners;
+            listeners = null;
+            notifyAll();
+        }
+
+        for (ResponseListener listener : toNotify) {
+            notifyListener(listener);
+        }
+
+        return true;
+    }
+
+    private void notifyListener(ResponseListener listener) {
+        try {
+            listener.onResponse(this);
+        } catch (Exception e) {
+            log.error("caught exception from onResponse", e);
+        }
+    }
+
+    @Override
+    public void addListener(ResponseListener listener) {
+        synchronized (this) {
+            if (!done) {
+                listeners.add(listener);
+                return;
+            }
+        }
+
+        notifyListener(listener);
+    }
+
+    @Override
+    public synchronized void removeListener(ResponseListener listener) {
+        if (!done) {
+            listeners.remove(listener);
+        }
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized boolean isSuccess() {
+        return done && cause == null;
+    }
+
+    @Override
+    public synchronized Throwable getCause() {
+        return cause;
+    }
+
+    @Override
+    public synchronized List<Message> getNow() {
+        return response;
+    }
+
+    @Override
+    public synchronized List<Message> get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+
+        return getResult();
+    }
+
+    @Override
+    public synchronized List<Message> get(long timeout, TimeUnit unit) throws InterruptedException,
+        ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        while (!done) {
+            long remaining = deadline - System.nanoTime();
+
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+
+        return getResult();
+    }
+
+    private List<Message> getResult() throws ExecutionException {
+        if (cancelled) {
+            throw (CancellationException) cause;
+        }
+
+        if (cause != null) {
+            throw new ExecutionException(cause);
+        }
+
+        return response;
+    }
+}
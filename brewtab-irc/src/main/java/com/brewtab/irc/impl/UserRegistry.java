@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.brewtab.irc.User;
+import com.brewtab.irc.client.ChannelMember;
+import com.brewtab.irc.messages.Message;
+import com.brewtab.irc.messages.MessageListener;
+import com.brewtab.irc.util.CaseMapping;
+
+/**
+ * Tracks which of a connection's channels each nick is in so QUIT and NICK
+ * messages are handled once and delivered only to the channels they concern.
+ * Membership is updated from JOIN, PART, KICK and names replies as they are
+ * received, before they are dispatched to the channels, so a QUIT is always
+ * delivered after the JOIN it follows.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+class UserRegistry implements MessageListener {
+    private final ConnectionImpl connection;
+    private final CaseMapping caseMapping;
+
+    /* Channels keyed by case-mapped name */
+    private final Map<String, MessageListener> channels;
+
+    /* Case-mapped names of the channels each case-mapped nick is in */
+    private final Map<String, Set<String>> users;
+
+    public UserRegistry(ConnectionImpl connection, CaseMapping caseMapping) {
+        this.connection = connection;
+        this.caseMapping = caseMapping;
+        this.channels = new HashMap<String, MessageListener>();
+        this.users = new HashMap<String, Set<String>>();
+    }
+
+    /**
+     * @return the case mapping nicks and channel names are compared with
+     */
+    public CaseMapping getCaseMapping() {
+        return caseMapping;
+    }
+
+    /**
+     * Start tracking the members of a channel
+     * 
+     * @param name the channel name
+     * @param channel the listener QUIT and NICK messages are delivered to
+     */
+    public synchronized void addChannel(String name, MessageListener channel) {
+        channels.put(caseMapping.toLowerCase(name), channel);
+    }
+
+    /**
+     * Stop tracking the members of a channel
+     * 
+     * @param name the channel name
+     */
+    public synchronized void removeChannel(String name) {
+        String key = caseMapping.toLowerCase(name);
+
+        if (channels.remove(key) == null) {
+            return;
+        }
+
+        Iterator<Set<String>> i = users.values().iterator();
+
+        while (i.hasNext()) {
+            Set<String> userChannels = i.next();
+
+            if (userChannels.remove(key) && userChannels.isEmpty()) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Forget every nick, e.g. before reconnecting. Channels remain tracked.
+     */
+    public synchronized void clear() {
+        users.clear();
+    }
+
+    /**
+     * @param nick a nick
+     * @return the number of tracked channels the nick is in
+     */
+    public synchronized int getChannelCount(String nick) {
+        Set<String> userChannels = users.get(caseMapping.toLowerCase(nick));
+        return userChannels == null ? 0 : userChannels.size();
+    }
+
+    /**
+     * @return the number of nicks in any tracked channel
+     */
+    public synchronized int getUserCount() {
+        return users.size();
+    }
+
+    private void joined(String nick, String channelName) {
+        String channelKey = caseMapping.toLowerCase(channelName);
+
+        if (!channels.containsKey(channelKey)) {
+            return;
+        }
+
+        String key = caseMapping.toLowerCase(nick);
+        Set<String> userChannels = users.get(key);
+
+        if (userChannels == null) {
+            userChannels = new HashSet<String>(4);
+            users.put(key, userChannels);
+        }
+
+        userChannels.add(channelKey);
+    }
+
+    private void left(String nick, String channelName) {
+        String key = caseMapping.toLowerCase(nick);
+        Set<String> userChannels = users.get(key);
+
+        if (userChannels != null && userChannels.remove(caseMapping.toLowerCase(channelName))
+            && userChannels.isEmpty()) {
+            users.remove(key);
+        }
+    }
+
+    /**
+     * Collect the channels with the given names which are still tracked
+     */
+    private List<MessageListener> channelsFor(Set<String> channelKeys) {
+        List<MessageListener> result = new ArrayList<MessageListener>(channelKeys.size());
+
+        for (String channelKey : channelKeys) {
+            MessageListener channel = channels.get(channelKey);
+
+            if (channel != null) {
+                result.add(channel);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Update the table for a received message
+     * 
+     * @param message the message
+     * @return the channels the message should be delivered to
+     */
+    synchronized List<MessageListener> update(Message message) {
+        List<MessageListener> affected = Collections.emptyList();
+        String[] args = message.getArgs();
+        User user;
+
+        switch (message.getType()) {
+        case JOIN:
+            user = message.getUser();
+
+            if (user != null && args.length > 0) {
+                for (String channelName : args[0].split(",")) {
+                    joined(user.getNick(), channelName);
+                }
+            }
+            break;
+
+        case PART:
+            user = message.getUser();
+
+            if (user != null && args.length > 0) {
+                for (String channelName : args[0].split(",")) {
+                    left(user.getNick(), channelName);
+                }
+            }
+            break;
+
+        case KICK:
+            if (args.length > 1) {
+                left(args[1], args[0]);
+            }
+            break;
+
+        case RPL_NAMREPLY:
+            if (args.length > 3) {
+                for (String name : args[args.length - 1].split(" ")) {
+                    if (name.length() > 0) {
+                        joined(ChannelMember.parse(name).getNick(), args[2]);
+                    }
+                }
+            }
+            break;
+
+        case QUIT:
+            user = message.getUser();
+
+            if (user != null) {
+                Set<String> userChannels = users.remove(caseMapping.toLowerCase(user.getNick()));
+
+                if (userChannels != null) {
+                    affected = channelsFor(userChannels);
+                }
+            }
+            break;
+
+        case NICK:
+            user = message.getUser();
+
+            if (user != null && args.length > 0) {
+                Set<String> userChannels = users.remove(caseMapping.toLowerCase(user.getNick()));
+
+                if (userChannels != null) {
+                    affected = channelsFor(userChannels);
+
+                    Set<String> stale = users.put(caseMapping.toLowerCase(args[0]), userChannels);
+
+                    if (stale != null) {
+                        userChannels.addAll(stale);
+                    }
+                }
+            }
+            break;
+
+        default:
+            break;
+        }
+
+        return affected;
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        for (MessageListener channel : update(message)) {
+            connection.deliver(channel, message);
+        }
+    }
+}
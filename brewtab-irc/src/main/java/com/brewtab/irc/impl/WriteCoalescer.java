@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+import com.brewtab.irc.FlushPolicy;
+
+/**
+ * Collects encoded messages and writes them to the channel according to a
+ * {@link FlushPolicy}. Buffers collected together are copied into a single
+ * buffer and written with one socket write. The futures of the individual
+ * writes complete when the combined write completes.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+class WriteCoalescer extends SimpleChannelHandler {
+    /* Held bytes beyond which a windowed policy writes without waiting */
+    private static final int MAX_PENDING_BYTES = 8192;
+
+    /* Timer used to schedule windowed flushes */
+    private final Timer timer;
+
+    private volatile FlushPolicy policy;
+
+    /* Held data and the futures of the writes it came from */
+    private ChannelBuffer pending;
+    private List<ChannelFuture> pendingFutures;
+
+    /* True while a combined write is in progress */
+    private boolean writeInProgress;
+
+    /* True if held data should be written as soon as possible */
+    private boolean flushRequested;
+
+    /* Scheduled flush for windowed policies */
+    private Timeout flushTimeout;
+
+    public WriteCoalescer(Timer timer) {
+        this.timer = timer;
+        this.policy = FlushPolicy.COALESCE;
+        this.pending = null;
+        this.pendingFutures = null;
+        this.writeInProgress = false;
+        this.flushRequested = false;
+        this.flushTimeout = null;
+    }
+
+    public FlushPolicy getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(FlushPolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("policy must not be null");
+        }
+
+        this.policy = policy;
+    }
+
+    /**
+     * Write any held data on the given channel
+     * 
+     * @param channel a channel whose pipeline includes this handler
+     */
+    public void flush(Channel channel) {
+        ChannelHandlerContext ctx = channel.getPipeline().getContext(this);
+
+        if (ctx != null) {
+            requestFlush(ctx);
+        }
+    }
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+        FlushPolicy policy = this.policy;
+        ChannelBuffer buffer = (ChannelBuffer) e.getMessage();
+        boolean passThrough = false;
+        boolean writeNow = false;
+        boolean flushNow = false;
+
+        synchronized (this) {
+            if (pending == null && !policy.isCoalescing()) {
+                /* Nothing held, pass the write straight through */
+                passThrough = true;
+            } else if (pending == null && !writeInProgress && policy.getWindowMillis() == 0) {
+                /* Nothing to coalesce with, write now and hold anything that follows */
+                writeInProgress = true;
+                writeNow = true;
+            } else {
+                if (pending == null) {
+                    pending = ChannelBuffers.dynamicBuffer(Math.max(256, buffer.readableBytes()));
+                    pendingFutures = new ArrayList<ChannelFuture>();
+                }
+
+                pending.writeBytes(buffer);
+                pendingFutures.add(e.getFuture());
+
+                if (policy.getWindowMillis() > 0 && pending.readableBytes() < MAX_PENDING_BYTES) {
+                    if (flushTimeout == null) {
+                        scheduleFlush(ctx, policy.getWindowMillis());
+                    }
+                } else {
+                    flushRequested = true;
+                    flushNow = true;
+                }
+            }
+        }
+
+        if (passThrough) {
+            ctx.sendDownstream(e);
+        } else if (writeNow) {
+            write(ctx, buffer, Collections.singletonList(e.getFuture()));
+        } else if (flushNow) {
+            flushPending(ctx);
+        }
+    }
+
+    private void scheduleFlush(final ChannelHandlerContext ctx, long delayMillis) {
+        flushTimeout = timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                synchronized (WriteCoalescer.this) {
+                    if (flushTimeout == timeout) {
+                        flushTimeout = null;
+                    }
+                }
+
+                requestFlush(ctx);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void requestFlush(ChannelHandlerContext ctx) {
+        synchronized (this) {
+            flushRequested = true;
+        }
+
+        flushPending(ctx);
+    }
+
+    /**
+     * Write the held data unless a write is already in progress, in which case
+     * the data is written once that write completes. The write itself happens
+     * outside of the lock as the I/O thread may complete futures while holding
+     * the channel's own locks.
+     */
+    private void flushPending(final ChannelHandlerContext ctx) {
+        ChannelBuffer buffer;
+        final List<ChannelFuture> futures;
+
+        synchronized (this) {
+            if (pending == null) {
+                flushRequested = false;
+                return;
+            }
+
+            if (writeInProgress) {
+                return;
+            }
+
+            buffer = pending;
+            futures = pendingFutures;
+            pending = null;
+            pendingFutures = null;
+            writeInProgress = true;
+            flushRequested = false;
+
+            if (flushTimeout != null) {
+                flushTimeout.cancel();
+                flushTimeout = null;
+            }
+        }
+
+        write(ctx, buffer, futures);
+    }
+
+    /**
+     * Write a buffer, completing the given futures once it has been written
+     * and then writing anything held in the meantime
+     */
+    private void write(final ChannelHandlerContext ctx, ChannelBuffer buffer, final List<ChannelFuture> futures) {
+        ChannelFuture future = Channels.future(ctx.getChannel());
+        future.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                for (ChannelFuture f : futures) {
+                    if (future.isSuccess()) {
+                        f.setSuccess();
+                    } else {
+                        f.setFailure(future.getCause());
+                    }
+                }
+
+                boolean flushNext;
+
+                synchronized (WriteCoalescer.this) {
+                    writeInProgress = false;
+                    flushNext = flushRequested || policy.getWindowMillis() == 0;
+                }
+
+                if (flushNext) {
+                    flushPending(ctx);
+                }
+            }
+        });
+
+        Channels.write(ctx, future, buffer);
+    }
+
+    @Override
+    public void closeRequested(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        /* Write anything held before closing */
+        requestFlush(ctx);
+        super.closeRequested(ctx, e);
+    }
+
+    @Override
+    public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+        List<ChannelFuture> futures;
+
+        synchronized (this) {
+            futures = pendingFutures;
+            pending = null;
+            pendingFutures = null;
+            flushRequested = false;
+
+            if (flushTimeout != null) {
+                flushTimeout.cancel();
+                flushTimeout = null;
+            }
+        }
+
+        if (futures != null) {
+            Throwable cause = new ClosedChannelException();
+
+            for (ChannelFuture f : futures) {
+                f.setFailure(cause);
+            }
+        }
+
+        super.channelClosed(ctx, e);
+    }
+}
@@ -22,8 +22,11 @@
 
 package com.brewtab.irc.messages;
 
+import java.nio.charset.Charset;
 import java.util.LinkedList;
 
+import com.brewtab.irc.User;
+
 /**
  * Represents an IRCMessage. A message is a single request or reply sent by
  * either a client or server. It has three parts: an optional prefix, a type,
@@ -37,16 +40,39 @@ public class Message {
     /** The messages prefix */
     private String prefix;
 
+    /** The user the prefix names, parsed when first requested */
+    private User user;
+
     /** The messages type */
     private MessageType type;
 
+    /** The command of a message of unknown type */
+    private volatile String command;
+
     /** The messages arguments */
-    private String[] args;
+    private volatile String[] args;
+
+    /** The raw frame a decoded message was parsed from, or null */
+    private byte[] frame;
+
+    /** Charset used to materialize strings from the frame */
+    private Charset charset;
+
+    /**
+     * Offsets into the frame. The first pair bounds the prefix (equal if there
+     * is no prefix), the second the command, and each following pair bounds an
+     * argument.
+     */
+    private int[] slices;
+
+    /** The number of arguments */
+    private int argCount;
 
     /**
      * Construct a message with the given type and arguments
      * 
-     * @param type The message type
+     * @param type The message type, which must not be
+     *            {@link MessageType#UNKNOWN}
      * @param args The message arguments
      * @throws InvalidMessageException if invalid arguments are given
      */
@@ -58,14 +84,50 @@ public class Message {
      * Construct a message with the given prefix, type, and arguments
      * 
      * @param prefix The message prefix
-     * @param type The message arguments
+     * @param type The message type, which must not be
+     *            {@link MessageType#UNKNOWN}
      * @param args The message arguments
      * @throws InvalidMessageException if invalid arguments are given
      */
     public Message(String prefix, MessageType type, String... args) throws InvalidMessageException {
+        if (type == MessageType.UNKNOWN) {
+            /* There is no command to send */
+            throw new IllegalArgumentException("type must be a known message type");
+        }
+
         this.prefix = prefix;
         this.type = type;
         this.args = args;
+        this.argCount = args.length;
+
+        if (!MessageValidator.isValid(this)) {
+            throw new InvalidMessageException("Invalid arguments");
+        }
+    }
+
+    /**
+     * Construct a message of unknown type with the given prefix, command, and
+     * arguments
+     */
+    private Message(String prefix, String command, String[] args) {
+        this.prefix = prefix;
+        this.type = MessageType.UNKNOWN;
+        this.command = command;
+        this.args = args;
+        this.argCount = args.length;
+    }
+
+    /**
+     * Construct a message backed by a raw frame. The prefix and arguments are
+     * only materialized as Strings when first requested.
+     */
+    private Message(byte[] frame, Charset charset, int[] slices, int argCount, MessageType type)
+        throws InvalidMessageException {
+        this.frame = frame;
+        this.charset = charset;
+        this.slices = slices;
+        this.argCount = argCount;
+        this.type = type;
 
         if (!MessageValidator.isValid(this)) {
             throw new InvalidMessageException("Invalid arguments");
@@ -78,7 +140,35 @@ public class Message {
      * @return the message prefix
      */
     public String getPrefix() {
-        return this.prefix;
+        String prefix = this.prefix;
+
+        if (prefix == null && frame != null && slices[1] > slices[0]) {
+            prefix = new String(frame, slices[0], slices[1] - slices[0], charset);
+            this.prefix = prefix;
+        }
+
+        return prefix;
+    }
+
+    /**
+     * Get the user the message prefix names
+     * 
+     * @return the user, or null if there is no prefix or it does not name a
+     *         user, e.g. because it is a server name
+     */
+    public User getUser() {
+        User user = this.user;
+
+        if (user == null) {
+            String prefix = getPrefix();
+
+            if (prefix != null) {
+                user = User.fromPrefix(prefix);
+                this.user = user;
+            }
+        }
+
+        return user;
     }
 
     /**
@@ -90,13 +180,58 @@ public class Message {
         return this.type;
     }
 
+    /**
+     * Get the message command as it appears on the wire. For messages of a
+     * known type this is the textual representation of the type.
+     * 
+     * @return the message command
+     */
+    public String getCommand() {
+        if (type != MessageType.UNKNOWN) {
+            return type.toString();
+        }
+
+        String command = this.command;
+
+        if (command == null) {
+            command = new String(frame, slices[2], slices[3] - slices[2], charset);
+            this.command = command;
+        }
+
+        return command;
+    }
+
     /**
      * Get the message arguments
      * 
      * @return the message arguments
      */
     public String[] getArgs() {
-        return this.args;
+        String[] args = this.args;
+
+        if (args == null) {
+            args = new String[argCount];
+
+            for (int i = 0; i < argCount; i++) {
+                int start = slices[2 * i + 4];
+                int end = slices[2 * i + 5];
+
+                args[i] = new String(frame, start, end - start, charset);
+            }
+
+            this.args = args;
+        }
+
+        return args;
+    }
+
+    /**
+     * Get the number of message arguments without materializing them
+     * 
+     * @return the number of arguments
+     */
+    public int getArgCount() {
+        return this.argCount;
     }
 
     /**
@@ -107,36 +242,60 @@ public class Message {
      */
     @Override
     public String toString() {
-        StringBuffer buffer = new StringBuffer();
+        StringBuilder builder = new StringBuilder();
+        appendTo(builder);
+        return builder.toString();
+    }
+
+    /**
+     * Append the wire representation of this message, including the trailing
+     * CR-LF, to the given builder
+     * 
+     * @param builder the builder to append to
+     */
+    public void appendTo(StringBuilder builder) {
+        String prefix = getPrefix();
+        String[] args = getArgs();
 
-        if (this.prefix != null) {
-            buffer.append(":").append(this.prefix).append(" ");
+        if (prefix != null) {
+            builder.append(':').append(prefix).append(' ');
         }
 
-        buffer.append(this.type.toString());
+        builder.append(getCommand());
 
-        if (this.args.length > 0) {
-            for (int i = 0; i < this.args.length - 1; i++) {
-                buffer.append(" ").append(this.args[i]);
+        if (args.length > 0) {
+            for (int i = 0; i < args.length - 1; i++) {
+                builder.append(' ').append(args[i]);
             }
 
-            String lastArg = this.args[this.args.length - 1];
-            switch (this.type) {
-            case PRIVMSG:
-            case USER:
-            case PART:
-            case QUIT:
-            case KICK:
-                buffer.append(" :").append(lastArg);
-                break;
+            String lastArg = args[args.length - 1];
 
-            default:
-                buffer.append(" ").append(lastArg);
+            if (needsTrailing(lastArg)) {
+                builder.append(" :").append(lastArg);
+            } else {
+                builder.append(' ').append(lastArg);
             }
         }
 
-        buffer.append("\r\n");
-        return buffer.toString();
+        builder.append("\r\n");
+    }
+
+    /**
+     * @return true if the last argument must be written as a trailing
+     *         argument, prefixed with ':', to parse back as one argument
+     */
+    private boolean needsTrailing(String lastArg) {
+        switch (this.type) {
+        case PRIVMSG:
+        case USER:
+        case PART:
+        case QUIT:
+        case KICK:
+            return true;
+
+        default:
+            return lastArg.length() == 0 || lastArg.indexOf(' ') >= 0 || lastArg.charAt(0) == ':';
+        }
     }
 
     /**
@@ -178,11 +337,12 @@ public class Message {
             messageFrame = messageFrame.substring(endTypePoint + 1).trim();
         }
 
+        if (typeString.length() == 0) {
+            throw new InvalidMessageException("missing type");
+        }
+
         /* Attempt a type lookup for the message type */
         MessageType type = MessageType.fromString(typeString);
-        if (type == null) {
-            throw new InvalidMessageException("invalid type: " + typeString);
-        }
 
         /*
          * Split the remaining args into an arguments list and append the
@@ -204,7 +364,113 @@ public class Message {
             argsList.add(trailing);
         }
 
-        String[] args = new String[argsList.size()];
-        return new Message(prefix, type, argsList.toArray(args));
+        String[] args = argsList.toArray(new String[argsList.size()]);
+
+        if (type == null) {
+            return new Message(prefix, typeString, args);
+        }
+
+        return new Message(prefix, type, args);
+    }
+
+    /**
+     * Returns true for bytes that separate the parts of a message
+     */
+    private static boolean isWhitespace(byte b) {
+        return (b & 0xff) <= ' ';
+    }
+
+    /**
+     * Decode a single message from a raw frame in one pass. The frame should
+     * not include the line terminator and must not be modified afterwards;
+     * the returned message keeps a reference to it and only copies out the
+     * prefix and arguments when they are first requested.
+     * 
+     * @param frame The message bytes as read from the connection stream
+     * @param charset The charset used to decode the prefix and arguments
+     * @return a new IRCMessage object
+     * @throws InvalidMessageException if the format of the message is
+     *             invalid
+     */
+    public static Message fromBytes(byte[] frame, Charset charset) throws InvalidMessageException {
+        int pos = 0;
+        int end = frame.length;
+
+        /* Trim surrounding whitespace */
+        while (pos < end && isWhitespace(frame[pos])) {
+            pos++;
+        }
+
+        while (end > pos && isWhitespace(frame[end - 1])) {
+            end--;
+        }
+
+        /* Prefix, if any, occupies the first pair of slices */
+        int[] slices = new int[4 + 2 * 15];
+        int argCount = 0;
+
+        if (pos < end && frame[pos] == ':') {
+            slices[0] = ++pos;
+
+            while (pos < end && frame[pos] != ' ') {
+                pos++;
+            }
+
+            slices[1] = pos;
+
+            while (pos < end && frame[pos] == ' ') {
+                pos++;
+            }
+        }
+
+        /* Type */
+        int typeStart = pos;
+
+        while (pos < end && frame[pos] != ' ') {
+            pos++;
+        }
+
+        if (pos == typeStart) {
+            throw new InvalidMessageException("missing type");
+        }
+
+        slices[2] = typeStart;
+        slices[3] = pos;
+
+        MessageType type = MessageType.fromBytes(frame, typeStart, pos - typeStart);
+        if (type == null) {
+            type = MessageType.UNKNOWN;
+        }
+
+        /* Arguments, ending with an optional trailing argument */
+        while (pos < end) {
+            if (frame[pos] == ' ') {
+                pos++;
+                continue;
+            }
+
+            if (slices.length < 2 * argCount + 6) {
+                int[] grown = new int[slices.length * 2];
+                System.arraycopy(slices, 0, grown, 0, slices.length);
+                slices = grown;
+            }
+
+            int argStart = pos;
+
+            if (frame[pos] == ':') {
+                argStart++;
+                pos = end;
+            } else {
+                while (pos < end && frame[pos] != ' ') {
+                    pos++;
+                }
+            }
+
+            slices[2 * argCount + 4] = argStart;
+            slices[2 * argCount + 5] = pos;
+            argCount++;
+        }
+
+        return new Message(frame, charset, slices, argCount, type);
     }
 }
@@ -22,7 +22,8 @@
 
 package com.brewtab.irc.messages;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Enumeration of different IRC message types
@@ -161,6 +162,7 @@ public enum MessageType {
     ERR_ERRONEUSNICKNAME("432"),
     ERR_NICKNAMEINUSE("433"),
     ERR_NICKCOLLISION("436"),
+    ERR_UNAVAILRESOURCE("437"),
     ERR_USERNOTINCHANNEL("441"),
     ERR_NOTONCHANNEL("442"),
     ERR_USERONCHANNEL("443"),
@@ -179,6 +181,8 @@ public enum MessageType {
     ERR_INVITEONLYCHAN("473"),
     ERR_BANNEDFROMCHAN("474"),
     ERR_BADCHANNELKEY("475"),
+    ERR_BADCHANMASK("476"),
+    ERR_NOCHANMODES("477"),
     ERR_NOPRIVILEGES("481"),
     ERR_CHANOPRIVSNEEDED("482"),
     ERR_CANTKILLSERVER("483"),
@@ -203,16 +207,52 @@ public enum MessageType {
     RPL_STATSPING("246"),
     RPL_STATSBLINE("247"),
     RPL_STATSDLINE("250"),
-    ERR_NOSERVICEHOST("492");
+    ERR_NOSERVICEHOST("492"),
+
+    /**
+     * Any command not listed above. The command itself is available from
+     * {@link Message#getCommand()}.
+     */
+    UNKNOWN(null);
 
     /** String representation of the message type */
     private String messageTypeString;
 
-    /** Type lookup table */
-    private static HashMap<String, MessageType> typeLookup = new HashMap<String, MessageType>();
+    /** ASCII representation of the message type */
+    private byte[] messageTypeBytes;
+
+    /** Numeric types indexed by their numeric value */
+    private static final MessageType[] numericLookup = new MessageType[1000];
+
+    /** Alphabetic types bucketed by their first letter */
+    private static final MessageType[][] verbLookup = new MessageType[26][];
+
     static {
+        List<List<MessageType>> buckets = new ArrayList<List<MessageType>>(26);
+        for (int i = 0; i < 26; i++) {
+            buckets.add(new ArrayList<MessageType>());
+        }
+
         for (MessageType t : values()) {
-            MessageType.typeLookup.put(t.toString(), t);
+            if (t == UNKNOWN) {
+                continue;
+            }
+
+            byte[] bytes = t.messageTypeBytes;
+
+            if (bytes.length == 3 && numericValue(bytes[0], bytes[1], bytes[2]) >= 0) {
+                numericLookup[numericValue(bytes[0], bytes[1], bytes[2])] = t;
+            } else {
+                buckets.get(bytes[0] - 'A').add(t);
+            }
+        }
+
+        for (int i = 0; i < 26; i++) {
+            List<MessageType> bucket = buckets.get(i);
+
+            if (!bucket.isEmpty()) {
+                verbLookup[i] = bucket.toArray(new MessageType[bucket.size()]);
+            }
         }
     }
 
@@ -225,6 +265,29 @@ public enum MessageType {
      */
     private MessageType(String text) {
         this.messageTypeString = text;
+
+        if (text != null) {
+            this.messageTypeBytes = new byte[text.length()];
+
+            for (int i = 0; i < text.length(); i++) {
+                this.messageTypeBytes[i] = (byte) text.charAt(i);
+            }
+        }
+    }
+
+    /**
+     * Return the value of three ASCII digits, or -1 if any is not a digit
+     */
+    private static int numericValue(int d0, int d1, int d2) {
+        d0 -= '0';
+        d1 -= '0';
+        d2 -= '0';
+
+        if (d0 < 0 || d0 > 9 || d1 < 0 || d1 > 9 || d2 < 0 || d2 > 9) {
+            return -1;
+        }
+
+        return d0 * 100 + d1 * 10 + d2;
     }
 
     /**
@@ -247,6 +310,93 @@ public enum MessageType {
      *         found
      */
     public static MessageType fromString(String text) {
-        return MessageType.typeLookup.get(text);
+        int length = text.length();
+
+        if (length == 3) {
+            int numeric = numericValue(text.charAt(0), text.charAt(1), text.charAt(2));
+
+            if (numeric >= 0) {
+                return numericLookup[numeric];
+            }
+        }
+
+        if (length == 0) {
+            return null;
+        }
+
+        /* Clearing bit 5 maps lowercase ASCII letters onto uppercase */
+        int first = (text.charAt(0) & 0xffdf) - 'A';
+        if (first < 0 || first >= 26 || verbLookup[first] == null) {
+            return null;
+        }
+
+        for (MessageType t : verbLookup[first]) {
+            byte[] verb = t.messageTypeBytes;
+
+            if (verb.length != length) {
+                continue;
+            }
+
+            int i = 1;
+            while (i < length && (text.charAt(i) & 0xffdf) == verb[i]) {
+                i++;
+            }
+
+            if (i == length) {
+                return t;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Return the type whose textual representation is held in the given range
+     * of an ASCII encoded buffer. No intermediate String is created. If no
+     * such type is found, {@code null} is returned.
+     * 
+     * @param bytes The buffer holding the type
+     * @param offset The offset of the type in the buffer
+     * @param length The length of the type
+     * @return the corresponding IRCMessageType or {@code null} if it is not
+     *         found
+     */
+    public static MessageType fromBytes(byte[] bytes, int offset, int length) {
+        if (length == 3) {
+            int numeric = numericValue(bytes[offset], bytes[offset + 1], bytes[offset + 2]);
+
+            if (numeric >= 0) {
+                return numericLookup[numeric];
+            }
+        }
+
+        if (length == 0) {
+            return null;
+        }
+
+        /* Clearing bit 5 maps lowercase ASCII letters onto uppercase */
+        int first = (bytes[offset] & 0xdf) - 'A';
+        if (first < 0 || first >= 26 || verbLookup[first] == null) {
+            return null;
+        }
+
+        for (MessageType t : verbLookup[first]) {
+            byte[] verb = t.messageTypeBytes;
+
+            if (verb.length != length) {
+                continue;
+            }
+
+            int i = 1;
+            while (i < length && (bytes[offset + i] & 0xdf) == verb[i]) {
+                i++;
+            }
+
+            if (i == length) {
+                return t;
+            }
+        }
+
+        return null;
     }
 }
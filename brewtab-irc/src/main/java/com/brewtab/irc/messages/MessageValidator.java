@@ -97,17 +97,17 @@ public class MessageValidator {
         }
 
         /**
-         * Check the constraint against the given argument list
+         * Check the constraint against the given number of arguments
          * 
-         * @param args The argument list
+         * @param count The number of arguments
          * @return true if valid, false otherwise
          */
-        public boolean check(String[] args) {
-            if (this.min != -1 && args.length < this.min) {
+        public boolean check(int count) {
+            if (this.min != -1 && count < this.min) {
                 return false;
             }
 
-            if (this.max != -1 && args.length > this.max) {
+            if (this.max != -1 && count > this.max) {
                 return false;
             }
 
@@ -140,7 +140,7 @@ public class MessageValidator {
         if (constraint == null) {
             return true;
         } else {
-            return constraint.check(message.getArgs());
+            return constraint.check(message.getArgCount());
         }
     }
 }
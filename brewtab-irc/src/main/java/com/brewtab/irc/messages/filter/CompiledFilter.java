@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.messages.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.brewtab.irc.messages.Message;
+import com.brewtab.irc.messages.MessageType;
+
+/**
+ * A filter flattened into a disjunction of clauses. Each clause accepts a set
+ * of message types and requires some arguments to equal given values. Filters
+ * which can't be flattened are kept in the clause they occur in and are only
+ * checked against messages the rest of the clause accepts.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ * @see MessageFilters#compile(MessageFilter)
+ */
+public final class CompiledFilter implements RoutedFilter {
+    /* Conjunctions producing more clauses than this are not flattened */
+    private static final int MAX_CLAUSES = 32;
+
+    private static final MessageType[] TYPES = MessageType.values();
+
+    private static final int MASK_WORDS = (TYPES.length + 63) / 64;
+
+    private static final MessageFilter[] NO_FILTERS = new MessageFilter[0];
+
+    private static final String[] NO_ARGS = new String[0];
+
+    /**
+     * A conjunction: a type bitset (null for any type), required arguments
+     * (null entries match anything) and filters which must also accept
+     */
+    private static final class Clause {
+        final long[] types;
+        final String[] args;
+        final MessageFilter[] filters;
+
+        /* Routes of a kept filter, narrower than those implied by the types */
+        final Set<MessageRoute> routes;
+
+        Clause(long[] types, String[] args, MessageFilter[] filters, Set<MessageRoute> routes) {
+            this.types = types;
+            this.args = args;
+            this.filters = filters;
+            this.routes = routes;
+        }
+
+        Clause(long[] types, String[] args, MessageFilter[] filters) {
+            this(types, args, filters, null);
+        }
+
+        /**
+         * @return the conjunction of this clause and another or null if no
+         *         message can satisfy both
+         */
+        Clause and(Clause other) {
+            long[] types;
+
+            if (this.types == null) {
+                types = other.types;
+            } else if (other.types == null) {
+                types = this.types;
+            } else {
+                types = new long[MASK_WORDS];
+                boolean empty = true;
+
+                for (int i = 0; i < MASK_WORDS; i++) {
+                    types[i] = this.types[i] & other.types[i];
+                    empty &= (types[i] == 0);
+                }
+
+                if (empty) {
+                    return null;
+                }
+            }
+
+            String[] args = new String[Math.max(this.args.length, other.args.length)];
+
+            for (int i = 0; i < args.length; i++) {
+                String a = i < this.args.length ? this.args[i] : null;
+                String b = i < other.args.length ? other.args[i] : null;
+
+                if (a != null && b != null && !a.equals(b)) {
+                    return null;
+                }
+
+                args[i] = (a != null) ? a : b;
+            }
+
+            MessageFilter[] filters = new MessageFilter[this.filters.length + other.filters.length];
+            System.arraycopy(this.filters, 0, filters, 0, this.filters.length);
+            System.arraycopy(other.filters, 0, filters, this.filters.length, other.filters.length);
+
+            return new Clause(types, args, filters);
+        }
+
+        boolean check(Message message, String[] messageArgs) {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+
+                if (arg != null && arg != messageArgs[i] && !arg.equals(messageArgs[i])) {
+                    return false;
+                }
+            }
+
+            for (MessageFilter filter : filters) {
+                if (!filter.check(message)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    private final Clause[] clauses;
+
+    /* Union of the clauses' types, or null if any type may match */
+    private final long[] types;
+
+    private final Set<MessageRoute> routes;
+
+    private CompiledFilter(List<Clause> clauses) {
+        this.clauses = clauses.toArray(new Clause[clauses.size()]);
+
+        long[] types = new long[MASK_WORDS];
+        Set<MessageRoute> routes = new HashSet<MessageRoute>();
+
+        for (Clause clause : clauses) {
+            if (clause.types == null) {
+                types = null;
+                routes = null;
+                break;
+            }
+
+            String target = clause.args.length > 0 ? clause.args[0] : null;
+
+            for (int i = 0; i < MASK_WORDS; i++) {
+                types[i] |= clause.types[i];
+            }
+
+            if (clause.routes != null) {
+                routes.addAll(clause.routes);
+                continue;
+            }
+
+            for (MessageType type : TYPES) {
+                if (hasType(clause.types, type)) {
+                    routes.add(new MessageRoute(type, target));
+                }
+            }
+        }
+
+        this.types = types;
+        this.routes = (routes == null) ? null : Collections.unmodifiableSet(routes);
+    }
+
+    static CompiledFilter compile(MessageFilter filter) {
+        if (filter instanceof CompiledFilter) {
+            return (CompiledFilter) filter;
+        }
+
+        return new CompiledFilter(flatten(filter));
+    }
+
+    private static boolean hasType(long[] types, MessageType type) {
+        int ordinal = type.ordinal();
+        return (types[ordinal >>> 6] & (1L << ordinal)) != 0;
+    }
+
+    private static void addType(long[] types, MessageType type) {
+        int ordinal = type.ordinal();
+        types[ordinal >>> 6] |= 1L << ordinal;
+    }
+
+    /**
+     * Convert a filter to a list of clauses
+     */
+    private static List<Clause> flatten(MessageFilter filter) {
+        List<Clause> clauses = new ArrayList<Clause>();
+
+        if (filter == MessageFilters.PASS) {
+            clauses.add(new Clause(null, NO_ARGS, NO_FILTERS));
+        } else if (filter instanceof CompiledFilter) {
+            Collections.addAll(clauses, ((CompiledFilter) filter).clauses);
+        } else if (filter instanceof MessageFilters.MessageMatchFilter) {
+            MessageFilters.MessageMatchFilter match = (MessageFilters.MessageMatchFilter) filter;
+            String[] args = new String[match.args.length];
+
+            for (int i = 0; i < args.length; i++) {
+                args[i] = (match.args[i] == null) ? null : match.args[i].intern();
+            }
+
+            long[] types = null;
+
+            if (match.type != null) {
+                types = new long[MASK_WORDS];
+                addType(types, match.type);
+            }
+
+            clauses.add(new Clause(types, args, NO_FILTERS));
+        } else if (filter instanceof MessageFilters.AnyFilter) {
+            for (MessageFilter operand : ((MessageFilters.AnyFilter) filter).filters) {
+                clauses.addAll(flatten(operand));
+            }
+        } else if (filter instanceof MessageFilters.AllFilter) {
+            clauses.add(new Clause(null, NO_ARGS, NO_FILTERS));
+
+            for (MessageFilter operand : ((MessageFilters.AllFilter) filter).filters) {
+                List<Clause> operandClauses = flatten(operand);
+                List<Clause> product = new ArrayList<Clause>();
+
+                for (Clause clause : clauses) {
+                    for (Clause operandClause : operandClauses) {
+                        Clause conjunction = clause.and(operandClause);
+
+                        if (conjunction != null) {
+                            product.add(conjunction);
+                        }
+                    }
+                }
+
+                if (product.size() > MAX_CLAUSES) {
+                    return opaque(filter);
+                }
+
+                clauses = product;
+            }
+        } else {
+            return opaque(filter);
+        }
+
+        return clauses;
+    }
+
+    /**
+     * A single clause checking the filter as is. If the filter has routes
+     * their types bound the clause.
+     */
+    private static List<Clause> opaque(MessageFilter filter) {
+        Set<MessageRoute> routes = MessageFilters.routes(filter);
+        long[] types = null;
+
+        if (routes != null) {
+            types = new long[MASK_WORDS];
+
+            for (MessageRoute route : routes) {
+                addType(types, route.getType());
+            }
+        }
+
+        return Collections.singletonList(new Clause(types, NO_ARGS, new MessageFilter[] { filter }, routes));
+    }
+
+    @Override
+    public boolean check(Message message) {
+        MessageType type = message.getType();
+
+        if (types != null && !hasType(types, type)) {
+            return false;
+        }
+
+        int argCount = message.getArgCount();
+        String[] messageArgs = null;
+
+        for (Clause clause : clauses) {
+            if (clause.types != null && !hasType(clause.types, type)) {
+                continue;
+            }
+
+            if (clause.args.length > argCount) {
+                continue;
+            }
+
+            if (messageArgs == null && clause.args.length > 0) {
+                messageArgs = message.getArgs();
+            }
+
+            if (clause.check(message, messageArgs)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public Set<MessageRoute> getRoutes() {
+        return routes;
+    }
+
+    /**
+     * Get the message types this filter may accept
+     * 
+     * @return the types, or null if the filter may accept any type
+     */
+    public Set<MessageType> getTypes() {
+        if (types == null) {
+            return null;
+        }
+
+        Set<MessageType> result = EnumSet.noneOf(MessageType.class);
+
+        for (MessageType type : TYPES) {
+            if (hasType(types, type)) {
+                result.add(type);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the number of clauses the filter was flattened into
+     */
+    public int getClauseCount() {
+        return clauses.length;
+    }
+}
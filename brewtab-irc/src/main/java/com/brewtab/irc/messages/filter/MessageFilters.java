@@ -22,11 +22,15 @@
 
 package com.brewtab.irc.messages.filter;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.brewtab.irc.User;
 import com.brewtab.irc.messages.Message;
 import com.brewtab.irc.messages.MessageType;
+import com.brewtab.irc.util.CaseMapping;
 
 /**
  * Provides convenient filters
@@ -35,45 +39,223 @@ import com.brewtab.irc.messages.MessageType;
  */
 public class MessageFilters {
     /** A filter that matches any message */
-    private static final MessageFilter PASS = new MessageFilter() {
+    static final MessageFilter PASS = new MessageFilter() {
         @Override
         public boolean check(Message message) {
             return true;
         }
     };
 
-    public static MessageFilter pass() {
-        return PASS;
+    /**
+     * Get the routes of the given filter
+     * 
+     * @param filter The filter
+     * @return the filter's routes or null if it may accept any message
+     */
+    public static Set<MessageRoute> routes(MessageFilter filter) {
+        if (filter instanceof RoutedFilter) {
+            return ((RoutedFilter) filter).getRoutes();
+        } else {
+            return null;
+        }
     }
 
-    public static MessageFilter all(final MessageFilter... filters) {
-        return new MessageFilter() {
-            @Override
-            public boolean check(Message message) {
-                for (MessageFilter filter : filters) {
-                    if (!filter.check(message)) {
-                        return false;
-                    }
+    /**
+     * Get the union of the routes of the given filters
+     */
+    private static Set<MessageRoute> unionRoutes(MessageFilter... filters) {
+        Set<MessageRoute> union = new HashSet<MessageRoute>();
+
+        for (MessageFilter filter : filters) {
+            Set<MessageRoute> routes = routes(filter);
+
+            if (routes == null) {
+                return null;
+            }
+
+            union.addAll(routes);
+        }
+
+        return Collections.unmodifiableSet(union);
+    }
+
+    static class AllFilter implements RoutedFilter {
+        final MessageFilter[] filters;
+        private final Set<MessageRoute> routes;
+
+        public AllFilter(MessageFilter[] filters) {
+            Set<MessageRoute> routes = null;
+
+            /* Any operand's routes bound the conjunction; take the narrowest */
+            for (MessageFilter filter : filters) {
+                Set<MessageRoute> filterRoutes = routes(filter);
+
+                if (filterRoutes != null && (routes == null || filterRoutes.size() < routes.size())) {
+                    routes = filterRoutes;
                 }
+            }
 
-                return true;
+            this.filters = filters;
+            this.routes = routes;
+        }
+
+        @Override
+        public boolean check(Message message) {
+            for (MessageFilter filter : filters) {
+                if (!filter.check(message)) {
+                    return false;
+                }
             }
-        };
+
+            return true;
+        }
+
+        @Override
+        public Set<MessageRoute> getRoutes() {
+            return routes;
+        }
     }
 
-    public static MessageFilter any(final MessageFilter... filters) {
-        return new MessageFilter() {
-            @Override
-            public boolean check(Message message) {
-                for (MessageFilter filter : filters) {
-                    if (filter.check(message)) {
-                        return true;
-                    }
+    static class AnyFilter implements RoutedFilter {
+        final MessageFilter[] filters;
+        private final Set<MessageRoute> routes;
+
+        public AnyFilter(MessageFilter[] filters) {
+            this.filters = filters;
+            this.routes = unionRoutes(filters);
+        }
+
+        @Override
+        public boolean check(Message message) {
+            for (MessageFilter filter : filters) {
+                if (filter.check(message)) {
+                    return true;
                 }
+            }
+
+            return false;
+        }
+
+        @Override
+        public Set<MessageRoute> getRoutes() {
+            return routes;
+        }
+    }
+
+    static class MessageMatchFilter implements RoutedFilter {
+        final MessageType type;
+        final String[] args;
+        private final Set<MessageRoute> routes;
+
+        public MessageMatchFilter(MessageType type, String[] args) {
+            this.type = type;
+            this.args = args;
+
+            if (type == null) {
+                this.routes = null;
+            } else {
+                String target = args.length > 0 ? args[0] : null;
+                this.routes = Collections.singleton(new MessageRoute(type, target));
+            }
+        }
 
+        @Override
+        public boolean check(Message message) {
+            if (type != null && type != message.getType()) {
                 return false;
             }
-        };
+
+            if (message.getArgCount() < args.length) {
+                return false;
+            }
+
+            String[] messageArgs = message.getArgs();
+
+            for (int i = 0; i < args.length; i++) {
+                if (args[i] != null && !args[i].equals(messageArgs[i])) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public Set<MessageRoute> getRoutes() {
+            return routes;
+        }
+    }
+
+    private static class RangeFilter implements RoutedFilter {
+        private final MessageFilter match;
+        private final MessageFilter last;
+        private final Set<MessageRoute> routes;
+        private boolean ended = false;
+
+        public RangeFilter(MessageFilter match, MessageFilter last) {
+            this.match = match;
+            this.last = last;
+
+            if (match == null) {
+                this.routes = routes(last);
+            } else {
+                this.routes = unionRoutes(match, last);
+            }
+        }
+
+        @Override
+        public boolean check(Message message) {
+            if (ended) {
+                return false;
+            } else if (last.check(message)) {
+                ended = true;
+                return true;
+            } else if (match != null) {
+                return match.check(message);
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public Set<MessageRoute> getRoutes() {
+            return routes;
+        }
+    }
+
+    private static class OnceFilter implements RoutedFilter {
+        private final MessageFilter filter;
+        private final AtomicBoolean match = new AtomicBoolean(true);
+
+        public OnceFilter(MessageFilter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean check(Message message) {
+            if (match.get() && filter.check(message)) {
+                return match.getAndSet(false);
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public Set<MessageRoute> getRoutes() {
+            return routes(filter);
+        }
+    }
+
+    public static MessageFilter pass() {
+        return PASS;
+    }
+
+    public static MessageFilter all(final MessageFilter... filters) {
+        return new AllFilter(filters);
+    }
+
+    public static MessageFilter any(final MessageFilter... filters) {
+        return new AnyFilter(filters);
     }
 
     public static MessageFilter not(final MessageFilter filter) {
@@ -93,7 +275,7 @@ public class MessageFilters {
         return new MessageFilter() {
             @Override
             public boolean check(Message message) {
-                User other = User.fromPrefix(message.getPrefix());
+                User other = message.getUser();
 
                 if (other == null) {
                     return false;
@@ -132,64 +314,49 @@ public class MessageFilters {
         };
     }
 
+    /**
+     * Compile a filter into a flat predicate program. Combinations of
+     * {@link #any(MessageFilter...)}, {@link #all(MessageFilter...)} and
+     * {@link #message(MessageType, String...)} are flattened into clauses
+     * checked with a message type bitset and argument comparisons. Other
+     * filters are kept as they are and checked after the rest of their clause.
+     * 
+     * @param filter The filter to compile
+     * @return the compiled filter
+     */
+    public static CompiledFilter compile(MessageFilter filter) {
+        return CompiledFilter.compile(filter);
+    }
+
     public static MessageFilter message(final MessageType type, final String... args) {
-        return new MessageFilter() {
+        return new MessageMatchFilter(type, args);
+    }
+
+    /**
+     * Match messages of the given type whose argument at the given index
+     * equals a name, such as a nick or channel name, under a case mapping
+     * 
+     * @param type The message type
+     * @param index The index of the argument
+     * @param name The name to compare the argument with
+     * @param caseMapping The case mapping names are compared with
+     * @return the filter
+     */
+    public static MessageFilter name(MessageType type, final int index, final String name,
+        final CaseMapping caseMapping) {
+        return all(message(type), new MessageFilter() {
             @Override
             public boolean check(Message message) {
-                if (type != null && type != message.getType()) {
-                    return false;
-                }
-
-                if (message.getArgs().length < args.length) {
-                    return false;
-                }
-
-                int i = 0;
-                for (String arg : args) {
-                    if (arg != null && !arg.equals(message.getArgs()[i])) {
-                        return false;
-                    }
-
-                    i++;
-                }
-
-                return true;
+                return message.getArgCount() > index && caseMapping.equalsIgnoreCase(name, message.getArgs()[index]);
             }
-        };
+        });
     }
 
     public static MessageFilter range(final MessageFilter match, final MessageFilter last) {
-        return new MessageFilter() {
-            private boolean ended = false;
-
-            @Override
-            public boolean check(Message message) {
-                if (ended) {
-                    return false;
-                } else if (last.check(message)) {
-                    ended = true;
-                    return true;
-                } else if (match != null) {
-                    return match.check(message);
-                } else {
-                    return false;
-                }
-            }
-        };
+        return new RangeFilter(match, last);
     }
 
     public static MessageFilter once(final MessageFilter filter) {
-        return new MessageFilter() {
-            AtomicBoolean match = new AtomicBoolean(true);
-
-            @Override
-            public boolean check(Message message) {
-                if (match.get() && filter.check(message)) {
-                    return match.getAndSet(false);
-                } else {
-                    return false;
-                }
-            }
-        };
+        return new OnceFilter(filter);
     }
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.messages.filter;
+
+import com.brewtab.irc.messages.MessageType;
+
+/**
+ * Describes a set of messages a filter may accept: messages of a given type,
+ * optionally restricted to those whose first argument (usually the channel or
+ * target) equals a given value.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public final class MessageRoute {
+    private final MessageType type;
+    private final String target;
+
+    /**
+     * Construct a new route
+     * 
+     * @param type The message type, must not be null
+     * @param target The first argument, or null to match any
+     */
+    public MessageRoute(MessageType type, String target) {
+        if (type == null) {
+            throw new IllegalArgumentException("type can not be null");
+        }
+
+        this.type = type;
+        this.target = target;
+    }
+
+    /**
+     * Get the message type
+     * 
+     * @return the message type
+     */
+    public MessageType getType() {
+        return type;
+    }
+
+    /**
+     * Get the required first argument
+     * 
+     * @return the first argument or null if any is accepted
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof MessageRoute)) {
+            return false;
+        }
+
+        MessageRoute other = (MessageRoute) obj;
+        return type == other.type && (target == null ? other.target == null : target.equals(other.target));
+    }
+
+    @Override
+    public int hashCode() {
+        return type.hashCode() * 31 + (target == null ? 0 : target.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        return type + (target == null ? "" : " " + target);
+    }
+}
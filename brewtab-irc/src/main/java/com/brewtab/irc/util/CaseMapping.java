@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.util;
+
+/**
+ * The case mappings used by IRC servers to compare nicks and channel names,
+ * as advertised by the CASEMAPPING server parameter
+ */
+public enum CaseMapping {
+    /** Only the letters A to Z have lower case equivalents */
+    ASCII('Z'),
+
+    /**
+     * As ASCII, plus the characters []\~ are the upper case equivalents of
+     * {}|^ as described by RFC 1459. This is the default for most servers.
+     */
+    RFC1459('^'),
+
+    /** As RFC1459 except that ~ and ^ are unrelated */
+    STRICT_RFC1459(']');
+
+    /* Highest character folded to lower case */
+    private final char lastUpper;
+
+    private CaseMapping(char lastUpper) {
+        this.lastUpper = lastUpper;
+    }
+
+    /**
+     * Fold a single character to lower case
+     * 
+     * @param c the character
+     * @return the lower case equivalent
+     */
+    public char toLowerCase(char c) {
+        if (c >= 'A' && c <= lastUpper) {
+            return (char) (c + ('a' - 'A'));
+        }
+
+        return c;
+    }
+
+    /**
+     * Fold a string to lower case. The same string is returned if it is
+     * already in lower case.
+     * 
+     * @param s the string
+     * @return the lower case equivalent
+     */
+    public String toLowerCase(String s) {
+        int length = s.length();
+        int i = 0;
+
+        while (i < length && toLowerCase(s.charAt(i)) == s.charAt(i)) {
+            i++;
+        }
+
+        if (i == length) {
+            return s;
+        }
+
+        char[] chars = s.toCharArray();
+
+        for (; i < length; i++) {
+            chars[i] = toLowerCase(chars[i]);
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * Compare two strings ignoring case
+     * 
+     * @param a the first string
+     * @param b the second string
+     * @return true if the strings are equal under this case mapping
+     */
+    public boolean equalsIgnoreCase(String a, String b) {
+        if (a.length() != b.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < a.length(); i++) {
+            if (toLowerCase(a.charAt(i)) != toLowerCase(b.charAt(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -91,6 +91,26 @@ public class TestIRCUser {
         assertNull(user);
     }
 
+    @Test
+    public void testInvalidFromPrefix9() {
+        User user = User.fromPrefix("irc.example.net");
+        assertNull(user);
+    }
+
+    @Test
+    public void testFromPrefixUserEndsAtFirstAt() {
+        User user = User.fromPrefix("nick!us!er@host@name");
+
+        assertEquals("us!er", user.getUser());
+        assertEquals("host@name", user.getHost());
+    }
+
+    @Test
+    public void testFromPrefixCached() {
+        User user = User.fromPrefix(new String("cached!user@host"));
+        assertSame(user, User.fromPrefix(new String("cached!user@host")));
+    }
+
     @Test
     public void testArguments0() {
         try {
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.client;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestReconnectPolicy {
+    @Test
+    public void testExponentialBackoffWithoutJitter() {
+        ReconnectPolicy policy = new ReconnectPolicy(1, 10, TimeUnit.SECONDS, 2.0, 0.0, 0);
+        Random random = new Random(0);
+
+        assertEquals(1000, policy.getDelayMillis(1, random));
+        assertEquals(2000, policy.getDelayMillis(2, random));
+        assertEquals(4000, policy.getDelayMillis(3, random));
+        assertEquals(8000, policy.getDelayMillis(4, random));
+        assertEquals(10000, policy.getDelayMillis(5, random));
+        assertEquals(10000, policy.getDelayMillis(50, random));
+    }
+
+    @Test
+    public void testJitterStaysWithinBounds() {
+        ReconnectPolicy policy = new ReconnectPolicy(1, 10, TimeUnit.SECONDS, 2.0, 0.5, 0);
+        Random random = new Random(0);
+
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.getDelayMillis(3, random);
+            assertTrue(delay >= 2000 && delay <= 4000);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInvalidJitter() {
+        new ReconnectPolicy(1, 10, TimeUnit.SECONDS, 2.0, 1.5, 0);
+    }
+}
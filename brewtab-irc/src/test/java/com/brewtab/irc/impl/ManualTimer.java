@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+
+/**
+ * Timer that only runs tasks when asked to
+ */
+class ManualTimer implements Timer {
+    class ManualTimeout implements Timeout {
+        private final TimerTask task;
+        private final long delayNanos;
+        private boolean expired = false;
+        private boolean cancelled = false;
+
+        ManualTimeout(TimerTask task, long delayNanos) {
+            this.task = task;
+            this.delayNanos = delayNanos;
+        }
+
+        public long getDelayNanos() {
+            return delayNanos;
+        }
+
+        @Override
+        public Timer getTimer() {
+            return ManualTimer.this;
+        }
+
+        @Override
+        public TimerTask getTask() {
+            return task;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return expired;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (ManualTimer.this) {
+                cancelled = true;
+                pending.remove(this);
+            }
+        }
+    }
+
+    private final List<ManualTimeout> pending = new ArrayList<ManualTimeout>();
+
+    @Override
+    public synchronized Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+        ManualTimeout timeout = new ManualTimeout(task, unit.toNanos(delay));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    @Override
+    public synchronized Set<Timeout> stop() {
+        Set<Timeout> unexpired = new HashSet<Timeout>(pending);
+        pending.clear();
+        return unexpired;
+    }
+
+    public synchronized List<ManualTimeout> getPending() {
+        return new ArrayList<ManualTimeout>(pending);
+    }
+
+    /**
+     * Run the tasks pending when called, regardless of their delay
+     */
+    public void runPending() throws Exception {
+        for (ManualTimeout timeout : getPending()) {
+            synchronized (this) {
+                if (timeout.cancelled) {
+                    continue;
+                }
+
+                pending.remove(timeout);
+                timeout.expired = true;
+            }
+
+            timeout.task.run(timeout);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.brewtab.irc.client.ChannelMember;
+import com.brewtab.irc.util.CaseMapping;
+
+import static org.junit.Assert.*;
+
+public class TestChannelMembers {
+    @Test
+    public void testParseKeepsPrefixes() {
+        ChannelMember member = ChannelMember.parse("@+nick");
+
+        assertEquals("nick", member.getNick());
+        assertEquals("@+", member.getPrefixes());
+        assertTrue(member.isOperator());
+        assertTrue(member.isVoiced());
+
+        assertEquals("+", ChannelMember.parse("+").getNick());
+    }
+
+    @Test
+    public void testLookupUsesCaseMapping() {
+        ChannelMembers members = new ChannelMembers(CaseMapping.RFC1459);
+        members.replaceAll(Arrays.asList(ChannelMember.parse("@Nick[away]")));
+
+        assertTrue(members.contains("nick{AWAY}"));
+        assertEquals("Nick[away]", members.get("NICK{away}").getNick());
+
+        ChannelMembers ascii = new ChannelMembers(CaseMapping.ASCII);
+        ascii.add("Nick[away]");
+        assertTrue(ascii.contains("NICK[AWAY]"));
+        assertFalse(ascii.contains("nick{away}"));
+    }
+
+    @Test
+    public void testUpdatesKeepPrefixes() {
+        ChannelMembers members = new ChannelMembers(CaseMapping.RFC1459);
+        members.replaceAll(Arrays.asList(ChannelMember.parse("@alice"), ChannelMember.parse("bob")));
+
+        assertTrue(members.rename("ALICE", "alice2"));
+        assertEquals("@", members.get("alice2").getPrefixes());
+        assertNull(members.get("alice"));
+
+        members.setPrefix("bob", '+', true);
+        members.setPrefix("bob", '@', true);
+        assertEquals("@+", members.get("bob").getPrefixes());
+        members.setPrefix("bob", '@', false);
+        assertEquals("+", members.get("bob").getPrefixes());
+
+        members.add("carol");
+        members.add("CAROL");
+        assertEquals(3, members.size());
+
+        assertNotNull(members.remove("Carol"));
+        assertEquals(2, members.nicks().size());
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.brewtab.irc.RateLimit;
+import com.brewtab.irc.messages.Message;
+import com.brewtab.irc.messages.MessageType;
+
+import static org.junit.Assert.*;
+
+public class TestFloodController {
+    /* One message an hour, so nothing refills during a test */
+    private static final RateLimit ONE_AN_HOUR = new RateLimit(1, 1, TimeUnit.HOURS);
+
+    private ManualTimer timer;
+    private EncoderEmbedder<Message> embedder;
+
+    private FloodController newController(RateLimit connectionLimit, RateLimit targetLimit) {
+        FloodController controller = new FloodController(connectionLimit, targetLimit, timer);
+        embedder = new EncoderEmbedder<Message>(controller);
+        return controller;
+    }
+
+    @Before
+    public void setUp() {
+        timer = new ManualTimer();
+    }
+
+    private ChannelFuture write(Message message) {
+        return Channels.write(embedder.getPipeline().getChannel(), message);
+    }
+
+    private List<Message> written() {
+        List<Message> written = new ArrayList<Message>();
+
+        while (!embedder.isEmpty()) {
+            written.add(embedder.poll());
+        }
+
+        return written;
+    }
+
+    private static Message privmsg(String target, String text) throws Exception {
+        return new Message(MessageType.PRIVMSG, target, text);
+    }
+
+    @Test
+    public void testPriorityBypassesQueue() throws Exception {
+        FloodController controller = newController(ONE_AN_HOUR, null);
+
+        Message first = privmsg("#a", "1");
+        Message second = privmsg("#a", "2");
+        Message pong = new Message(MessageType.PONG, "server");
+        Message ping = new Message(MessageType.PING, "server");
+        Message nick = new Message(MessageType.NICK, "nick_");
+
+        write(first);
+        ChannelFuture queued = write(second);
+
+        assertEquals(Arrays.asList(first), written());
+        assertEquals(1, controller.getStats().getQueueDepth());
+        assertEquals(1, timer.getPending().size());
+
+        /* Written even though the connection has no tokens left */
+        write(pong);
+        write(ping);
+        write(nick);
+
+        assertEquals(Arrays.asList(pong, ping, nick), written());
+        assertEquals(1, controller.getStats().getQueueDepth());
+        assertFalse(queued.isDone());
+
+        controller.setConnectionLimit(null);
+        timer.runPending();
+
+        assertEquals(Arrays.asList(second), written());
+        assertEquals(0, controller.getStats().getQueueDepth());
+        assertEquals(5, controller.getStats().getSentCount());
+    }
+
+    @Test
+    public void testBurst() throws Exception {
+        FloodController controller = newController(new RateLimit(3, 1, TimeUnit.HOURS), null);
+        List<Message> messages = new ArrayList<Message>();
+
+        for (int i = 0; i < 5; i++) {
+            Message message = privmsg("#a", Integer.toString(i));
+            messages.add(message);
+            write(message);
+        }
+
+        assertEquals(messages.subList(0, 3), written());
+        assertEquals(2, controller.getStats().getQueueDepth());
+
+        /* The drain is scheduled for when the next token is earned */
+        assertEquals(1, timer.getPending().size());
+        assertTrue(timer.getPending().get(0).getDelayNanos() <= TimeUnit.HOURS.toNanos(1));
+
+        controller.setConnectionLimit(null);
+        timer.runPending();
+
+        assertEquals(messages.subList(3, 5), written());
+        assertTrue(timer.getPending().isEmpty());
+    }
+
+    @Test
+    public void testTargetsServedRoundRobin() throws Exception {
+        FloodController controller = newController(null, ONE_AN_HOUR);
+
+        Message a1 = privmsg("#a", "1");
+        Message a2 = privmsg("#a", "2");
+        Message a3 = privmsg("#A", "3");
+        Message b1 = privmsg("#b", "1");
+        Message b2 = privmsg("#b", "2");
+
+        write(a1);
+        write(a2);
+        write(a3);
+        write(b1);
+        write(b2);
+
+        /* A long response to #a does not hold up #b */
+        assertEquals(Arrays.asList(a1, b1), written());
+        assertEquals(3, controller.getStats().getQueueDepth());
+
+        controller.setTargetLimit(null);
+        timer.runPending();
+
+        assertEquals(Arrays.asList(a2, b2, a3), written());
+    }
+
+    @Test
+    public void testUntargetedWaitsForEarlierMessages() throws Exception {
+        FloodController controller = newController(ONE_AN_HOUR, null);
+
+        Message a1 = privmsg("#a", "1");
+        Message a2 = privmsg("#a", "2");
+        Message a3 = privmsg("#a", "3");
+        Message part = new Message(MessageType.PART, "#a");
+        Message b1 = privmsg("#b", "1");
+
+        write(a1);
+        write(a2);
+        write(a3);
+        write(part);
+        write(b1);
+
+        assertEquals(Arrays.asList(a1), written());
+        assertEquals(4, controller.getStats().getQueueDepth());
+
+        controller.setConnectionLimit(null);
+        timer.runPending();
+
+        /* The PART neither passes #a's messages nor is passed by #b's */
+        assertEquals(Arrays.asList(a2, a3, part, b1), written());
+    }
+}
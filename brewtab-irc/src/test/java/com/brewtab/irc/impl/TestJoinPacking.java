@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.brewtab.irc.messages.Message;
+
+import static org.junit.Assert.*;
+
+public class TestJoinPacking {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testPacksIntoOneLine() {
+        Message[] joins = ClientImpl.packJoins(Arrays.asList("#a", "#b", "#c"), UTF8);
+
+        assertEquals(1, joins.length);
+        assertEquals("JOIN #a,#b,#c\r\n", joins[0].toString());
+    }
+
+    @Test
+    public void testSplitsAtLineLimit() {
+        List<String> channels = new ArrayList<String>();
+
+        for (int i = 0; i < 300; i++) {
+            channels.add("#channel" + i);
+        }
+
+        Message[] joins = ClientImpl.packJoins(channels, UTF8);
+        List<String> joined = new ArrayList<String>();
+
+        assertTrue(joins.length > 1);
+
+        for (Message join : joins) {
+            assertTrue(join.toString().length() <= 512);
+            joined.addAll(Arrays.asList(join.getArgs()[0].split(",")));
+        }
+
+        assertEquals(channels, joined);
+    }
+
+    @Test
+    public void testMeasuresEncodedBytes() {
+        List<String> channels = new ArrayList<String>();
+
+        /* Two bytes per character in UTF-8 */
+        for (int i = 0; i < 100; i++) {
+            channels.add("#\u00e9\u00e9\u00e9" + i);
+        }
+
+        Message[] joins = ClientImpl.packJoins(channels, UTF8);
+        List<String> joined = new ArrayList<String>();
+
+        for (Message join : joins) {
+            assertTrue(join.toString().getBytes(UTF8).length <= 512);
+            joined.addAll(Arrays.asList(join.getArgs()[0].split(",")));
+        }
+
+        assertEquals(channels, joined);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.brewtab.irc.messages.Message;
+import com.brewtab.irc.messages.MessageListener;
+import com.brewtab.irc.messages.MessageType;
+import com.brewtab.irc.messages.filter.MessageFilters;
+
+import static org.junit.Assert.*;
+
+public class TestMessageRouter {
+    private static MessageListener listener() {
+        return new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+            }
+        };
+    }
+
+    @Test
+    public void testRoutesByTypeAndTarget() {
+        MessageRouter router = new MessageRouter();
+        MessageListener pings = listener();
+        MessageListener channel = listener();
+        MessageListener other = listener();
+
+        router.add(pings, MessageFilters.message(MessageType.PING));
+        router.add(channel, MessageFilters.message(MessageType.PRIVMSG, "#test"));
+        router.add(other, MessageFilters.message(MessageType.PRIVMSG, "#other"));
+
+        List<MessageListener> candidates = router.candidates(Message.fromString(":a!b@c PRIVMSG #test :hi"));
+        assertEquals(1, candidates.size());
+        assertTrue(candidates.contains(channel));
+
+        candidates = router.candidates(Message.fromString("PING :server"));
+        assertEquals(1, candidates.size());
+        assertTrue(candidates.contains(pings));
+    }
+
+    @Test
+    public void testOpaqueFiltersAlwaysCandidates() {
+        MessageRouter router = new MessageRouter();
+        MessageListener opaque = listener();
+        MessageListener any = listener();
+
+        router.add(opaque, MessageFilters.not(MessageFilters.message(MessageType.PING)));
+        router.add(any, MessageFilters.any(
+            MessageFilters.message(MessageType.JOIN),
+            MessageFilters.message(MessageType.JOIN, "#test")));
+
+        List<MessageListener> candidates = router.candidates(Message.fromString(":a!b@c JOIN #test"));
+        assertEquals(2, candidates.size());
+        assertTrue(candidates.contains(opaque));
+        assertTrue(candidates.contains(any));
+
+        router.remove(any);
+        candidates = router.candidates(Message.fromString(":a!b@c JOIN #test"));
+        assertEquals(1, candidates.size());
+        assertTrue(candidates.contains(opaque));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.brewtab.irc.OverflowPolicy;
+
+import static org.junit.Assert.*;
+
+public class TestOrderedDispatcher {
+    /* Executor that only runs tasks when asked to */
+    private static class ManualExecutor implements Executor {
+        private final List<Runnable> pending = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            pending.add(command);
+        }
+
+        public void runAll() {
+            while (!pending.isEmpty()) {
+                pending.remove(0).run();
+            }
+        }
+    }
+
+    private static Runnable append(final List<Integer> list, final int value) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                list.add(value);
+            }
+        };
+    }
+
+    @Test
+    public void testOrdering() throws InterruptedException {
+        OrderedDispatcher dispatcher = new OrderedDispatcher(
+            OrderedDispatcher.newExecutor(4), 100, OverflowPolicy.BLOCK);
+
+        final List<Integer> a = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> b = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(2);
+
+        for (int i = 0; i < 1000; i++) {
+            dispatcher.dispatch("a", append(a, i));
+            dispatcher.dispatch("b", append(b, i));
+        }
+
+        dispatcher.dispatch("a", countDown(done));
+        dispatcher.dispatch("b", countDown(done));
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, a.get(i).intValue());
+            assertEquals(i, b.get(i).intValue());
+        }
+    }
+
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void testDropNewest() {
+        ManualExecutor executor = new ManualExecutor();
+        OrderedDispatcher dispatcher = new OrderedDispatcher(executor, 2, OverflowPolicy.DROP_NEWEST);
+        List<Integer> list = new ArrayList<Integer>();
+
+        for (int i = 0; i < 4; i++) {
+            dispatcher.dispatch("a", append(list, i));
+        }
+
+        assertEquals(2, dispatcher.getQueueDepth());
+        assertEquals(2, dispatcher.getDroppedCount());
+
+        executor.runAll();
+        assertEquals(2, list.size());
+        assertEquals(0, list.get(0).intValue());
+        assertEquals(1, list.get(1).intValue());
+    }
+
+    @Test
+    public void testDropOldest() {
+        ManualExecutor executor = new ManualExecutor();
+        OrderedDispatcher dispatcher = new OrderedDispatcher(executor, 2, OverflowPolicy.DROP_OLDEST);
+        List<Integer> list = new ArrayList<Integer>();
+
+        for (int i = 0; i < 4; i++) {
+            dispatcher.dispatch("a", append(list, i));
+        }
+
+        executor.runAll();
+        assertEquals(2, list.size());
+        assertEquals(2, list.get(0).intValue());
+        assertEquals(3, list.get(1).intValue());
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import com.brewtab.irc.ResponseFuture;
+import com.brewtab.irc.ResponseListener;
+import com.brewtab.irc.messages.Message;
+
+import static org.junit.Assert.*;
+
+public class TestResponseFuture {
+    private static class RecordingListener implements ResponseListener {
+        final List<ResponseFuture> notified = new ArrayList<ResponseFuture>();
+
+        @Override
+        public void onResponse(ResponseFuture future) {
+            notified.add(future);
+        }
+    }
+
+    @Test
+    public void testCompleteNotifiesListeners() throws Exception {
+        ResponseFutureImpl future = new ResponseFutureImpl();
+        RecordingListener before = new RecordingListener();
+        RecordingListener after = new RecordingListener();
+        List<Message> response = Arrays.asList(Message.fromString("PONG :server"));
+
+        future.addListener(before);
+        assertTrue(future.complete(response));
+        assertFalse(future.fail(new RuntimeException()));
+        future.addListener(after);
+
+        assertEquals(1, before.notified.size());
+        assertEquals(1, after.notified.size());
+        assertTrue(future.isSuccess());
+        assertEquals(response, future.get());
+        assertEquals(response, future.get(0, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        ResponseFutureImpl future = new ResponseFutureImpl();
+        IllegalStateException cause = new IllegalStateException();
+        future.fail(cause);
+
+        assertFalse(future.isSuccess());
+        assertSame(cause, future.getCause());
+        assertNull(future.getNow());
+
+        try {
+            future.get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertSame(cause, e.getCause());
+        }
+    }
+
+    @Test(expected = CancellationException.class)
+    public void testCancel() throws Exception {
+        ResponseFutureImpl future = new ResponseFutureImpl();
+
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+        assertTrue(future.isDone());
+        assertFalse(future.complete(new ArrayList<Message>()));
+
+        future.get();
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void testGetTimesOut() throws Exception {
+        new ResponseFutureImpl().get(10, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.brewtab.irc.RateLimit;
+
+import static org.junit.Assert.*;
+
+public class TestTokenBucket {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstThenInterval() {
+        FloodController.TokenBucket bucket = new FloodController.TokenBucket(RateLimit.RFC1459, 0);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.waitNanos(0));
+            bucket.take();
+        }
+
+        assertEquals(2 * SECOND, bucket.waitNanos(0));
+        assertEquals(SECOND, bucket.waitNanos(SECOND));
+        assertEquals(0, bucket.waitNanos(2 * SECOND));
+    }
+
+    @Test
+    public void testRefillIsCappedAtBurst() {
+        FloodController.TokenBucket bucket = new FloodController.TokenBucket(RateLimit.RFC1459, 0);
+        bucket.take();
+
+        assertTrue(bucket.isFull(100 * SECOND));
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.waitNanos(100 * SECOND));
+            bucket.take();
+        }
+
+        assertTrue(bucket.waitNanos(100 * SECOND) > 0);
+    }
+
+    @Test
+    public void testPriorityBorrows() {
+        FloodController.TokenBucket bucket = new FloodController.TokenBucket(new RateLimit(1, 1, TimeUnit.SECONDS), 0);
+
+        bucket.takeAlways(0);
+        bucket.takeAlways(0);
+
+        assertEquals(2 * SECOND, bucket.waitNanos(0));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.brewtab.irc.messages.Message;
+import com.brewtab.irc.messages.MessageListener;
+import com.brewtab.irc.util.CaseMapping;
+
+import static org.junit.Assert.*;
+
+public class TestUserRegistry {
+    private static final MessageListener NOOP = new MessageListener() {
+        @Override
+        public void onMessage(Message message) {
+        }
+    };
+
+    @Test
+    public void testQuitReachesOnlyMemberChannels() {
+        MessageListener first = new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+            }
+        };
+
+        UserRegistry registry = new UserRegistry(null, CaseMapping.RFC1459);
+        registry.addChannel("#first", first);
+        registry.addChannel("#second", NOOP);
+
+        registry.update(Message.fromString(":server 353 me = #First :@alice +bob\r\n"));
+        registry.update(Message.fromString(":carol!c@host JOIN #second\r\n"));
+
+        assertEquals(Arrays.asList(first), registry.update(Message.fromString(":Alice!a@host QUIT :bye\r\n")));
+        assertEquals(0, registry.getChannelCount("alice"));
+        assertEquals(Collections.emptyList(), registry.update(Message.fromString(":dave!d@host QUIT :bye\r\n")));
+    }
+
+    @Test
+    public void testMembershipFollowsNickAndPart() {
+        UserRegistry registry = new UserRegistry(null, CaseMapping.RFC1459);
+        registry.addChannel("#a", NOOP);
+        registry.addChannel("#b", NOOP);
+
+        registry.update(Message.fromString(":bob!b@host JOIN #a\r\n"));
+        registry.update(Message.fromString(":bob!b@host JOIN #b\r\n"));
+        registry.update(Message.fromString(":bob!b@host NICK :bob[away]\r\n"));
+
+        assertEquals(0, registry.getChannelCount("bob"));
+        assertEquals(2, registry.getChannelCount("BOB{away}"));
+
+        registry.update(Message.fromString(":bob[away]!b@host PART #a\r\n"));
+        registry.update(Message.fromString(":op!o@host KICK #b bob[away] :out\r\n"));
+        assertEquals(0, registry.getUserCount());
+
+        registry.update(Message.fromString(":bob!b@host JOIN #a\r\n"));
+        registry.removeChannel("#A");
+        assertEquals(0, registry.getUserCount());
+    }
+}
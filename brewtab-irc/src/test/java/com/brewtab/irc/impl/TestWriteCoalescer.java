@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.impl;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelDownstreamHandler;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.brewtab.irc.FlushPolicy;
+
+import static org.junit.Assert.*;
+
+public class TestWriteCoalescer {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /* Sits below the coalescer and keeps the futures of the writes it sees */
+    private static class WriteCapture extends SimpleChannelDownstreamHandler {
+        final List<ChannelFuture> futures = new ArrayList<ChannelFuture>();
+
+        @Override
+        public void writeRequested(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+            futures.add(e.getFuture());
+            ctx.sendDownstream(e);
+        }
+    }
+
+    private ManualTimer timer;
+    private WriteCoalescer coalescer;
+    private WriteCapture capture;
+    private EncoderEmbedder<ChannelBuffer> embedder;
+
+    @Before
+    public void setUp() {
+        timer = new ManualTimer();
+        coalescer = new WriteCoalescer(timer);
+        capture = new WriteCapture();
+        embedder = new EncoderEmbedder<ChannelBuffer>(capture, coalescer);
+    }
+
+    private ChannelFuture write(String data) {
+        return Channels.write(embedder.getPipeline().getChannel(), ChannelBuffers.copiedBuffer(data, ASCII));
+    }
+
+    private List<String> written() {
+        List<String> written = new ArrayList<String>();
+
+        while (!embedder.isEmpty()) {
+            written.add(embedder.poll().toString(ASCII));
+        }
+
+        return written;
+    }
+
+    /* Complete the most recent write seen below the coalescer */
+    private void completeLastWrite() {
+        capture.futures.get(capture.futures.size() - 1).setSuccess();
+    }
+
+    @Test
+    public void testCoalesceWhileWriteInProgress() {
+        ChannelFuture a = write("a");
+
+        /* Nothing to coalesce with, so written at once */
+        assertEquals(1, capture.futures.size());
+        assertEquals(Arrays.asList("a"), written());
+
+        ChannelFuture b = write("b");
+        ChannelFuture c = write("c");
+
+        /* Held until the first write completes */
+        assertEquals(1, capture.futures.size());
+        assertTrue(written().isEmpty());
+        assertFalse(a.isDone());
+
+        completeLastWrite();
+
+        assertTrue(a.isSuccess());
+        assertFalse(b.isDone());
+        assertEquals(2, capture.futures.size());
+        assertEquals(Arrays.asList("bc"), written());
+
+        completeLastWrite();
+
+        assertTrue(b.isSuccess());
+        assertTrue(c.isSuccess());
+
+        /* Idle again, the next write goes straight out */
+        write("d");
+        assertEquals(Arrays.asList("d"), written());
+        assertTrue(timer.getPending().isEmpty());
+    }
+
+    @Test
+    public void testFailedWriteFailsCoalescedFutures() {
+        write("a");
+        ChannelFuture b = write("b");
+        ChannelFuture c = write("c");
+
+        completeLastWrite();
+        written();
+
+        Exception cause = new Exception();
+        capture.futures.get(1).setFailure(cause);
+
+        assertSame(cause, b.getCause());
+        assertSame(cause, c.getCause());
+    }
+
+    @Test
+    public void testImmediatePassesThrough() {
+        coalescer.setPolicy(FlushPolicy.IMMEDIATE);
+
+        write("a");
+        write("b");
+        write("c");
+
+        /* Every write reaches the channel without waiting on the one before */
+        assertEquals(3, capture.futures.size());
+        assertEquals(Arrays.asList("a", "b", "c"), written());
+    }
+
+    @Test
+    public void testWindowHeldUntilTimer() throws Exception {
+        coalescer.setPolicy(FlushPolicy.window(50, TimeUnit.MILLISECONDS));
+
+        ChannelFuture a = write("a");
+        ChannelFuture b = write("b");
+
+        assertTrue(written().isEmpty());
+        assertEquals(1, timer.getPending().size());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(50), timer.getPending().get(0).getDelayNanos());
+
+        timer.runPending();
+
+        assertEquals(Arrays.asList("ab"), written());
+
+        completeLastWrite();
+
+        assertTrue(a.isSuccess());
+        assertTrue(b.isSuccess());
+        assertTrue(timer.getPending().isEmpty());
+    }
+
+    @Test
+    public void testFlushWritesHeldData() {
+        coalescer.setPolicy(FlushPolicy.window(1, TimeUnit.HOURS));
+
+        write("a");
+        write("b");
+        assertTrue(written().isEmpty());
+
+        coalescer.flush(embedder.getPipeline().getChannel());
+
+        assertEquals(Arrays.asList("ab"), written());
+
+        /* The scheduled flush is no longer needed */
+        assertTrue(timer.getPending().isEmpty());
+    }
+
+    @Test
+    public void testWindowWrittenOnceFull() {
+        coalescer.setPolicy(FlushPolicy.window(1, TimeUnit.HOURS));
+
+        StringBuilder large = new StringBuilder();
+
+        for (int i = 0; i < 8192; i++) {
+            large.append('x');
+        }
+
+        write("a");
+        write(large.toString());
+
+        List<String> written = written();
+        assertEquals(1, written.size());
+        assertEquals(8193, written.get(0).length());
+        assertTrue(timer.getPending().isEmpty());
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.messages;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestMessage {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static Message decode(String line) {
+        return Message.fromBytes(line.getBytes(UTF8), UTF8);
+    }
+
+    /* Formatting and parsing again gives the same message */
+    private static void assertRoundTrip(Message message) {
+        String line = message.toString();
+        Message parsed = Message.fromString(line.substring(0, line.length() - 2));
+
+        assertEquals(message.getPrefix(), parsed.getPrefix());
+        assertEquals(message.getCommand(), parsed.getCommand());
+        assertArrayEquals(message.getArgs(), parsed.getArgs());
+    }
+
+    @Test
+    public void testFromBytes0() {
+        Message message = decode(":nick!user@host PRIVMSG #channel :hello there");
+
+        assertEquals("nick!user@host", message.getPrefix());
+        assertEquals(MessageType.PRIVMSG, message.getType());
+        assertEquals(2, message.getArgCount());
+        assertArrayEquals(new String[] { "#channel", "hello there" }, message.getArgs());
+    }
+
+    @Test
+    public void testFromBytes1() {
+        Message message = decode("PING irc.example.com");
+
+        assertNull(message.getPrefix());
+        assertEquals(MessageType.PING, message.getType());
+        assertArrayEquals(new String[] { "irc.example.com" }, message.getArgs());
+    }
+
+    @Test
+    public void testFromBytes2() {
+        Message message = decode(":server 353 nick = #channel :@op +voice  user");
+
+        assertEquals(MessageType.RPL_NAMREPLY, message.getType());
+        assertArrayEquals(new String[] { "nick", "=", "#channel", "@op +voice  user" }, message.getArgs());
+    }
+
+    @Test
+    public void testFromBytes3() {
+        Message message = decode(":server  001   nick   :Welcome: to IRC  ");
+
+        assertEquals("server", message.getPrefix());
+        assertEquals(MessageType.RPL_WELCOME, message.getType());
+        assertArrayEquals(new String[] { "nick", "Welcome: to IRC" }, message.getArgs());
+    }
+
+    @Test
+    public void testFromBytes4() {
+        Message message = decode(":nick!user@host PRIVMSG #channel :\u00fcber caf\u00e9");
+
+        assertEquals("\u00fcber caf\u00e9", message.getArgs()[1]);
+    }
+
+    @Test
+    public void testFromBytes5() {
+        Message message = decode(":nick!user@host QUIT :");
+
+        assertArrayEquals(new String[] { "" }, message.getArgs());
+    }
+
+    @Test
+    public void testFromBytesUnknown0() {
+        Message message = decode(":server CAP * LS :multi-prefix sasl");
+
+        assertEquals(MessageType.UNKNOWN, message.getType());
+        assertEquals("CAP", message.getCommand());
+        assertArrayEquals(new String[] { "*", "LS", "multi-prefix sasl" }, message.getArgs());
+        assertRoundTrip(message);
+    }
+
+    @Test
+    public void testFromBytesUnknown1() {
+        Message message = decode(":server 999 nick :unassigned numeric");
+
+        assertEquals(MessageType.UNKNOWN, message.getType());
+        assertEquals("999", message.getCommand());
+    }
+
+    @Test
+    public void testRoundTrip0() {
+        assertRoundTrip(decode(":server 332 nick #channel :the topic"));
+        assertRoundTrip(decode(":server MODE #channel +k ::key"));
+        assertRoundTrip(decode(":server 001 nick :"));
+        assertRoundTrip(decode(":server 999 nick one"));
+    }
+
+    @Test
+    public void testFromStringUnknown0() {
+        Message message = Message.fromString(":server CAP * ACK :sasl");
+
+        assertEquals(MessageType.UNKNOWN, message.getType());
+        assertEquals("CAP", message.getCommand());
+    }
+
+    @Test
+    public void testTypeLookup0() {
+        for (MessageType type : MessageType.values()) {
+            if (type == MessageType.UNKNOWN) {
+                continue;
+            }
+
+            byte[] bytes = type.toString().getBytes(UTF8);
+            MessageType found = MessageType.fromBytes(bytes, 0, bytes.length);
+
+            assertEquals(type.toString(), found.toString());
+            assertEquals(found, MessageType.fromString(type.toString()));
+        }
+    }
+
+    @Test
+    public void testTypeLookup1() {
+        byte[] bytes = "xxprivmsgxx".getBytes(UTF8);
+
+        assertEquals(MessageType.PRIVMSG, MessageType.fromBytes(bytes, 2, 7));
+        assertEquals(MessageType.PRIVMSG, MessageType.fromString("privmsg"));
+        assertNull(MessageType.fromBytes(bytes, 2, 6));
+        assertNull(MessageType.fromString("PRIVMSG_"));
+        assertNull(MessageType.fromString("[]"));
+        assertNull(MessageType.fromString(""));
+    }
+
+    @Test
+    public void testToString0() {
+        Message message = decode(":nick!user@host PRIVMSG #channel :hello there");
+
+        assertEquals(":nick!user@host PRIVMSG #channel :hello there\r\n", message.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownTypeRejected0() {
+        new Message(MessageType.UNKNOWN, "#channel");
+    }
+
+    @Test(expected = InvalidMessageException.class)
+    public void testInvalidFromBytes0() {
+        decode(":nick!user@host PRIVMSG #channel");
+    }
+
+    @Test(expected = InvalidMessageException.class)
+    public void testInvalidFromBytes1() {
+        decode(":nick!user@host");
+    }
+}
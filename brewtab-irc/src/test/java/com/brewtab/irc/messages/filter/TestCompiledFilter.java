@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irc.messages.filter;
+
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+import com.brewtab.irc.messages.Message;
+import com.brewtab.irc.messages.MessageType;
+import com.brewtab.irc.util.CaseMapping;
+
+import static org.junit.Assert.*;
+
+public class TestCompiledFilter {
+    @Test
+    public void testFlattensConjunctionOfDisjunctions() {
+        CompiledFilter filter = MessageFilters.compile(
+            MessageFilters.all(
+                MessageFilters.any(
+                    MessageFilters.message(MessageType.PRIVMSG),
+                    MessageFilters.message(MessageType.NOTICE)),
+                MessageFilters.message(null, "#test")));
+
+        assertEquals(2, filter.getClauseCount());
+        assertEquals(EnumSet.of(MessageType.PRIVMSG, MessageType.NOTICE), filter.getTypes());
+        assertEquals(2, filter.getRoutes().size());
+        assertTrue(filter.getRoutes().contains(new MessageRoute(MessageType.NOTICE, "#test")));
+
+        assertTrue(filter.check(Message.fromString(":a!b@c NOTICE #test :hi")));
+        assertFalse(filter.check(Message.fromString(":a!b@c PRIVMSG #other :hi")));
+        assertFalse(filter.check(Message.fromString(":a!b@c JOIN #test")));
+    }
+
+    @Test
+    public void testContradictionsAreDropped() {
+        CompiledFilter filter = MessageFilters.compile(
+            MessageFilters.all(
+                MessageFilters.message(MessageType.PRIVMSG, "#a"),
+                MessageFilters.message(MessageType.PRIVMSG, "#b")));
+
+        assertEquals(0, filter.getClauseCount());
+        assertFalse(filter.check(Message.fromString(":a!b@c PRIVMSG #a :hi")));
+    }
+
+    @Test
+    public void testKeepsOtherFilters() {
+        CompiledFilter filter = MessageFilters.compile(
+            MessageFilters.all(
+                MessageFilters.message(MessageType.PRIVMSG),
+                MessageFilters.not(MessageFilters.message(null, "#a"))));
+
+        assertEquals(EnumSet.of(MessageType.PRIVMSG), filter.getTypes());
+        assertTrue(filter.check(Message.fromString(":a!b@c PRIVMSG #b :hi")));
+        assertFalse(filter.check(Message.fromString(":a!b@c PRIVMSG #a :hi")));
+
+        assertNull(MessageFilters.compile(MessageFilters.not(MessageFilters.pass())).getRoutes());
+    }
+
+    @Test
+    public void testNameComparedWithCaseMapping() {
+        CompiledFilter filter = MessageFilters.compile(
+            MessageFilters.any(
+                MessageFilters.name(MessageType.RPL_ENDOFNAMES, 1, "#chan[1]", CaseMapping.RFC1459),
+                MessageFilters.name(MessageType.ERR_BADCHANMASK, 1, "#chan[1]", CaseMapping.RFC1459)));
+
+        assertEquals(EnumSet.of(MessageType.RPL_ENDOFNAMES, MessageType.ERR_BADCHANMASK), filter.getTypes());
+        assertTrue(filter.getRoutes().contains(new MessageRoute(MessageType.RPL_ENDOFNAMES, null)));
+
+        assertTrue(filter.check(Message.fromString(":srv 366 bot #CHAN{1} :End of /NAMES list.")));
+        assertTrue(filter.check(Message.fromString(":srv 476 bot #chan[1] :Bad Channel Mask")));
+        assertFalse(filter.check(Message.fromString(":srv 366 bot #chan2 :End of /NAMES list.")));
+        assertFalse(filter.check(Message.fromString(":srv 366 bot")));
+    }
+}
@@ -23,8 +23,8 @@
 package com.brewtab.ircbot;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Set;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,14 +33,18 @@ import com.brewtab.irc.User;
 import com.brewtab.irc.client.Channel;
 import com.brewtab.irc.client.ChannelListener;
 import com.brewtab.ircbot.applets.BotApplet;
+import com.brewtab.ircbot.metrics.BotMetrics;
+import com.brewtab.ircbot.util.CommandTrie;
 
 public class AppletListener implements ChannelListener, BotApplet {
     private static final Logger log = LoggerFactory.getLogger(AppletListener.class);
 
-    private HashMap<String, BotApplet> applets;
+    private CommandTrie<BotApplet> applets;
+    private AppletRunner runner;
 
-    public AppletListener() {
-        this.applets = new HashMap<String, BotApplet>();
+    public AppletListener(BotMetrics metrics) {
+        this.applets = new CommandTrie<BotApplet>();
+        this.runner = new AppletRunner(metrics);
 
         /* Register built in commands */
         this.registerApplet("help", this);
@@ -49,6 +53,10 @@ public class AppletListener implements ChannelListener, BotApplet {
         this.registerApplet("echo", this);
     }
 
+    public AppletListener() {
+        this(new BotMetrics());
+    }
+
     public void registerApplet(String command_name, BotApplet applet) {
         this.applets.put(command_name, applet);
     }
@@ -59,6 +67,28 @@ public class AppletListener implements ChannelListener, BotApplet {
         }
     }
 
+    /**
+     * Set how an applet is run. By default an applet runs one invocation at a
+     * time, queues up to {@value AppletRunner#DEFAULT_QUEUE_SIZE} more, and
+     * is interrupted after {@value AppletRunner#DEFAULT_TIMEOUT_MILLIS} ms.
+     * 
+     * @param applet the applet, which must not have run yet
+     * @param concurrency the number of invocations run at once
+     * @param queueSize the number of invocations which may wait to run
+     * @param timeout how long an invocation may run before it is interrupted
+     * @param unit the unit of the timeout
+     */
+    public void setAppletLimits(BotApplet applet, int concurrency, int queueSize, long timeout, TimeUnit unit) {
+        runner.setLimits(applet, concurrency, queueSize, timeout, unit);
+    }
+
+    /**
+     * Stop running applets, interrupting any still running
+     */
+    public void shutdown() {
+        runner.shutdown();
+    }
+
     @Override
     public void onJoin(Channel channel, User user) {
         // -
@@ -98,7 +128,7 @@ public class AppletListener implements ChannelListener, BotApplet {
                 } else if (Character.isWhitespace(c)) {
                     /* End of argument */
                     args.add(sb.toString());
-                    sb = new StringBuilder();
+                    sb.setLength(0);
                     state = 0;
                 } else {
                     sb.append(c);
@@ -139,64 +169,107 @@ public class AppletListener implements ChannelListener, BotApplet {
         return args.toArray(new String[0]);
     }
 
+    private static int skipSpaces(String s, int i, int end) {
+        while (i < end && s.charAt(i) == ' ') {
+            i++;
+        }
+
+        return i;
+    }
+
+    /**
+     * Recognize commands, either prefixed with '.' or addressed to the bot
+     * ("nick: command"), in a single pass. Most lines are not commands, so
+     * they are rejected after looking at their first character or two.
+     * Abbreviated commands are only accepted when addressed to the bot, as
+     * chat such as ".com" would otherwise run them.
+     */
     @Override
     public void onMessage(Channel channel, User from, String message) {
-        String myNick = channel.getClient().getNick();
-        String command = null;
-        String unparsedArgs = null;
-        message = message.trim();
-
-        /* Possible command */
-        if (message.startsWith(myNick + ": ")) {
-            String[] parts = message.split("[ ]+", 3);
-
-            if (parts.length == 3) {
-                command = parts[1];
-                unparsedArgs = parts[2].trim();
-            } else if (parts.length == 2) {
-                command = parts[1];
-                unparsedArgs = "";
-            }
-        } else if (message.startsWith(".")) {
-            String[] parts = message.substring(1).split("[ ]+", 2);
-
-            if (parts.length == 2) {
-                command = parts[0];
-                unparsedArgs = parts[1].trim();
-            } else if (parts.length == 1) {
-                command = parts[0];
-                unparsedArgs = "";
+        int start = 0;
+        int end = message.length();
+
+        /* Trim, as String.trim() would, without copying */
+        while (start < end && message.charAt(start) <= ' ') {
+            start++;
+        }
+
+        while (end > start && message.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        if (start == end) {
+            return;
+        }
+
+        boolean addressed = false;
+        int commandStart;
+
+        if (message.charAt(start) == '.') {
+            commandStart = start + 1;
+        } else {
+            String myNick = channel.getClient().getNick();
+            int nickEnd = start + myNick.length();
+
+            /* Possible command addressed to us, "nick: command" */
+            if (nickEnd + 1 >= end || message.charAt(nickEnd) != ':' || message.charAt(nickEnd + 1) != ' '
+                || !message.regionMatches(start, myNick, 0, myNick.length())) {
+                return;
             }
+
+            addressed = true;
+            commandStart = skipSpaces(message, nickEnd + 1, end);
         }
 
-        if (command != null) {
-            if (this.applets.containsKey(command)) {
-                String[] args = this.parseArgs(unparsedArgs);
-                BotApplet applet = this.applets.get(command);
+        int commandEnd = message.indexOf(' ', commandStart);
 
-                if (args == null) {
-                    channel.write("Mismatched quotes in argument");
-                } else {
-                    try {
-                        applet.run(channel, from, command, args, unparsedArgs);
-                    } catch (Exception e) {
-                        log.error("applet threw exception", e);
-                    }
-                }
-            } else if (message.startsWith(myNick + ": ")) {
+        if (commandEnd < 0 || commandEnd > end) {
+            commandEnd = end;
+        }
+
+        CommandTrie.Entry<BotApplet> entry;
+
+        if (addressed) {
+            entry = applets.resolve(message, commandStart, commandEnd);
+        } else {
+            entry = applets.lookup(message, commandStart, commandEnd);
+        }
+
+        if (entry == null) {
+            if (addressed && commandStart < end) {
                 /*
                  * Only bother to respond to unknown commands if the bot is
                  * asked directly (rather than with a leading '.')
                  */
                 channel.write("Unknown command");
             }
+
+            return;
+        }
+
+        String command = entry.getName();
+        String unparsedArgs = message.substring(skipSpaces(message, commandEnd, end), end);
+        String[] args = parseArgs(unparsedArgs);
+        BotApplet applet = entry.getValue();
+
+        if (args == null) {
+            channel.write("Mismatched quotes in argument");
+        } else if (applet == this) {
+            /* Built in commands are quick enough to run inline */
+            try {
+                applet.run(channel, from, command, args, unparsedArgs);
+            } catch (Exception e) {
+                log.error("applet threw exception", e);
+            }
+        } else {
+            runner.run(applet, channel, from, command, args, unparsedArgs);
         }
     }
 
     @Override
     public void run(Channel channel, User from, String command, String[] args, String unparsed) {
         if (command.equals("help") || command.equals("commands")) {
-            Set<String> commands = this.applets.keySet();
+            List<String> commands = this.applets.names();
             StringBuilder sb = new StringBuilder();
 
             sb.append("Commands:");
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.brewtab.irc.User;
+import com.brewtab.irc.client.Channel;
+import com.brewtab.ircbot.applets.BotApplet;
+import com.brewtab.ircbot.metrics.BotMetrics;
+import com.brewtab.ircbot.metrics.CommandMetrics;
+
+/**
+ * Runs applets away from the thread messages are dispatched on. Each applet
+ * has its own executor with a limited number of threads and a bounded queue,
+ * so a slow applet only delays itself. When an applet's queue is full the
+ * command is refused with a busy reply, and an invocation running longer than
+ * the applet's timeout is interrupted. Every invocation is recorded in the
+ * metrics of its command.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+class AppletRunner {
+    private static final Logger log = LoggerFactory.getLogger(AppletRunner.class);
+
+    /* One at a time, as when applets were run on the dispatch thread */
+    public static final int DEFAULT_CONCURRENCY = 1;
+    public static final int DEFAULT_QUEUE_SIZE = 4;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+
+    private static class Limits {
+        final int concurrency;
+        final int queueSize;
+        final long timeoutMillis;
+
+        Limits(int concurrency, int queueSize, long timeoutMillis) {
+            this.concurrency = concurrency;
+            this.queueSize = queueSize;
+            this.timeoutMillis = timeoutMillis;
+        }
+    }
+
+    private static class AppletExecutor {
+        final ThreadPoolExecutor threads;
+        final long timeoutMillis;
+
+        AppletExecutor(ThreadPoolExecutor threads, long timeoutMillis) {
+            this.threads = threads;
+            this.timeoutMillis = timeoutMillis;
+        }
+    }
+
+    /* Guarded by this, keyed by identity since an applet has many commands */
+    private final Map<BotApplet, Limits> limits = new IdentityHashMap<BotApplet, Limits>();
+    private final Map<BotApplet, AppletExecutor> executors = new IdentityHashMap<BotApplet, AppletExecutor>();
+
+    private final ScheduledExecutorService timeouts;
+    private final BotMetrics metrics;
+
+    public AppletRunner(BotMetrics metrics) {
+        this.metrics = metrics;
+        this.timeouts = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "applet-timeouts");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Set the limits of an applet. Must be called before the applet is first
+     * run.
+     * 
+     * @param applet the applet
+     * @param concurrency the number of invocations run at once
+     * @param queueSize the number of invocations which may wait to run
+     * @param timeout how long an invocation may run before it is interrupted
+     * @param unit the unit of the timeout
+     */
+    public synchronized void setLimits(BotApplet applet, int concurrency, int queueSize, long timeout,
+        TimeUnit unit) {
+        if (executors.containsKey(applet)) {
+            throw new IllegalStateException("Applet has already been run");
+        }
+
+        limits.put(applet, new Limits(concurrency, queueSize, unit.toMillis(timeout)));
+    }
+
+    private synchronized AppletExecutor getAppletExecutor(BotApplet applet) {
+        AppletExecutor executor = executors.get(applet);
+
+        if (executor == null) {
+            Limits appletLimits = limits.get(applet);
+
+            if (appletLimits == null) {
+                appletLimits = new Limits(DEFAULT_CONCURRENCY, DEFAULT_QUEUE_SIZE, DEFAULT_TIMEOUT_MILLIS);
+            }
+
+            final String name = "applet-" + applet.getClass().getSimpleName();
+            final AtomicInteger threadCount = new AtomicInteger();
+
+            ThreadPoolExecutor threads = new ThreadPoolExecutor(appletLimits.concurrency,
+                appletLimits.concurrency, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(appletLimits.queueSize), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, name + "-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+
+                        return thread;
+                    }
+                });
+
+            threads.allowCoreThreadTimeOut(true);
+
+            executor = new AppletExecutor(threads, appletLimits.timeoutMillis);
+            executors.put(applet, executor);
+        }
+
+        return executor;
+    }
+
+    /**
+     * Queue an applet invocation, replying that the applet is busy if its
+     * queue is full
+     * 
+     * @return false if the applet was busy
+     */
+    public boolean run(final BotApplet applet, final Channel channel, final User from, final String command,
+        final String[] args, final String unparsed) {
+        final AppletExecutor executor = getAppletExecutor(applet);
+        final CommandMetrics commandMetrics = metrics.getCommand(command);
+
+        final FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                boolean failed = false;
+                long start = System.nanoTime();
+                commandMetrics.started();
+
+                try {
+                    applet.run(channel, from, command, args, unparsed);
+                } catch (Exception e) {
+                    failed = true;
+                    log.error("applet threw exception", e);
+                } finally {
+                    commandMetrics.finished(System.nanoTime() - start, failed);
+                }
+            }
+        }, null) {
+            private ScheduledFuture<?> timeout;
+
+            @Override
+            public void run() {
+                /* Time the invocation itself, not its wait in the queue */
+                synchronized (this) {
+                    if (!isDone()) {
+                        timeout = timeouts.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                timedOut();
+                            }
+                        }, executor.timeoutMillis, TimeUnit.MILLISECONDS);
+                    }
+                }
+
+                super.run();
+            }
+
+            @Override
+            protected void done() {
+                synchronized (this) {
+                    if (timeout != null) {
+                        timeout.cancel(false);
+                    }
+                }
+            }
+
+            private void timedOut() {
+                if (cancel(true)) {
+                    commandMetrics.timedOut();
+                    log.warn("applet for '{}' timed out after {} ms", command, executor.timeoutMillis);
+                    channel.write(String.format("%s timed out, try again later", command));
+                }
+            }
+        };
+
+        try {
+            executor.threads.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            commandMetrics.rejected();
+            log.warn("applet for '{}' is busy, refusing invocation", command);
+            channel.write(String.format("%s is busy, try again later", command));
+            return false;
+        }
+    }
+
+    /**
+     * Stop every applet, interrupting running invocations
+     */
+    public synchronized void shutdown() {
+        for (AppletExecutor executor : executors.values()) {
+            executor.threads.shutdownNow();
+        }
+
+        timeouts.shutdownNow();
+    }
+}
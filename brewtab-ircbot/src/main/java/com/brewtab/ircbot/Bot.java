@@ -25,8 +25,6 @@ package com.brewtab.ircbot;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.util.Properties;
 import java.util.concurrent.CountDownLatch;
 
@@ -34,14 +32,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.brewtab.irc.ConnectionStateListener;
+import com.brewtab.irc.RateLimit;
 import com.brewtab.irc.client.Channel;
 import com.brewtab.irc.client.Client;
 import com.brewtab.irc.client.ClientFactory;
+import com.brewtab.irc.client.ReconnectListener;
+import com.brewtab.irc.client.ReconnectPolicy;
 import com.brewtab.ircbot.applets.BashApplet;
 import com.brewtab.ircbot.applets.CalcApplet;
 import com.brewtab.ircbot.applets.EightBallApplet;
 import com.brewtab.ircbot.applets.GoogleSuggestsApplet;
 import com.brewtab.ircbot.applets.GroupHugApplet;
+import com.brewtab.ircbot.applets.MetricsApplet;
 import com.brewtab.ircbot.applets.SpellApplet;
 import com.brewtab.ircbot.applets.StatsApplet;
 import com.brewtab.ircbot.applets.StockApplet;
@@ -51,12 +53,14 @@ import com.brewtab.ircbot.applets.UrbanDictionaryApplet;
 import com.brewtab.ircbot.applets.WikiApplet;
 import com.brewtab.ircbot.applets.WolframAlphaApplet;
 import com.brewtab.ircbot.applets.WundergroundApplet;
+import com.brewtab.ircbot.metrics.BotMetrics;
+import com.brewtab.ircbot.util.ConnectionPool;
 import com.brewtab.ircbot.util.SQLProperties;
 import com.brewtab.irclog.IRCLogger;
 import com.sampullara.cli.Args;
 import com.sampullara.cli.Argument;
 
-public class Bot implements ConnectionStateListener {
+public class Bot implements ConnectionStateListener, ReconnectListener {
     private static final Logger log = LoggerFactory.getLogger(Bot.class);
 
     @Argument(value = "config", description = "Configuration properties file")
@@ -67,10 +71,11 @@ public class Bot implements ConnectionStateListener {
     private Client client;
     private Channel channel;
 
-    private Connection connection;
+    private ConnectionPool pool;
     private IRCLogger logger;
     private SQLProperties properties;
 
+    private BotMetrics metrics;
     private AppletListener appletsListener;
     private PlusPlus plusPlus;
 
@@ -83,9 +88,13 @@ public class Bot implements ConnectionStateListener {
     private String databaseHost;
     private String databaseUser;
     private String databasePassword;
+    private int databasePoolSize = ConnectionPool.DEFAULT_MAX_SIZE;
 
     private CountDownLatch disconnected;
 
+    /* Set once stop has run */
+    private boolean stopped = false;
+
     public Bot(String connectSpec) {
         this.connectSpec = connectSpec;
     }
@@ -146,12 +155,20 @@ public class Bot implements ConnectionStateListener {
         this.databasePassword = databasePassword;
     }
 
+    public int getDatabasePoolSize() {
+        return databasePoolSize;
+    }
+
+    public void setDatabasePoolSize(int databasePoolSize) {
+        this.databasePoolSize = databasePoolSize;
+    }
+
     private void initApplets() {
         appletsListener.registerApplet(new GroupHugApplet(), "gh", "grouphug");
         appletsListener.registerApplet(new TextsFromLastNightApplet(), "tfln", "texts");
         appletsListener.registerApplet(new CalcApplet(), "m", "math", "calc");
         appletsListener.registerApplet(new WundergroundApplet(properties, wundergroundApiKey), "w", "weather");
-        appletsListener.registerApplet(new StatsApplet(logger), "last", "bored", "tired", "search");
+        appletsListener.registerApplet(new StatsApplet(logger), "last", "bored", "tired", "search", "more");
         appletsListener.registerApplet(new BashApplet(), "bash");
         appletsListener.registerApplet(new WikiApplet(), "wiki");
         appletsListener.registerApplet(new TumblrApplet(), "tumblr");
@@ -161,42 +178,99 @@ public class Bot implements ConnectionStateListener {
         appletsListener.registerApplet(new UrbanDictionaryApplet(), "urban");
         appletsListener.registerApplet(new GoogleSuggestsApplet(), "gs");
         appletsListener.registerApplet(new StockApplet(), "stock");
+        appletsListener.registerApplet(new MetricsApplet(metrics), "stats");
     }
 
-    private Connection createConnection() throws Exception {
+    private ConnectionPool createConnectionPool() throws Exception {
         Class.forName("org.postgresql.Driver");
-        return DriverManager.getConnection("jdbc:postgresql://" + databaseHost + "/" + database, databaseUser,
-            databasePassword);
+        return new ConnectionPool("jdbc:postgresql://" + databaseHost + "/" + database, databaseUser,
+            databasePassword, databasePoolSize);
     }
 
     public void start() throws Exception {
-        client = ClientFactory.newInstance().connect(connectSpec);
+        disconnected = new CountDownLatch(1);
+
+        ClientFactory clientFactory = ClientFactory.newInstance();
+        clientFactory.setReconnectPolicy(ReconnectPolicy.DEFAULT);
+
+        client = clientFactory.connect(connectSpec);
+        client.getConnection().setRateLimit(RateLimit.RFC1459);
+        client.addReconnectListener(this);
 
-        connection = createConnection();
-        logger = new IRCLogger(connection);
-        properties = new SQLProperties(connection);
+        pool = createConnectionPool();
+        logger = new IRCLogger(pool);
+        properties = new SQLProperties(pool);
+
+        metrics = new BotMetrics();
+        metrics.setClient(client);
+        metrics.start();
 
         plusPlus = new PlusPlus(properties);
-        appletsListener = new AppletListener();
+        appletsListener = new AppletListener(metrics);
         initApplets();
 
         channel = client.join(channelName);
         channel.addListener(appletsListener);
         channel.addListener(plusPlus);
         channel.addListener(logger);
-
-        disconnected = new CountDownLatch(1);
     }
 
     private void awaitDisconnected() throws InterruptedException {
         disconnected.await();
     }
 
+    /**
+     * Stop running applets, write any log rows and properties still queued
+     * and close the database connections. Only the first call has any effect.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (stopped) {
+            return;
+        }
+
+        stopped = true;
+
+        if (appletsListener != null) {
+            appletsListener.shutdown();
+        }
+
+        if (logger != null) {
+            logger.close();
+        }
+
+        if (properties != null) {
+            properties.close();
+        }
+
+        if (pool != null) {
+            pool.close();
+        }
+
+        if (metrics != null) {
+            metrics.close();
+        }
+    }
+
     @Override
     public void onConnectionClosed() {
         disconnected.countDown();
     }
 
+    @Override
+    public void onReconnecting(int attempt, long delayMillis) {
+        log.info("connection lost, reconnect attempt {} in {} ms", attempt, delayMillis);
+    }
+
+    @Override
+    public void onReconnected() {
+        log.info("reconnected");
+    }
+
+    @Override
+    public void onReconnectAbandoned() {
+        disconnected.countDown();
+    }
+
     @Override
     public void onConnectionConnected() {
         // --
@@ -248,6 +322,10 @@ public class Bot implements ConnectionStateListener {
         bot.setDatabaseUser(config.getProperty("database.user"));
         bot.setDatabasePassword(config.getProperty("database.password"));
 
+        if (config.getProperty("database.poolSize") != null) {
+            bot.setDatabasePoolSize(Integer.parseInt(config.getProperty("database.poolSize")));
+        }
+
         try {
             bot.start();
         } catch (Exception e) {
@@ -255,8 +333,22 @@ public class Bot implements ConnectionStateListener {
             return;
         }
 
+        /* Write queued log rows and properties when killed, not just on disconnect */
+        final Bot running = bot;
+        Runtime.getRuntime().addShutdownHook(new Thread("bot-shutdown") {
+            @Override
+            public void run() {
+                try {
+                    running.stop();
+                } catch (InterruptedException e) {
+                    log.error("interrupted while stopping bot");
+                }
+            }
+        });
+
         try {
             bot.awaitDisconnected();
+            bot.stop();
         } catch (InterruptedException e) {
             log.error("main thread interrupted, exiting");
         }
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot.applets;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.brewtab.irc.User;
+import com.brewtab.irc.client.Channel;
+import com.brewtab.ircbot.metrics.BotMetrics;
+import com.brewtab.ircbot.metrics.CommandMetrics;
+
+/**
+ * Reports the bot's metrics. With no arguments the connection and the
+ * busiest commands are reported, otherwise the named commands.
+ */
+public class MetricsApplet implements BotApplet {
+    private static final int TOP_COMMANDS = 5;
+
+    private BotMetrics metrics;
+
+    public MetricsApplet(BotMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void run(Channel channel, User from, String command, String[] args, String unparsed) {
+        List<String> lines = new ArrayList<String>();
+
+        if (args.length == 0) {
+            if (metrics.getConnection() != null) {
+                lines.add(metrics.getConnection().toString());
+            }
+
+            for (CommandMetrics commandMetrics : metrics.getCommands()) {
+                if (lines.size() > TOP_COMMANDS) {
+                    break;
+                }
+
+                lines.add(commandMetrics.toString());
+            }
+        } else {
+            for (String name : args) {
+                CommandMetrics commandMetrics = metrics.findCommand(name);
+
+                if (commandMetrics == null) {
+                    lines.add(String.format("%s: never run", name));
+                } else {
+                    lines.add(commandMetrics.toString());
+                }
+            }
+        }
+
+        channel.writeMultiple(lines.toArray(new String[lines.size()]));
+    }
+}
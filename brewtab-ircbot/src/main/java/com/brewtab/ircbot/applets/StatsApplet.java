@@ -22,156 +22,113 @@
 
 package com.brewtab.ircbot.applets;
 
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.brewtab.irc.User;
 import com.brewtab.irc.client.Channel;
 import com.brewtab.irclog.IRCLogEvent;
+import com.brewtab.irclog.IRCLogPage;
 import com.brewtab.irclog.IRCLogger;
 import com.google.common.base.Joiner;
-import com.google.common.base.Throwables;
 
 public class StatsApplet implements BotApplet {
+    private static final int PAGE_SIZE = 3;
+
+    /*
+     * Matches the stored tsvector of messages, which is null for .search
+     * commands so searches do not find themselves
+     */
+    private static final String MATCHES = "message_tsv @@ to_tsquery('english', ?)";
+
+    /**
+     * The last search in a channel and how far it has been paged through
+     */
+    private static class Search {
+        final String query;
+        final IRCLogEvent last;
+
+        Search(String query, IRCLogEvent last) {
+            this.query = query;
+            this.last = last;
+        }
+    }
+
     private IRCLogger logger;
     private SimpleDateFormat dateFormat;
+    private Map<String, Search> searches = new ConcurrentHashMap<String, Search>();
 
     public StatsApplet(IRCLogger logger) {
         this.logger = logger;
         this.dateFormat = new SimpleDateFormat("dd MMM yyyy HH:mm");
     }
 
-    private int tsQueryCount(String channel, String query) {
-        String sql = "SELECT COUNT(1) FROM messages WHERE channel = ?"
-            + " AND to_tsvector('english', message) @@ to_tsquery(?) AND message NOT LIKE '.search %'";
-        PreparedStatement stmt = logger.prepareQuery(sql);
-
-        try {
-            stmt.setString(1, channel);
-            stmt.setString(2, query);
-        } catch (SQLException e) {
-            throw Throwables.propagate(e);
-        }
+    /**
+     * Get the most recent matching message and the number of matches
+     */
+    private IRCLogPage tsQueryFirst(String channel, String query) {
+        String sql = "SELECT id, msg_time, nick, message, COUNT(*) OVER () AS total FROM messages"
+            + " WHERE channel = ? AND " + MATCHES + " ORDER BY msg_time DESC, id DESC LIMIT 1";
 
-        return logger.countMessages(stmt);
+        return logger.queryMessagePage(sql, channel, query);
     }
 
     private int tsQueryCount(String channel, String nick, String query) {
         String sql = "SELECT COUNT(1) FROM messages WHERE channel = ? AND nick = ?"
-            + " AND to_tsvector('english', message) @@ to_tsquery(?) AND message NOT LIKE '.search %'";
-        PreparedStatement stmt = logger.prepareQuery(sql);
-
-        try {
-            stmt.setString(1, channel);
-            stmt.setString(2, nick);
-            stmt.setString(3, query);
-        } catch (SQLException e) {
-            throw Throwables.propagate(e);
-        }
+            + " AND " + MATCHES;
 
-        return logger.countMessages(stmt);
+        return logger.countMessages(sql, channel, nick, query);
     }
 
-    private List<IRCLogEvent> tsQuery(String channel, String query) {
-        String sql = "SELECT * FROM messages WHERE channel = ?"
-            + " AND to_tsvector('english', message) @@ to_tsquery(?) AND message NOT LIKE '.search %'";
-        PreparedStatement stmt = logger.prepareQuery(sql);
+    /**
+     * Get a page of matching messages, newest first, older than the given
+     * message. Pages are found by their position in the index on (msg_time,
+     * id) rather than an offset, so later pages are no slower than the first.
+     */
+    private List<IRCLogEvent> tsQueryPage(String channel, String query, IRCLogEvent before, int limit) {
+        String sql = "SELECT id, msg_time, nick, message FROM messages WHERE channel = ?"
+            + " AND " + MATCHES;
 
-        try {
-            stmt.setString(1, channel);
-            stmt.setString(2, query);
-        } catch (SQLException e) {
-            throw Throwables.propagate(e);
-        }
+        if (before == null) {
+            sql += " ORDER BY msg_time DESC, id DESC LIMIT ?";
 
-        return logger.queryMessages(stmt);
-    }
-
-    private List<IRCLogEvent> tsQuery(String channel, String nick, String query) {
-        String sql = "SELECT * FROM messages WHERE channel = ? AND nick = ?"
-            + " AND to_tsvector('english', message) @@ to_tsquery(?) AND message NOT LIKE '.search %'";
-        PreparedStatement stmt = logger.prepareQuery(sql);
-
-        try {
-            stmt.setString(1, channel);
-            stmt.setString(2, nick);
-            stmt.setString(3, query);
-        } catch (SQLException e) {
-            throw Throwables.propagate(e);
-        }
-
-        return logger.queryMessages(stmt);
-    }
-
-    private IRCLogEvent tsQueryLast(String channel, String query) {
-        String sql = "SELECT * FROM messages WHERE channel = ?"
-            + " AND to_tsvector('english', message) @@ to_tsquery(?) AND message NOT LIKE '.search %' ORDER BY msg_time DESC LIMIT 1";
-        PreparedStatement stmt = logger.prepareQuery(sql);
+            return logger.queryMessages(sql, channel, query, limit);
+        } else {
+            sql += " AND (msg_time, id) < (?, ?) ORDER BY msg_time DESC, id DESC LIMIT ?";
 
-        try {
-            stmt.setString(1, channel);
-            stmt.setString(2, query);
-        } catch (SQLException e) {
-            throw Throwables.propagate(e);
+            return logger.queryMessages(sql, channel, query, before.getDate(), before.getId(), limit);
         }
-
-        return logger.queryMessage(stmt);
     }
 
     private IRCLogEvent tsQueryLast(String channel, String nick, String query) {
         String sql = "SELECT * FROM messages WHERE channel = ? AND nick = ?"
-            + " AND to_tsvector('english', message) @@ to_tsquery(?) AND message NOT LIKE '.search %' ORDER BY msg_time DESC LIMIT 1";
-        PreparedStatement stmt = logger.prepareQuery(sql);
-
-        try {
-            stmt.setString(1, channel);
-            stmt.setString(2, nick);
-            stmt.setString(3, query);
-        } catch (SQLException e) {
-            throw Throwables.propagate(e);
-        }
+            + " AND " + MATCHES + " ORDER BY msg_time DESC LIMIT 1";
 
-        return logger.queryMessage(stmt);
+        return logger.queryMessage(sql, channel, nick, query);
     }
 
-    private PreparedStatement lastEventStmt(String channel, String nick) {
+    private IRCLogEvent lastEvent(String channel, String nick) {
         String sql = "SELECT * FROM events WHERE extra = ? AND nick = ? ORDER BY event_time DESC LIMIT 1";
-        PreparedStatement stmt = logger.prepareQuery(sql);
-
-        try {
-            stmt.setString(1, channel);
-            stmt.setString(2, nick);
-        } catch (SQLException e) {
-            throw Throwables.propagate(e);
-        }
 
-        return stmt;
+        return logger.queryEvent(sql, channel, nick);
     }
 
-    private PreparedStatement lastMessageStmt(String channel, String nick) {
+    private IRCLogEvent lastMessage(String channel, String nick) {
         String sql = "SELECT * FROM messages WHERE channel = ? AND nick = ? ORDER BY msg_time DESC LIMIT 1";
-        PreparedStatement stmt = logger.prepareQuery(sql);
 
-        try {
-            stmt.setString(1, channel);
-            stmt.setString(2, nick);
-        } catch (SQLException e) {
-            throw Throwables.propagate(e);
-        }
-
-        return stmt;
+        return logger.queryMessage(sql, channel, nick);
     }
 
     private void last(Channel channel, String nick) {
-        IRCLogEvent event = logger.queryMessage(lastMessageStmt(channel.getName(), nick));
+        IRCLogEvent event = lastMessage(channel.getName(), nick);
 
         if (event == null) {
-            logger.queryEvent(lastEventStmt(channel.getName(), nick));
+            event = lastEvent(channel.getName(), nick);
         }
 
         if (event == null) {
@@ -196,18 +153,9 @@ public class StatsApplet implements BotApplet {
         int count = 0;
 
         String sql = "SELECT COUNT(1) FROM messages WHERE channel = ? AND nick = ? AND message LIKE ?";
-        PreparedStatement stmt = logger.prepareQuery(sql);
-
-        try {
-            stmt.setString(1, channel.getName());
-            stmt.setString(2, nick);
 
-            for (String cmd : boredCommands) {
-                stmt.setString(3, cmd + "%");
-                count += logger.countMessages(stmt);
-            }
-        } catch (SQLException e) {
-            throw Throwables.propagate(e);
+        for (String cmd : boredCommands) {
+            count += logger.countMessages(sql, channel.getName(), nick, cmd + "%");
         }
 
         channel.write(String.format("%s is %d many bored", nick, count));
@@ -215,34 +163,55 @@ public class StatsApplet implements BotApplet {
 
     private void tired(Channel channel, String nick) {
         String sql = "SELECT COUNT(1) FROM messages WHERE channel = ? AND nick = ? AND message LIKE '%*yawn*%'";
-        PreparedStatement stmt = logger.prepareQuery(sql);
-
-        try {
-            stmt.setString(1, channel.getName());
-            stmt.setString(2, nick);
-        } catch (SQLException e) {
-            throw Throwables.propagate(e);
-        }
-
-        int count = logger.countMessages(stmt);
+        int count = logger.countMessages(sql, channel.getName(), nick);
         channel.write(String.format("%s is %d many tired", nick, count));
     }
 
     private void query(Channel channel, String query) {
-        int count = tsQueryCount(channel.getName(), query);
+        IRCLogPage page = tsQueryFirst(channel.getName(), query);
+        int count = page.getTotal();
 
         if (count == 0) {
+            searches.remove(channel.getName());
             channel.write("No messages found");
         } else {
-            IRCLogEvent msg = tsQueryLast(channel.getName(), query);
+            IRCLogEvent msg = page.getEvents().get(0);
+            searches.put(channel.getName(), new Search(query, msg));
 
             channel.writeMultiple(
-                String.format("%d %s found. Most recent on %s.", count, count > 1 ? "results" : "result", dateFormat.format(msg.getDate())),
+                String.format("%d %s found. Most recent on %s.%s", count, count > 1 ? "results" : "result", dateFormat.format(msg.getDate()),
+                    count > 1 ? " Use .more for older results." : ""),
                 String.format("<%s> %s", msg.getNick(), msg.getData())
                 );
         }
     }
 
+    private void more(Channel channel) {
+        Search search = searches.get(channel.getName());
+
+        if (search == null) {
+            channel.write("Nothing to page through, use .search first");
+            return;
+        }
+
+        List<IRCLogEvent> page = tsQueryPage(channel.getName(), search.query, search.last, PAGE_SIZE);
+
+        if (page.isEmpty()) {
+            searches.remove(channel.getName());
+            channel.write("No more results");
+            return;
+        }
+
+        List<String> lines = new ArrayList<String>(page.size());
+
+        for (IRCLogEvent msg : page) {
+            lines.add(String.format("[%s] <%s> %s", dateFormat.format(msg.getDate()), msg.getNick(), msg.getData()));
+        }
+
+        searches.put(channel.getName(), new Search(search.query, page.get(page.size() - 1)));
+        channel.writeMultiple(lines.toArray(new String[lines.size()]));
+    }
+
     @Override
     public void run(Channel channel, User from, String command, String[] args, String unparsed) {
         if (command.equals("last") && args.length > 0) {
@@ -276,6 +245,8 @@ public class StatsApplet implements BotApplet {
             String query = Joiner.on(" & ").join(words);
 
             query(channel, query);
+        } else if (command.equals("more")) {
+            more(channel);
         }
     }
 }
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.brewtab.irc.client.Client;
+
+/**
+ * The metrics of a bot. Once started, rates are sampled in the background and
+ * every metric is registered as an MBean under the
+ * {@value #JMX_DOMAIN} domain of the platform MBean server.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public class BotMetrics {
+    private static final Logger log = LoggerFactory.getLogger(BotMetrics.class);
+
+    public static final String JMX_DOMAIN = "com.brewtab.ircbot";
+
+    private final ConcurrentMap<String, CommandMetrics> commands = new ConcurrentHashMap<String, CommandMetrics>();
+    private volatile ConnectionMetrics connection;
+
+    private final List<ObjectName> registered = new CopyOnWriteArrayList<ObjectName>();
+    private volatile MBeanServer server;
+    private ScheduledExecutorService ticker;
+
+    /**
+     * Get the metrics of a command, creating them on first use
+     * 
+     * @param command the command
+     * @return the command's metrics
+     */
+    public CommandMetrics getCommand(String command) {
+        CommandMetrics metrics = commands.get(command);
+
+        if (metrics == null) {
+            CommandMetrics created = new CommandMetrics(command);
+            metrics = commands.putIfAbsent(command, created);
+
+            if (metrics == null) {
+                metrics = created;
+                register(created, "type=Command,name=" + ObjectName.quote(command));
+            }
+        }
+
+        return metrics;
+    }
+
+    /**
+     * @param command the command
+     * @return the command's metrics or null if it has not been used
+     */
+    public CommandMetrics findCommand(String command) {
+        return commands.get(command);
+    }
+
+    /**
+     * @return the metrics of every command used so far, busiest first
+     */
+    public List<CommandMetrics> getCommands() {
+        List<CommandMetrics> snapshot = new ArrayList<CommandMetrics>(commands.values());
+
+        Collections.sort(snapshot, new Comparator<CommandMetrics>() {
+            @Override
+            public int compare(CommandMetrics a, CommandMetrics b) {
+                long x = a.getCallCount();
+                long y = b.getCallCount();
+
+                return x > y ? -1 : (x < y ? 1 : a.getCommand().compareTo(b.getCommand()));
+            }
+        });
+
+        return snapshot;
+    }
+
+    /**
+     * Track the connection of a client
+     * 
+     * @param client the client
+     */
+    public void setClient(Client client) {
+        ConnectionMetrics metrics = new ConnectionMetrics(client);
+
+        connection = metrics;
+        register(metrics, "type=Connection");
+    }
+
+    /**
+     * @return the connection's metrics or null if no client is tracked
+     */
+    public ConnectionMetrics getConnection() {
+        return connection;
+    }
+
+    /**
+     * Register metrics with the platform MBean server and start sampling
+     * rates
+     */
+    public synchronized void start() {
+        if (ticker != null) {
+            return;
+        }
+
+        server = ManagementFactory.getPlatformMBeanServer();
+
+        if (connection != null) {
+            register(connection, "type=Connection");
+        }
+
+        for (CommandMetrics metrics : commands.values()) {
+            register(metrics, "type=Command,name=" + ObjectName.quote(metrics.getCommand()));
+        }
+
+        ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "metrics-ticker");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        ticker.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, Meter.TICK_SECONDS, Meter.TICK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void tick() {
+        try {
+            for (CommandMetrics metrics : commands.values()) {
+                metrics.tick();
+            }
+
+            if (connection != null) {
+                connection.tick();
+            }
+        } catch (RuntimeException e) {
+            log.warn("failed to sample metrics", e);
+        }
+    }
+
+    private void register(Object mbean, String properties) {
+        MBeanServer mbeanServer = server;
+
+        if (mbeanServer == null) {
+            return;
+        }
+
+        try {
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":" + properties);
+
+            if (mbeanServer.isRegistered(name)) {
+                mbeanServer.unregisterMBean(name);
+            }
+
+            mbeanServer.registerMBean(mbean, name);
+            registered.add(name);
+        } catch (JMException e) {
+            log.warn("failed to register MBean " + properties, e);
+        }
+    }
+
+    /**
+     * Stop sampling rates and unregister every MBean
+     */
+    public synchronized void close() {
+        if (ticker == null) {
+            return;
+        }
+
+        ticker.shutdownNow();
+        ticker = null;
+
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                log.debug("failed to unregister MBean {}", name);
+            }
+        }
+
+        registered.clear();
+        server = null;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Call counts, latencies and failures of a single command
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public class CommandMetrics implements CommandMetricsMBean {
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final String command;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /* In microseconds */
+    private final Histogram latency = new Histogram();
+    private final Meter callRate = new Meter();
+
+    public CommandMetrics(String command) {
+        this.command = command;
+    }
+
+    /**
+     * Record the start of an invocation
+     */
+    public void started() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Record the end of an invocation
+     * 
+     * @param elapsedNanos how long the invocation ran
+     * @param failed true if the invocation threw an exception
+     */
+    public void finished(long elapsedNanos, boolean failed) {
+        inFlight.decrementAndGet();
+        calls.incrementAndGet();
+        latency.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+
+        if (failed) {
+            errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Record an invocation cancelled for running too long
+     */
+    public void timedOut() {
+        timeouts.incrementAndGet();
+    }
+
+    /**
+     * Record an invocation refused because the command was busy
+     */
+    public void rejected() {
+        rejected.incrementAndGet();
+    }
+
+    void tick() {
+        callRate.tick(calls.get());
+    }
+
+    @Override
+    public String getCommand() {
+        return command;
+    }
+
+    @Override
+    public long getCallCount() {
+        return calls.get();
+    }
+
+    @Override
+    public double getCallRate() {
+        return callRate.getRate();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public double getMeanLatencyMillis() {
+        return latency.getMean() / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getLatency50thMillis() {
+        return latency.getValueAtPercentile(50) / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getLatency95thMillis() {
+        return latency.getValueAtPercentile(95) / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getLatency99thMillis() {
+        return latency.getValueAtPercentile(99) / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getMaxLatencyMillis() {
+        return latency.getMax() / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d calls, %d errors, %d timeouts, %d busy, %d running,"
+            + " p50 %.0f ms, p99 %.0f ms, max %.0f ms", command, getCallCount(), getErrorCount(),
+            getTimeoutCount(), getRejectedCount(), getInFlight(), getLatency50thMillis(),
+            getLatency99thMillis(), getMaxLatencyMillis());
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot.metrics;
+
+/**
+ * JMX view of the metrics of a command
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public interface CommandMetricsMBean {
+    public String getCommand();
+
+    public long getCallCount();
+
+    public double getCallRate();
+
+    public long getErrorCount();
+
+    public long getTimeoutCount();
+
+    public long getRejectedCount();
+
+    public int getInFlight();
+
+    public double getMeanLatencyMillis();
+
+    public double getLatency50thMillis();
+
+    public double getLatency95thMillis();
+
+    public double getLatency99thMillis();
+
+    public double getMaxLatencyMillis();
+}
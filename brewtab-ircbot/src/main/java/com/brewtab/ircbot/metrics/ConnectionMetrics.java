@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot.metrics;
+
+import com.brewtab.irc.InboundStats;
+import com.brewtab.irc.OutboundStats;
+import com.brewtab.irc.client.Client;
+
+/**
+ * Message rates and queue depths of a client's connection. The connection is
+ * looked up on every read, so the metrics follow it across reconnects.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public class ConnectionMetrics implements ConnectionMetricsMBean {
+    private final Client client;
+
+    private final Meter receivedRate = new Meter();
+    private final Meter sentRate = new Meter();
+
+    public ConnectionMetrics(Client client) {
+        this.client = client;
+    }
+
+    private InboundStats inbound() {
+        return client.getConnection().getInboundStats();
+    }
+
+    private OutboundStats outbound() {
+        return client.getConnection().getOutboundStats();
+    }
+
+    void tick() {
+        receivedRate.tick(inbound().getReceivedCount());
+        sentRate.tick(outbound().getSentCount());
+    }
+
+    @Override
+    public long getReceivedCount() {
+        return inbound().getReceivedCount();
+    }
+
+    @Override
+    public double getReceivedRate() {
+        return receivedRate.getRate();
+    }
+
+    @Override
+    public long getSentCount() {
+        return outbound().getSentCount();
+    }
+
+    @Override
+    public double getSentRate() {
+        return sentRate.getRate();
+    }
+
+    @Override
+    public int getDispatchQueueDepth() {
+        return inbound().getDispatchQueueDepth();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return inbound().getDroppedCount();
+    }
+
+    @Override
+    public int getOutboundQueueDepth() {
+        return outbound().getQueueDepth();
+    }
+
+    @Override
+    public long getMaxOutboundDelayMillis() {
+        return outbound().getMaxDelayMillis();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("connection: in %.1f/s (%d), out %.1f/s (%d), dispatch queue %d, dropped %d,"
+            + " outbound queue %d", getReceivedRate(), getReceivedCount(), getSentRate(), getSentCount(),
+            getDispatchQueueDepth(), getDroppedCount(), getOutboundQueueDepth());
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot.metrics;
+
+/**
+ * An exponentially weighted moving average of the rate of a count, over
+ * about a minute. The count is sampled by calling {@link #tick(long)} every
+ * {@value #TICK_SECONDS} seconds.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public class Meter {
+    public static final int TICK_SECONDS = 5;
+
+    private static final double ALPHA = 1 - Math.exp(-TICK_SECONDS / 60.0);
+
+    /* Guarded by this */
+    private long lastCount = -1;
+    private double rate = 0.0;
+    private boolean initialized = false;
+
+    /**
+     * Sample the count
+     * 
+     * @param count the current count. A count lower than the last, e.g.
+     *            after a reconnect, is treated as counting from zero.
+     */
+    public synchronized void tick(long count) {
+        if (lastCount < 0) {
+            lastCount = count;
+            return;
+        }
+
+        long delta = count >= lastCount ? count - lastCount : count;
+        double instantRate = (double) delta / TICK_SECONDS;
+
+        lastCount = count;
+
+        if (initialized) {
+            rate += ALPHA * (instantRate - rate);
+        } else {
+            rate = instantRate;
+            initialized = true;
+        }
+    }
+
+    /**
+     * @return the average rate per second
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+}
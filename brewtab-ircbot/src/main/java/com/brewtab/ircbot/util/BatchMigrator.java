@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot.util;
+
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sampullara.cli.Args;
+import com.sampullara.cli.Argument;
+
+/**
+ * Base class of migrations which rewrite a table a batch at a time, pausing
+ * between batches so they may run while the bot is using the database.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public abstract class BatchMigrator implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(BatchMigrator.class);
+
+    public static final long DEFAULT_PAUSE_MILLIS = 100;
+
+    /**
+     * Creates a migrator for {@link BatchMigrator#main(String[], Factory)}
+     */
+    protected interface Factory {
+        public BatchMigrator create(ConnectionPool pool);
+    }
+
+    /**
+     * Command line arguments
+     */
+    private static class Options {
+        @Argument(required = true, description = "JDBC URL of the database")
+        private String url;
+
+        @Argument(description = "Database user")
+        private String user;
+
+        @Argument(description = "Database password")
+        private String password;
+
+        @Argument(description = "Rows processed at a time")
+        private Integer batchSize;
+
+        @Argument(description = "Milliseconds to pause between batches")
+        private Long pauseMillis;
+    }
+
+    protected final ConnectionPool pool;
+
+    /* Name used in log messages */
+    private final String name;
+
+    private int batchSize;
+    private long pauseMillis = DEFAULT_PAUSE_MILLIS;
+
+    /**
+     * @param pool the database
+     * @param name the name of the migration, for log messages
+     * @param batchSize the default number of rows processed at a time
+     */
+    protected BatchMigrator(ConnectionPool pool, String name, int batchSize) {
+        this.pool = pool;
+        this.name = name;
+        this.batchSize = batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setPauseMillis(long pauseMillis) {
+        this.pauseMillis = pauseMillis;
+    }
+
+    /**
+     * @return the number of rows migrated so far
+     */
+    public abstract int getMigratedCount();
+
+    /**
+     * Called before the first batch
+     */
+    protected void prepare() throws SQLException {
+        // -
+    }
+
+    /**
+     * Migrate the next batch
+     * 
+     * @return false once there are no rows left
+     */
+    protected abstract boolean migrateBatch() throws SQLException;
+
+    /**
+     * Called after the last batch
+     */
+    protected void complete() throws SQLException {
+        // -
+    }
+
+    /**
+     * Migrate every row, logging rather than throwing failures
+     */
+    @Override
+    public void run() {
+        try {
+            migrate();
+        } catch (SQLException e) {
+            log.error(name + " failed after " + getMigratedCount() + " rows", e);
+        } catch (InterruptedException e) {
+            log.warn("{} interrupted after {} rows", name, getMigratedCount());
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Migrate every row
+     * 
+     * @throws SQLException if a step fails
+     * @throws InterruptedException if interrupted while pausing between
+     *             batches
+     */
+    public void migrate() throws SQLException, InterruptedException {
+        prepare();
+
+        while (migrateBatch()) {
+            Thread.sleep(pauseMillis);
+        }
+
+        complete();
+    }
+
+    /**
+     * Run a migration from the command line against a PostgreSQL database
+     */
+    protected static void main(String[] args, Factory factory) throws Exception {
+        Options options = new Options();
+
+        try {
+            Args.parse(options, args);
+        } catch (IllegalArgumentException e) {
+            Args.usage(options);
+            System.exit(-1);
+            return;
+        }
+
+        Class.forName("org.postgresql.Driver");
+        ConnectionPool pool = new ConnectionPool(options.url, options.user, options.password, 1);
+
+        try {
+            BatchMigrator migrator = factory.create(pool);
+
+            if (options.batchSize != null) {
+                migrator.setBatchSize(options.batchSize);
+            }
+
+            if (options.pauseMillis != null) {
+                migrator.setPauseMillis(options.pauseMillis);
+            }
+
+            migrator.migrate();
+        } finally {
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps command names to values with a prefix trie. Names are looked up
+ * directly in a region of a larger string, without copying it. Resolved
+ * names may also be abbreviated to any unambiguous prefix of at least
+ * {@link #getMinAbbreviation()} characters.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public class CommandTrie<V> {
+    public static final int DEFAULT_MIN_ABBREVIATION = 2;
+
+    /**
+     * A command name and its value
+     */
+    public static final class Entry<V> {
+        private final String name;
+        private final V value;
+
+        Entry(String name, V value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public V getValue() {
+            return value;
+        }
+    }
+
+    private static final class Node<V> {
+        /* Sorted, children[i] follows keys[i] */
+        char[] keys = new char[0];
+        Node<V>[] children = newArray(0);
+
+        Entry<V> entry;
+
+        /* Number of entries at or below this node */
+        int size;
+
+        Node<V> child(char c) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+
+            return null;
+        }
+
+        Node<V> addChild(char c) {
+            int i = 0;
+
+            while (i < keys.length && keys[i] < c) {
+                i++;
+            }
+
+            Node<V> child = new Node<V>();
+            char[] newKeys = new char[keys.length + 1];
+            Node<V>[] newChildren = newArray(children.length + 1);
+
+            System.arraycopy(keys, 0, newKeys, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            newKeys[i] = c;
+            newChildren[i] = child;
+            System.arraycopy(keys, i, newKeys, i + 1, keys.length - i);
+            System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+
+            keys = newKeys;
+            children = newChildren;
+
+            return child;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <V> Node<V>[] newArray(int length) {
+            return new Node[length];
+        }
+    }
+
+    private final Node<V> root = new Node<V>();
+    private int minAbbreviation = DEFAULT_MIN_ABBREVIATION;
+
+    /**
+     * @param minAbbreviation the shortest prefix accepted as an abbreviation
+     */
+    public void setMinAbbreviation(int minAbbreviation) {
+        this.minAbbreviation = minAbbreviation;
+    }
+
+    public int getMinAbbreviation() {
+        return minAbbreviation;
+    }
+
+    /**
+     * Map a name to a value, replacing any existing value
+     * 
+     * @param name the name, which must not be empty
+     * @param value the value
+     */
+    public void put(String name, V value) {
+        if (name.length() == 0) {
+            throw new IllegalArgumentException("name must not be empty");
+        }
+
+        Node<V> existing = find(name, 0, name.length());
+        boolean added = existing == null || existing.entry == null;
+        Node<V> node = root;
+
+        if (added) {
+            root.size++;
+        }
+
+        for (int i = 0; i < name.length(); i++) {
+            Node<V> child = node.child(name.charAt(i));
+
+            if (child == null) {
+                child = node.addChild(name.charAt(i));
+            }
+
+            node = child;
+
+            if (added) {
+                node.size++;
+            }
+        }
+
+        node.entry = new Entry<V>(name, value);
+    }
+
+    private Node<V> find(CharSequence s, int start, int end) {
+        Node<V> node = root;
+
+        for (int i = start; i < end && node != null; i++) {
+            node = node.child(s.charAt(i));
+        }
+
+        return node;
+    }
+
+    /**
+     * @param name a name
+     * @return the value of exactly the name or null
+     */
+    public V get(String name) {
+        Node<V> node = find(name, 0, name.length());
+
+        return node == null || node.entry == null ? null : node.entry.value;
+    }
+
+    /**
+     * Look up a region of a string as exactly a name
+     * 
+     * @param s the string
+     * @param start the start of the region
+     * @param end the end of the region, exclusive
+     * @return the matching entry or null if there is no match
+     */
+    public Entry<V> lookup(CharSequence s, int start, int end) {
+        if (start >= end) {
+            return null;
+        }
+
+        Node<V> node = find(s, start, end);
+
+        return node == null ? null : node.entry;
+    }
+
+    /**
+     * Look up a region of a string as a name or an unambiguous abbreviation
+     * of one
+     * 
+     * @param s the string
+     * @param start the start of the region
+     * @param end the end of the region, exclusive
+     * @return the matching entry or null if there is no match or the
+     *         abbreviation is ambiguous
+     */
+    public Entry<V> resolve(CharSequence s, int start, int end) {
+        if (start >= end) {
+            return null;
+        }
+
+        Node<V> node = find(s, start, end);
+
+        if (node == null) {
+            return null;
+        }
+
+        if (node.entry != null) {
+            return node.entry;
+        }
+
+        if (node.size != 1 || end - start < minAbbreviation) {
+            return null;
+        }
+
+        /* A single entry below, so a single path leads to it */
+        while (node.entry == null) {
+            node = node.children[0];
+        }
+
+        return node.entry;
+    }
+
+    /**
+     * @return the number of names
+     */
+    public int size() {
+        return root.size;
+    }
+
+    /**
+     * @return every name, in order
+     */
+    public List<String> names() {
+        List<String> names = new ArrayList<String>(root.size);
+        collect(root, names);
+
+        return names;
+    }
+
+    private static <V> void collect(Node<V> node, List<String> names) {
+        if (node.entry != null) {
+            names.add(node.entry.name);
+        }
+
+        for (Node<V> child : node.children) {
+            collect(child, names);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Encodes values in a compact tagged binary format. Booleans, integers,
+ * longs, doubles, strings and maps of these are supported; a long score
+ * takes two or three bytes rather than the eighty or so of Java
+ * serialization. Other values fall back to Java serialization, and values
+ * written by Java serialization, e.g. by older versions, are read
+ * transparently.
+ * <p>
+ * Each value is a tag byte followed by its payload. Integers and longs are
+ * zig-zag encoded variable length integers, strings and maps are prefixed
+ * with their length as a variable length integer, and doubles are eight
+ * bytes. No tag collides with the first byte of a Java serialization stream.
+ * Maps are decoded as {@link LinkedHashMap}s.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public class CompactCodec implements ValueCodec {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int NULL = 0x01;
+    private static final int TRUE = 0x02;
+    private static final int FALSE = 0x03;
+    private static final int INTEGER = 0x04;
+    private static final int LONG = 0x05;
+    private static final int DOUBLE = 0x06;
+    private static final int STRING = 0x07;
+    private static final int MAP = 0x08;
+
+    private final SerializationCodec fallback = new SerializationCodec();
+
+    @Override
+    public byte[] encode(Serializable value) {
+        if (!isCompact(value)) {
+            return fallback.encode(value);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, value);
+
+        return out.toByteArray();
+    }
+
+    @Override
+    public Serializable decode(byte[] bytes) {
+        if (SerializationCodec.isSerialized(bytes)) {
+            return fallback.decode(bytes);
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+
+        try {
+            Object value = read(in);
+
+            if (in.hasRemaining()) {
+                throw new IllegalArgumentException("Trailing bytes after value");
+            }
+
+            return (Serializable) value;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated value", e);
+        }
+    }
+
+    /**
+     * @param value a value
+     * @return true if the value is written in the compact format
+     */
+    public static boolean isCompact(Object value) {
+        if (value == null || value instanceof Boolean || value instanceof Integer || value instanceof Long
+            || value instanceof Double || value instanceof String) {
+            return true;
+        }
+
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!isCompact(entry.getKey()) || !isCompact(entry.getValue())) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    private static void write(ByteArrayOutputStream out, Object value) {
+        if (value == null) {
+            out.write(NULL);
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Integer) {
+            out.write(INTEGER);
+            writeVarLong(out, zigZag((Integer) value));
+        } else if (value instanceof Long) {
+            out.write(LONG);
+            writeVarLong(out, zigZag((Long) value));
+        } else if (value instanceof Double) {
+            long bits = Double.doubleToLongBits((Double) value);
+
+            out.write(DOUBLE);
+
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (bits >>> shift));
+            }
+        } else if (value instanceof String) {
+            byte[] bytes = ((String) value).getBytes(UTF8);
+
+            out.write(STRING);
+            writeVarLong(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+
+            out.write(MAP);
+            writeVarLong(out, map.size());
+
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                write(out, entry.getKey());
+                write(out, entry.getValue());
+            }
+        } else {
+            throw new IllegalArgumentException("Not a compact value: " + value.getClass());
+        }
+    }
+
+    private static Object read(ByteBuffer in) {
+        int tag = in.get() & 0xff;
+
+        switch (tag) {
+        case NULL:
+            return null;
+
+        case TRUE:
+            return Boolean.TRUE;
+
+        case FALSE:
+            return Boolean.FALSE;
+
+        case INTEGER:
+            return (int) unZigZag(readVarLong(in));
+
+        case LONG:
+            return unZigZag(readVarLong(in));
+
+        case DOUBLE:
+            return Double.longBitsToDouble(in.getLong());
+
+        case STRING: {
+            byte[] bytes = new byte[readLength(in)];
+            in.get(bytes);
+
+            return new String(bytes, UTF8);
+        }
+
+        case MAP: {
+            int size = readLength(in);
+            Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+
+            for (int i = 0; i < size; i++) {
+                Object key = read(in);
+                map.put(key, read(in));
+            }
+
+            return map;
+        }
+
+        default:
+            throw new IllegalArgumentException("Unknown value tag " + tag);
+        }
+    }
+
+    private static long zigZag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static long unZigZag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long n) {
+        while ((n & ~0x7fL) != 0) {
+            out.write((int) ((n & 0x7f) | 0x80));
+            n >>>= 7;
+        }
+
+        out.write((int) n);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long n = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            n |= (long) (b & 0x7f) << shift;
+
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+        }
+
+        throw new IllegalArgumentException("Variable length integer too long");
+    }
+
+    private static int readLength(ByteBuffer in) {
+        long length = readVarLong(in);
+
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Invalid length " + length);
+        }
+
+        return (int) length;
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot.util;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small pool of database connections. Connections are opened as they are
+ * needed, up to a maximum, and kept open once released. Each connection keeps
+ * a cache of its prepared statements.
+ * 
+ * <pre>
+ * int count = pool.execute(new SQLCallback&lt;Integer&gt;() {
+ *     public Integer run(PooledConnection connection) throws SQLException {
+ *         PreparedStatement statement = connection.prepare(sql);
+ *         ...
+ *     }
+ * });
+ * </pre>
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public class ConnectionPool {
+    private static final Logger log = LoggerFactory.getLogger(ConnectionPool.class);
+
+    public static final int DEFAULT_MAX_SIZE = 4;
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+    public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 30000;
+
+    /* SQLState class of connection exceptions */
+    private static final String CONNECTION_EXCEPTION_CLASS = "08";
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+
+    private volatile int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+    private volatile long borrowTimeoutMillis = DEFAULT_BORROW_TIMEOUT_MILLIS;
+
+    /* Guarded by this */
+    private final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+    private int open = 0;
+    private boolean closed = false;
+
+    /**
+     * @param url the JDBC URL of the database
+     * @param user the database user
+     * @param password the database user's password
+     * @param maxSize the largest number of connections opened at once
+     */
+    public ConnectionPool(String url, String user, String password, int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+    }
+
+    public ConnectionPool(String url, String user, String password) {
+        this(url, user, password, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param size the number of statements cached by each connection opened
+     *            from now on
+     */
+    public void setStatementCacheSize(int size) {
+        this.statementCacheSize = size;
+    }
+
+    /**
+     * @param timeout the longest {@link #borrow()} waits for a connection to
+     *            be released
+     * @param unit the unit of the timeout
+     */
+    public void setBorrowTimeout(long timeout, TimeUnit unit) {
+        this.borrowTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * @return the number of connections currently open
+     */
+    public synchronized int getOpenCount() {
+        return open;
+    }
+
+    /**
+     * @return the number of open connections not currently borrowed
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Borrow a connection, opening a new one if none are idle and the pool is
+     * not full. The connection must be given back with
+     * {@link #release(PooledConnection)}.
+     * 
+     * @return the connection
+     * @throws SQLException if a connection cannot be opened, the pool is
+     *             closed, or none was released before the borrow timeout
+     */
+    public PooledConnection borrow() throws SQLException {
+        long deadline = System.currentTimeMillis() + borrowTimeoutMillis;
+
+        synchronized (this) {
+            while (true) {
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+
+                PooledConnection connection = idle.poll();
+
+                if (connection != null) {
+                    if (!connection.isClosed()) {
+                        return connection;
+                    }
+
+                    open--;
+                    connection.close();
+                    continue;
+                }
+
+                if (open < maxSize) {
+                    open++;
+                    break;
+                }
+
+                long remaining = deadline - System.currentTimeMillis();
+
+                if (remaining <= 0) {
+                    throw new SQLException("Timed out waiting for a database connection");
+                }
+
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted waiting for a database connection");
+                }
+            }
+        }
+
+        /* Open outside the lock so other threads may release meanwhile */
+        try {
+            Connection connection = DriverManager.getConnection(url, user, password);
+            log.debug("opened database connection to {}", url);
+
+            return new PooledConnection(connection, statementCacheSize);
+        } catch (SQLException e) {
+            connectionClosed();
+            throw e;
+        } catch (RuntimeException e) {
+            connectionClosed();
+            throw e;
+        }
+    }
+
+    /**
+     * Give back a borrowed connection
+     * 
+     * @param connection the connection
+     */
+    public void release(PooledConnection connection) {
+        synchronized (this) {
+            if (!closed && !connection.isClosed()) {
+                idle.addFirst(connection);
+                notify();
+                return;
+            }
+        }
+
+        discard(connection);
+    }
+
+    /**
+     * Give back a borrowed connection which is no longer usable. It is closed
+     * and a new connection may be opened in its place.
+     * 
+     * @param connection the connection
+     */
+    public void discard(PooledConnection connection) {
+        connection.close();
+        connectionClosed();
+    }
+
+    private synchronized void connectionClosed() {
+        open--;
+        notify();
+    }
+
+    /**
+     * Run the callback with a borrowed connection, releasing it afterwards.
+     * The connection is discarded if the callback fails because it was lost.
+     * 
+     * @param callback the work to do
+     * @return the result of the callback
+     * @throws SQLException if a connection cannot be borrowed or the callback
+     *             fails
+     */
+    public <T> T execute(SQLCallback<T> callback) throws SQLException {
+        PooledConnection connection = borrow();
+
+        try {
+            T result = callback.run(connection);
+            release(connection);
+
+            return result;
+        } catch (SQLException e) {
+            if (isConnectionLost(e) || connection.isClosed()) {
+                log.warn("discarding lost database connection", e);
+                discard(connection);
+            } else {
+                release(connection);
+            }
+
+            throw e;
+        } catch (RuntimeException e) {
+            release(connection);
+            throw e;
+        } catch (Error e) {
+            discard(connection);
+            throw e;
+        }
+    }
+
+    private static boolean isConnectionLost(SQLException e) {
+        String state = e.getSQLState();
+
+        return state != null && state.startsWith(CONNECTION_EXCEPTION_CLASS);
+    }
+
+    /**
+     * Close every idle connection. Connections still borrowed are closed when
+     * released.
+     */
+    public void close() {
+        LinkedList<PooledConnection> closing;
+
+        synchronized (this) {
+            closed = true;
+            closing = new LinkedList<PooledConnection>(idle);
+            open -= idle.size();
+            idle.clear();
+            notifyAll();
+        }
+
+        for (PooledConnection connection : closing) {
+            connection.close();
+        }
+    }
+}
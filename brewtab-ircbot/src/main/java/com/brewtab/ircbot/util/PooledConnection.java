@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A connection owned by a {@link ConnectionPool} along with the statements
+ * prepared on it. Statements are cached by their SQL, so repeated queries
+ * reuse one server-side statement instead of preparing a new one each time.
+ * Only one thread uses a pooled connection at a time.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public class PooledConnection {
+    private final Connection connection;
+    private final int statementCacheSize;
+
+    /* Least recently used first */
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    PooledConnection(Connection connection, int statementCacheSize) {
+        this.connection = connection;
+        this.statementCacheSize = statementCacheSize;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > PooledConnection.this.statementCacheSize) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the underlying connection. Statements prepared directly on it are
+     * not cached and must be closed by the caller.
+     * 
+     * @return the connection
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Get a statement for the given SQL, preparing it only if it is not
+     * already cached. Any parameters from a previous use are cleared.
+     * 
+     * @param sql the SQL of the statement
+     * @return the statement, which must not be closed by the caller
+     * @throws SQLException if the statement cannot be prepared
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        } else {
+            statement.clearParameters();
+        }
+
+        return statement;
+    }
+
+    /**
+     * @return the number of statements currently cached
+     */
+    public int getStatementCount() {
+        return statements.size();
+    }
+
+    boolean isClosed() {
+        try {
+            return connection.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    void close() {
+        Iterator<PreparedStatement> i = statements.values().iterator();
+
+        while (i.hasNext()) {
+            closeQuietly(i.next());
+            i.remove();
+        }
+
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // Already unusable
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // Already unusable
+        }
+    }
+}
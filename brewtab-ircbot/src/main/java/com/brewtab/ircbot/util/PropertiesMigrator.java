@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot.util;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rewrites properties stored with Java serialization in the format of
+ * another codec. Rows are read in key order a batch at a time, pausing
+ * between batches, so it may run while the bot is using the table. A row is
+ * only rewritten if its value has not changed since it was read.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public class PropertiesMigrator extends BatchMigrator {
+    private static final Logger log = LoggerFactory.getLogger(PropertiesMigrator.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private ValueCodec codec;
+    private SerializationCodec legacy = new SerializationCodec();
+
+    /* Key of the last row read */
+    private String lastKey;
+
+    private int migrated = 0;
+    private int skipped = 0;
+
+    /**
+     * @param pool the database
+     * @param codec the codec to rewrite values with
+     */
+    public PropertiesMigrator(ConnectionPool pool, ValueCodec codec) {
+        super(pool, "properties migration", DEFAULT_BATCH_SIZE);
+        this.codec = codec;
+    }
+
+    /**
+     * @return the number of rows rewritten so far
+     */
+    @Override
+    public int getMigratedCount() {
+        return migrated;
+    }
+
+    /**
+     * @return the number of rows skipped so far because they changed while
+     *         being migrated
+     */
+    public int getSkippedCount() {
+        return skipped;
+    }
+
+    @Override
+    protected void prepare() {
+        lastKey = "";
+    }
+
+    @Override
+    protected boolean migrateBatch() throws SQLException {
+        final String after = lastKey;
+        final int limit = getBatchSize();
+        final List<String> keys = new ArrayList<String>();
+        final List<byte[]> values = new ArrayList<byte[]>();
+
+        pool.execute(new SQLCallback<Void>() {
+            @Override
+            public Void run(PooledConnection connection) throws SQLException {
+                PreparedStatement statement = connection.prepare(
+                    "SELECT k, v FROM properties WHERE k > ? ORDER BY k LIMIT ?");
+
+                statement.setString(1, after);
+                statement.setInt(2, limit);
+
+                ResultSet results = statement.executeQuery();
+
+                try {
+                    while (results.next()) {
+                        keys.add(results.getString(1));
+                        values.add(results.getBytes(2));
+                    }
+                } finally {
+                    results.close();
+                }
+
+                return null;
+            }
+        });
+
+        if (keys.isEmpty()) {
+            return false;
+        }
+
+        rewrite(keys, values);
+        lastKey = keys.get(keys.size() - 1);
+
+        log.info("migrated {} properties, up to key '{}'", migrated, lastKey);
+        return true;
+    }
+
+    @Override
+    protected void complete() {
+        log.info("properties migration complete, {} rows migrated, {} changed while migrating", migrated, skipped);
+    }
+
+    private void rewrite(final List<String> keys, final List<byte[]> values) throws SQLException {
+        final List<Integer> rows = new ArrayList<Integer>();
+
+        for (int i = 0; i < keys.size(); i++) {
+            if (SerializationCodec.isSerialized(values.get(i))) {
+                rows.add(i);
+            }
+        }
+
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        int[] counts = pool.execute(new SQLCallback<int[]>() {
+            @Override
+            public int[] run(PooledConnection connection) throws SQLException {
+                PreparedStatement statement = connection.prepare(
+                    "UPDATE properties SET v = ? WHERE k = ? AND v = ?");
+                statement.clearBatch();
+
+                for (int i : rows) {
+                    Serializable value = legacy.decode(values.get(i));
+
+                    statement.setBytes(1, codec.encode(value));
+                    statement.setString(2, keys.get(i));
+                    statement.setBytes(3, values.get(i));
+                    statement.addBatch();
+                }
+
+                return statement.executeBatch();
+            }
+        });
+
+        for (int count : counts) {
+            if (count > 0 || count == Statement.SUCCESS_NO_INFO) {
+                migrated++;
+            } else {
+                skipped++;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        main(args, new Factory() {
+            @Override
+            public BatchMigrator create(ConnectionPool pool) {
+                return new PropertiesMigrator(pool, new CompactCodec());
+            }
+        });
+    }
+}
@@ -22,29 +22,99 @@
 
 package com.brewtab.ircbot.util;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
-import com.google.common.base.Throwables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * Simple key-value store backed by a SQL database
+ * Simple key-value store backed by a SQL database.
+ * <p>
+ * Values are cached, including the absence of a value, so repeated reads of
+ * a key do not reach the database. Writes update the cache immediately and
+ * are written to the database from a background thread every flush
+ * interval; a key set several times within an interval is written once. The
+ * least recently used values are evicted once the cache is full, but
+ * unwritten values are kept until they have been written. Values are cached
+ * as is and so should be immutable.
+ * <p>
+ * Values are stored in the format of a {@link ValueCodec},
+ * {@link CompactCodec} by default.
  *
  * @author Chris Thunes <cthunes@brewtab.com>
  */
 public class SQLProperties {
-    private Connection connection;
+    private static final Logger log = LoggerFactory.getLogger(SQLProperties.class);
 
-    public SQLProperties(Connection connection) {
-        this.connection = connection;
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 5000;
+
+    private ConnectionPool pool;
+    private ValueCodec codec;
+
+    private final int cacheSize;
+    private final long flushIntervalMillis;
+
+    /* Guarded by this. Least recently used first, null values are absent keys */
+    private final LinkedHashMap<String, Serializable> cache;
+
+    /* Guarded by this. Values not yet written, in the order first set */
+    private final LinkedHashMap<String, Serializable> dirty;
+
+    /* Guarded by this. Counts writes so stale reads are not cached */
+    private long writes = 0;
+
+    /* Only one flush at a time, so older values never overwrite newer ones */
+    private final Object flushLock = new Object();
+
+    private final CountDownLatch closing = new CountDownLatch(1);
+    private final Thread flusher;
+
+    /**
+     * @param pool the database
+     * @param codec converts values to and from the bytes stored
+     * @param cacheSize the number of values kept in memory, not including
+     *            values not yet written
+     * @param flushInterval how long a value may wait to be written
+     * @param unit the unit of the flush interval
+     */
+    public SQLProperties(ConnectionPool pool, ValueCodec codec, int cacheSize, long flushInterval, TimeUnit unit) {
+        this.pool = pool;
+        this.codec = codec;
+        this.cacheSize = cacheSize;
+        this.flushIntervalMillis = unit.toMillis(flushInterval);
+        this.dirty = new LinkedHashMap<String, Serializable>();
+        this.cache = new LinkedHashMap<String, Serializable>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Serializable> eldest) {
+                return size() > SQLProperties.this.cacheSize;
+            }
+        };
+
+        this.flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, "properties-flusher");
+
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public SQLProperties(ConnectionPool pool) {
+        this(pool, new CompactCodec(), DEFAULT_CACHE_SIZE, DEFAULT_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     @SuppressWarnings("unchecked")
@@ -52,86 +122,201 @@ public class SQLProperties {
         return (V) obj;
     }
 
-    private byte[] serialize(Object obj) {
-        try {
-            ByteArrayOutputStream bstream = new ByteArrayOutputStream();
-            ObjectOutputStream valueStream = new ObjectOutputStream(bstream);
-            valueStream.writeObject(obj);
-            valueStream.close();
+    public <V extends Serializable> V get(String key) {
+        return this.<V> get(key, null);
+    }
 
-            byte[] objBytes = bstream.toByteArray();
-            bstream.close();
+    public <V extends Serializable> V get(String key, V defaultValue) {
+        long writesBefore;
 
-            return objBytes;
-        } catch (IOException e) {
-            throw Throwables.propagate(e);
+        synchronized (this) {
+            if (dirty.containsKey(key)) {
+                return orDefault(dirty.get(key), defaultValue);
+            }
+
+            if (cache.containsKey(key)) {
+                return orDefault(cache.get(key), defaultValue);
+            }
+
+            writesBefore = writes;
         }
+
+        Serializable value = load(key);
+
+        synchronized (this) {
+            /* A write since the load began may have been evicted already */
+            if (writes == writesBefore) {
+                cache.put(key, value);
+            }
+        }
+
+        return orDefault(value, defaultValue);
+    }
+
+    private <V extends Serializable> V orDefault(Serializable value, V defaultValue) {
+        return value == null ? defaultValue : this.<V> cast(value);
     }
 
-    private Object deserialize(byte[] objBytes) {
+    private Serializable load(final String key) {
+        byte[] valueBytes;
+
         try {
-            ByteArrayInputStream bstream = new ByteArrayInputStream(objBytes);
-            ObjectInputStream valueStream = new ObjectInputStream(bstream);
-            Object obj = valueStream.readObject();
-            valueStream.close();
-            bstream.close();
-
-            return obj;
-        } catch (IOException e) {
-            throw Throwables.propagate(e);
-        } catch (ClassNotFoundException e) {
-            throw Throwables.propagate(e);
+            valueBytes = pool.execute(new SQLCallback<byte[]>() {
+                @Override
+                public byte[] run(PooledConnection connection) throws SQLException {
+                    PreparedStatement statement = connection.prepare("SELECT v FROM properties WHERE k = ?");
+                    statement.setString(1, key);
+
+                    ResultSet results = statement.executeQuery();
+
+                    try {
+                        return results.next() ? results.getBytes(1) : null;
+                    } finally {
+                        results.close();
+                    }
+                }
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (valueBytes == null) {
+            return null;
         }
+
+        return codec.decode(valueBytes);
     }
 
-    public <V extends Serializable> V get(String key) {
-        return this.<V> get(key, null);
+    /**
+     * Set a value. It is written to the database by the next flush.
+     * 
+     * @param key the key
+     * @param value the value, which should not be modified afterwards
+     */
+    public synchronized <V extends Serializable> void set(String key, V value) {
+        writes++;
+        cache.put(key, value);
+
+        /* Remove first so the key moves to the end of the write order */
+        dirty.remove(key);
+        dirty.put(key, value);
     }
 
-    public <V extends Serializable> V get(String key, V defaultValue) {
-        try {
-            PreparedStatement statement = connection.prepareStatement(
-                "SELECT v FROM properties WHERE k = ?"
-                );
+    /**
+     * @return the number of values not yet written to the database
+     */
+    public synchronized int getDirtyCount() {
+        return dirty.size();
+    }
 
-            statement.setString(1, key);
+    /**
+     * Write every value set so far to the database
+     * 
+     * @throws RuntimeException if the values cannot be written, in which case
+     *             they are retried by the next flush
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            final List<String> keys;
+            final List<Serializable> values;
 
-            ResultSet results = statement.executeQuery();
-            if (results.next()) {
-                Object value = deserialize(results.getBytes(1));
+            synchronized (this) {
+                if (dirty.isEmpty()) {
+                    return;
+                }
 
-                return this.<V> cast(value);
-            } else {
-                return defaultValue;
+                keys = new ArrayList<String>(dirty.keySet());
+                values = new ArrayList<Serializable>(dirty.values());
+            }
+
+            final List<byte[]> valueBytes = new ArrayList<byte[]>(values.size());
+
+            for (Serializable value : values) {
+                valueBytes.add(codec.encode(value));
+            }
+
+            try {
+                pool.execute(new SQLCallback<Void>() {
+                    @Override
+                    public Void run(PooledConnection connection) throws SQLException {
+                        write(connection, keys, valueBytes);
+                        return null;
+                    }
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+
+            synchronized (this) {
+                for (int i = 0; i < keys.size(); i++) {
+                    /* Keep values set again while writing */
+                    if (dirty.get(keys.get(i)) == values.get(i)) {
+                        dirty.remove(keys.get(i));
+                    }
+                }
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
         }
     }
 
-    public <V extends Serializable> void set(String key, V value) {
-        try {
-            byte[] valueBytes = serialize(value);
+    private void write(PooledConnection connection, List<String> keys, List<byte[]> valueBytes)
+        throws SQLException {
+        PreparedStatement update = connection.prepare("UPDATE properties SET v = ? WHERE k = ?");
+        update.clearBatch();
 
-            PreparedStatement statement = connection.prepareStatement(
-                "UPDATE properties SET v = ? WHERE k = ?"
-                );
+        for (int i = 0; i < keys.size(); i++) {
+            update.setBytes(1, valueBytes.get(i));
+            update.setString(2, keys.get(i));
+            update.addBatch();
+        }
 
-            statement.setBytes(1, valueBytes);
-            statement.setString(2, key);
+        int[] counts = update.executeBatch();
+        PreparedStatement insert = null;
 
-            // If no update was performed instead insert the value
-            if (statement.executeUpdate() == 0) {
-                statement = connection.prepareStatement(
-                    "INSERT INTO properties (k, v) VALUES (?, ?)"
-                    );
+        // Insert the values of keys which were not updated
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                if (insert == null) {
+                    insert = connection.prepare("INSERT INTO properties (k, v) VALUES (?, ?)");
+                    insert.clearBatch();
+                }
 
-                statement.setString(1, key);
-                statement.setBytes(2, valueBytes);
-                statement.execute();
+                insert.setString(1, keys.get(i));
+                insert.setBytes(2, valueBytes.get(i));
+                insert.addBatch();
             }
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
         }
+
+        if (insert != null) {
+            insert.executeBatch();
+        }
+    }
+
+    private void flushLoop() {
+        boolean closed = false;
+
+        while (!closed) {
+            try {
+                closed = closing.await(flushIntervalMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                closed = true;
+            }
+
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                log.warn("failed to write properties, retrying in " + flushIntervalMillis + " ms", e);
+            }
+        }
+    }
+
+    /**
+     * Stop the background flushes after writing every value set so far
+     * 
+     * @throws InterruptedException if interrupted while waiting for the final
+     *             flush
+     */
+    public void close() throws InterruptedException {
+        closing.countDown();
+        flusher.join();
     }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Encodes values with Java serialization. Any serializable value is
+ * supported, at the cost of class descriptors in every value.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public class SerializationCodec implements ValueCodec {
+    /* Every Java serialization stream begins with this magic number */
+    private static final byte MAGIC_0 = (byte) 0xAC;
+    private static final byte MAGIC_1 = (byte) 0xED;
+
+    /**
+     * @param bytes some encoded value
+     * @return true if the bytes look like a Java serialization stream
+     */
+    public static boolean isSerialized(byte[] bytes) {
+        return bytes.length >= 2 && bytes[0] == MAGIC_0 && bytes[1] == MAGIC_1;
+    }
+
+    @Override
+    public byte[] encode(Serializable value) {
+        try {
+            ByteArrayOutputStream bstream = new ByteArrayOutputStream();
+            ObjectOutputStream valueStream = new ObjectOutputStream(bstream);
+            valueStream.writeObject(value);
+            valueStream.close();
+
+            return bstream.toByteArray();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public Serializable decode(byte[] bytes) {
+        try {
+            ObjectInputStream valueStream = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            Object obj = valueStream.readObject();
+            valueStream.close();
+
+            return (Serializable) obj;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid serialized value", e);
+        } catch (ClassNotFoundException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+}
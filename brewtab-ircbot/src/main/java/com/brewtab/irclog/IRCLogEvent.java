@@ -30,6 +30,7 @@ public class IRCLogEvent {
     public static int QUIT_EVENT = 2;
     public static int MESSAGE_EVENT = 3;
 
+    private long id;
     private Date date;
     private int eventType;
     private String channel;
@@ -52,6 +53,17 @@ public class IRCLogEvent {
         this(date, eventType, channel, nick, null);
     }
 
+    /**
+     * @return the row id, or 0 if it was not queried
+     */
+    public long getId() {
+        return this.id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
     public void setDate(Date date) {
         this.date = date;
     }
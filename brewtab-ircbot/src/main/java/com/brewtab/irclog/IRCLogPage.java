@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irclog;
+
+import java.util.List;
+
+/**
+ * A page of query results along with the total number of rows matched
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public class IRCLogPage {
+    private final List<IRCLogEvent> events;
+    private final int total;
+
+    public IRCLogPage(List<IRCLogEvent> events, int total) {
+        this.events = events;
+        this.total = total;
+    }
+
+    /**
+     * @return the rows of this page
+     */
+    public List<IRCLogEvent> getEvents() {
+        return events;
+    }
+
+    /**
+     * @return the number of rows matched by the query, including those not
+     *         on this page
+     */
+    public int getTotal() {
+        return total;
+    }
+}
@@ -22,6 +22,7 @@
 
 package com.brewtab.irclog;
 
+import java.io.File;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -29,9 +30,9 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,156 +40,374 @@ import org.slf4j.LoggerFactory;
 import com.brewtab.irc.User;
 import com.brewtab.irc.client.Channel;
 import com.brewtab.irc.client.ChannelListener;
+import com.brewtab.ircbot.util.ConnectionPool;
+import com.brewtab.ircbot.util.PooledConnection;
+import com.brewtab.ircbot.util.SQLCallback;
 import com.google.common.base.Throwables;
 
 public class IRCLogger implements ChannelListener {
     private static final Logger log = LoggerFactory.getLogger(IRCLogger.class);
 
-    private Connection db;
-    private PreparedStatement eventStatement;
-    private PreparedStatement messageStatement;
+    /* Rows are spilled here while the database is unavailable */
+    public static final String DEFAULT_SPILL_FILE = "irclog.spill";
 
-    public IRCLogger(Connection dbConnection) throws SQLException {
-        this.db = dbConnection;
+    private ConnectionPool pool;
+    private LogWriter writer;
 
-        this.eventStatement = this.db
-            .prepareStatement("INSERT INTO events (event_time, type, nick, extra) VALUES (?, ?, ?, ?)");
-        this.messageStatement = this.db
-            .prepareStatement("INSERT INTO messages (msg_time, channel, nick, message) VALUES (?, ?, ?, ?)");
+    public IRCLogger(ConnectionPool pool, LogWriter writer) {
+        this.pool = pool;
+        this.writer = writer;
+        this.writer.start();
     }
 
-    public PreparedStatement prepareQuery(String query) {
+    public IRCLogger(ConnectionPool pool) {
+        this(pool, new LogWriter(pool, new File(DEFAULT_SPILL_FILE)));
+    }
+
+    /**
+     * Get the writer rows are logged through, e.g. for its metrics
+     * 
+     * @return the writer
+     */
+    public LogWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * Write every row logged so far and stop the writer
+     * 
+     * @throws InterruptedException if interrupted while waiting for the writer
+     */
+    public void close() throws InterruptedException {
+        writer.close();
+    }
+
+    /**
+     * Run a query with a cached statement from a pooled connection
+     * 
+     * @param sql the query
+     * @param params the values of the query's parameters, in order
+     * @param fetchSize the number of rows fetched at a time, or 0 to fetch
+     *            every row at once
+     * @param maxRows the most rows returned, or 0 for no limit
+     * @param reader reads the results, which are closed afterwards
+     * @return the value returned by the reader
+     */
+    private <T> T query(final String sql, final Object[] params, final int fetchSize, final int maxRows,
+        final ResultReader<T> reader) {
         try {
-            return db.prepareStatement(query);
+            return pool.execute(new SQLCallback<T>() {
+                @Override
+                public T run(PooledConnection connection) throws SQLException {
+                    Connection db = connection.getConnection();
+
+                    /* Rows are only fetched incrementally within a transaction */
+                    boolean cursor = fetchSize > 0 && db.getAutoCommit();
+
+                    if (cursor) {
+                        db.setAutoCommit(false);
+                    }
+
+                    try {
+                        PreparedStatement stmt = connection.prepare(sql);
+
+                        for (int i = 0; i < params.length; i++) {
+                            stmt.setObject(i + 1, params[i]);
+                        }
+
+                        /* Set every time, the statement is reused */
+                        stmt.setFetchSize(fetchSize);
+                        stmt.setMaxRows(maxRows);
+
+                        ResultSet rows = stmt.executeQuery();
+
+                        try {
+                            return reader.read(rows);
+                        } finally {
+                            rows.close();
+                        }
+                    } finally {
+                        if (cursor) {
+                            /* Read only, nothing to commit */
+                            db.rollback();
+                            db.setAutoCommit(true);
+                        }
+                    }
+                }
+            });
         } catch (SQLException e) {
             throw Throwables.propagate(e);
         }
     }
 
-    private List<IRCLogEvent> queryMessages(PreparedStatement stmt, int limit) {
-        try {
-            ResultSet rows = stmt.executeQuery();
-            ResultSetMetaData metadata = rows.getMetaData();
-            Set<String> columns = new HashSet<String>();
-            List<IRCLogEvent> messages = new ArrayList<IRCLogEvent>();
+    private <T> T query(String sql, Object[] params, ResultReader<T> reader) {
+        return query(sql, params, 0, 0, reader);
+    }
+
+    private interface ResultReader<T> {
+        public T read(ResultSet rows) throws SQLException;
+    }
 
-            for (int i = 0; i < metadata.getColumnCount(); i++) {
-                columns.add(metadata.getColumnName(i + 1));
+    /**
+     * Positions of the columns events are read from, 0 if not queried
+     */
+    private static final class Columns {
+        int id;
+        int msgTime;
+        int channel;
+        int nick;
+        int message;
+        int type;
+        int eventTime;
+        int extra;
+        int total;
+
+        Columns(ResultSetMetaData metadata) throws SQLException {
+            for (int i = 1; i <= metadata.getColumnCount(); i++) {
+                String name = metadata.getColumnName(i);
+
+                if (name.equals("id")) {
+                    id = i;
+                } else if (name.equals("msg_time")) {
+                    msgTime = i;
+                } else if (name.equals("channel")) {
+                    channel = i;
+                } else if (name.equals("nick")) {
+                    nick = i;
+                } else if (name.equals("message")) {
+                    message = i;
+                } else if (name.equals("type")) {
+                    type = i;
+                } else if (name.equals("event_time")) {
+                    eventTime = i;
+                } else if (name.equals("extra")) {
+                    extra = i;
+                } else if (name.equals("total")) {
+                    total = i;
+                }
             }
+        }
+    }
 
-            while (rows.next() && (limit < 0 || messages.size() < limit)) {
-                IRCLogEvent event = new IRCLogEvent(IRCLogEvent.MESSAGE_EVENT);
+    /* Column positions by query, the queries themselves are constants */
+    private final ConcurrentMap<String, Columns> columnsCache = new ConcurrentHashMap<String, Columns>();
 
-                if (columns.contains("msg_time")) {
-                    event.setDate(rows.getTimestamp("msg_time"));
-                }
+    private Columns getColumns(String sql, ResultSet rows) throws SQLException {
+        Columns columns = columnsCache.get(sql);
 
-                if (columns.contains("channel")) {
-                    event.setChannel(rows.getString("channel"));
-                }
+        if (columns == null) {
+            columns = new Columns(rows.getMetaData());
+            columnsCache.putIfAbsent(sql, columns);
+        }
 
-                if (columns.contains("nick")) {
-                    event.setNick(rows.getString("nick"));
-                }
+        return columns;
+    }
 
-                if (columns.contains("message")) {
-                    event.setData(rows.getString("message"));
-                }
+    private IRCLogEvent readMessage(ResultSet rows, Columns columns) throws SQLException {
+        IRCLogEvent event = new IRCLogEvent(IRCLogEvent.MESSAGE_EVENT);
 
-                messages.add(event);
-            }
+        if (columns.id > 0) {
+            event.setId(rows.getLong(columns.id));
+        }
 
-            return messages;
-        } catch (SQLException e) {
-            throw Throwables.propagate(e);
+        if (columns.msgTime > 0) {
+            event.setDate(rows.getTimestamp(columns.msgTime));
+        }
+
+        if (columns.channel > 0) {
+            event.setChannel(rows.getString(columns.channel));
         }
-    }
 
-    public List<IRCLogEvent> queryMessages(PreparedStatement stmt) {
-        return queryMessages(stmt, -1);
+        if (columns.nick > 0) {
+            event.setNick(rows.getString(columns.nick));
+        }
+
+        if (columns.message > 0) {
+            event.setData(rows.getString(columns.message));
+        }
+
+        return event;
     }
 
-    public IRCLogEvent queryMessage(PreparedStatement stmt) {
-        List<IRCLogEvent> messages = queryMessages(stmt, 1);
+    private IRCLogEvent readEvent(ResultSet rows, Columns columns) throws SQLException {
+        String type = rows.getString(columns.type).trim();
+        IRCLogEvent event;
 
-        if (messages.isEmpty()) {
-            return null;
+        if (type.equals("join")) {
+            event = new IRCLogEvent(IRCLogEvent.JOIN_EVENT);
+        } else if (type.equals("part")) {
+            event = new IRCLogEvent(IRCLogEvent.PART_EVENT);
+        } else if (type.equals("quit")) {
+            event = new IRCLogEvent(IRCLogEvent.QUIT_EVENT);
         } else {
-            return messages.get(0);
+            log.error("Invalid event type '{}'", type);
+            return null;
         }
-    }
 
-    public int countMessages(PreparedStatement stmt) {
-        try {
-            ResultSet rows = stmt.executeQuery();
+        if (columns.id > 0) {
+            event.setId(rows.getLong(columns.id));
+        }
 
-            if (rows.next()) {
-                return rows.getInt(1);
-            }
+        if (columns.eventTime > 0) {
+            event.setDate(rows.getTimestamp(columns.eventTime));
+        }
 
-            return 0;
-        } catch (SQLException e) {
-            throw Throwables.propagate(e);
+        if (columns.extra > 0) {
+            event.setChannel(rows.getString(columns.extra));
+        }
+
+        if (columns.nick > 0) {
+            event.setNick(rows.getString(columns.nick));
         }
+
+        return event;
     }
 
-    private List<IRCLogEvent> queryEvents(PreparedStatement stmt, int limit) {
-        try {
-            ResultSet rows = stmt.executeQuery();
-            ResultSetMetaData metadata = rows.getMetaData();
-            Set<String> columns = new HashSet<String>();
-            List<IRCLogEvent> events = new ArrayList<IRCLogEvent>();
+    /**
+     * Pass rows to a handler until the rows or the handler are done
+     */
+    private int stream(final String sql, Object[] params, int fetchSize, final int limit, final boolean events,
+        final IRCLogEventHandler handler) {
+        return query(sql, params, fetchSize, Math.max(limit, 0), new ResultReader<Integer>() {
+            @Override
+            public Integer read(ResultSet rows) throws SQLException {
+                Columns columns = getColumns(sql, rows);
+                int handled = 0;
+
+                if (events && columns.type == 0) {
+                    throw new IllegalArgumentException("Event query must include `type` column");
+                }
 
-            for (int i = 0; i < metadata.getColumnCount(); i++) {
-                columns.add(metadata.getColumnName(i + 1));
+                while ((limit < 0 || handled < limit) && rows.next()) {
+                    IRCLogEvent event = events ? readEvent(rows, columns) : readMessage(rows, columns);
+
+                    if (event == null) {
+                        continue;
+                    }
+
+                    handled++;
+
+                    if (!handler.onEvent(event)) {
+                        break;
+                    }
+                }
+
+                return handled;
             }
+        });
+    }
 
-            if (!columns.contains("type")) {
-                throw new IllegalArgumentException("Event query must include `type` column");
+    private List<IRCLogEvent> collect(String sql, Object[] params, int limit, boolean events) {
+        final List<IRCLogEvent> results = new ArrayList<IRCLogEvent>();
+
+        stream(sql, params, 0, limit, events, new IRCLogEventHandler() {
+            @Override
+            public boolean onEvent(IRCLogEvent event) {
+                results.add(event);
+                return true;
             }
+        });
 
-            while (rows.next() && (limit < 0 || events.size() < limit)) {
-                String type = rows.getString("type");
-                IRCLogEvent event;
-
-                if (type.equals("join")) {
-                    event = new IRCLogEvent(IRCLogEvent.JOIN_EVENT);
-                } else if (type.equals("part")) {
-                    event = new IRCLogEvent(IRCLogEvent.PART_EVENT);
-                } else if (type.equals("quit")) {
-                    event = new IRCLogEvent(IRCLogEvent.QUIT_EVENT);
-                } else {
-                    log.error("Invalid event type '{}'", type);
-                    continue;
-                }
+        return results;
+    }
+
+    /**
+     * Pass the messages selected by a query to a handler as they are read,
+     * rather than holding every row in memory. Rows are fetched from the
+     * database a batch at a time.
+     * 
+     * @param sql the query
+     * @param fetchSize the number of rows fetched at a time
+     * @param handler receives each message, and may stop the query early
+     * @param params the values of the query's parameters, in order
+     * @return the number of messages passed to the handler
+     */
+    public int streamMessages(String sql, int fetchSize, IRCLogEventHandler handler, Object... params) {
+        return stream(sql, params, fetchSize, -1, false, handler);
+    }
+
+    public List<IRCLogEvent> queryMessages(String sql, Object... params) {
+        return collect(sql, params, -1, false);
+    }
+
+    public IRCLogEvent queryMessage(String sql, Object... params) {
+        List<IRCLogEvent> messages = collect(sql, params, 1, false);
+
+        if (messages.isEmpty()) {
+            return null;
+        } else {
+            return messages.get(0);
+        }
+    }
 
-                if (columns.contains("event_time")) {
-                    event.setDate(rows.getTimestamp("event_time"));
+    /**
+     * Get a page of messages along with the total number of messages matched,
+     * in one query. The query must select the total as a column named
+     * <code>total</code>, e.g. <code>COUNT(*) OVER () AS total</code>, which
+     * is computed before any LIMIT is applied.
+     * 
+     * @param sql the query
+     * @param params the values of the query's parameters, in order
+     * @return the page, with a total of 0 if no messages matched
+     */
+    public IRCLogPage queryMessagePage(final String sql, Object... params) {
+        return query(sql, params, new ResultReader<IRCLogPage>() {
+            @Override
+            public IRCLogPage read(ResultSet rows) throws SQLException {
+                Columns columns = getColumns(sql, rows);
+                List<IRCLogEvent> messages = new ArrayList<IRCLogEvent>();
+                int total = 0;
+
+                if (columns.total == 0) {
+                    throw new IllegalArgumentException("Page query must include `total` column");
                 }
 
-                if (columns.contains("extra")) {
-                    event.setChannel(rows.getString("extra"));
+                while (rows.next()) {
+                    if (messages.isEmpty()) {
+                        total = rows.getInt(columns.total);
+                    }
+
+                    messages.add(readMessage(rows, columns));
                 }
 
-                if (columns.contains("nick")) {
-                    event.setNick(rows.getString("nick"));
+                return new IRCLogPage(messages, total);
+            }
+        });
+    }
+
+    private int count(String sql, Object[] params) {
+        return query(sql, params, new ResultReader<Integer>() {
+            @Override
+            public Integer read(ResultSet rows) throws SQLException {
+                if (rows.next()) {
+                    return rows.getInt(1);
                 }
 
-                events.add(event);
+                return 0;
             }
+        });
+    }
 
-            return events;
-        } catch (SQLException e) {
-            throw Throwables.propagate(e);
-        }
+    public int countMessages(String sql, Object... params) {
+        return count(sql, params);
     }
 
-    public List<IRCLogEvent> queryEvents(PreparedStatement stmt) {
-        return queryEvents(stmt, -1);
+    /**
+     * Pass the join, part and quit events selected by a query to a handler as
+     * they are read
+     * 
+     * @see #streamMessages(String, int, IRCLogEventHandler, Object...)
+     */
+    public int streamEvents(String sql, int fetchSize, IRCLogEventHandler handler, Object... params) {
+        return stream(sql, params, fetchSize, -1, true, handler);
     }
 
-    public IRCLogEvent queryEvent(PreparedStatement stmt) {
-        List<IRCLogEvent> events = queryEvents(stmt, 1);
+    public List<IRCLogEvent> queryEvents(String sql, Object... params) {
+        return collect(sql, params, -1, true);
+    }
+
+    public IRCLogEvent queryEvent(String sql, Object... params) {
+        List<IRCLogEvent> events = collect(sql, params, 1, true);
 
         if (events.isEmpty()) {
             return null;
@@ -197,87 +416,49 @@ public class IRCLogger implements ChannelListener {
         }
     }
 
-    public int countEvent(PreparedStatement stmt) {
-        try {
-            ResultSet rows = stmt.executeQuery();
+    public int countEvent(String sql, Object... params) {
+        return count(sql, params);
+    }
 
-            if (rows.next()) {
-                return rows.getInt(1);
-            }
+    private void update(final String sql, final Timestamp timestamp) throws SQLException {
+        pool.execute(new SQLCallback<Void>() {
+            @Override
+            public Void run(PooledConnection connection) throws SQLException {
+                PreparedStatement statement = connection.prepare(sql);
+                statement.setTimestamp(1, timestamp);
+                statement.execute();
 
-            return 0;
-        } catch (SQLException e) {
-            throw Throwables.propagate(e);
-        }
+                return null;
+            }
+        });
     }
 
     public void openSession(Timestamp timestamp) throws SQLException {
-        PreparedStatement statement = this.db
-            .prepareStatement("INSERT INTO sessions (start_time, active) VALUES (?, TRUE)");
-        statement.setTimestamp(1, timestamp);
-        statement.execute();
+        update("INSERT INTO sessions (start_time, active) VALUES (?, TRUE)", timestamp);
     }
 
     public void openSession() throws SQLException {
         this.openSession(this.getCurrentTimestamp());
     }
 
-    private void closeSession(Timestamp timestamp) throws SQLException {
-        PreparedStatement statement = this.db
-            .prepareStatement("UPDATE sessions SET active=FALSE, end_time=? WHERE active=TRUE");
-        statement.setTimestamp(1, timestamp);
+    public void closeSession(Timestamp timestamp) throws SQLException {
+        update("UPDATE sessions SET active=FALSE, end_time=? WHERE active=TRUE", timestamp);
     }
 
-    @Override
-    protected void finalize() throws Exception {
-        if (!this.db.isClosed()) {
-            this.closeSession(this.getCurrentTimestamp());
-            this.db.close();
-        }
-    }
-
-    void logJoin(Timestamp timestamp, String channel, String nick) throws SQLException {
-        synchronized (eventStatement) {
-            this.eventStatement.setTimestamp(1, timestamp);
-            this.eventStatement.setString(2, "join");
-            this.eventStatement.setString(3, nick);
-            this.eventStatement.setString(4, channel);
-            this.eventStatement.executeUpdate();
-            this.eventStatement.clearParameters();
-        }
+    void logJoin(Timestamp timestamp, String channel, String nick) {
+        writer.add(LogRecord.event(timestamp, "join", channel, nick));
     }
 
-    void logPart(Timestamp timestamp, String channel, String nick) throws SQLException {
-        synchronized (eventStatement) {
-            this.eventStatement.setTimestamp(1, timestamp);
-            this.eventStatement.setString(2, "part");
-            this.eventStatement.setString(3, nick);
-            this.eventStatement.setString(4, channel);
-            this.eventStatement.executeUpdate();
-            this.eventStatement.clearParameters();
-        }
+    void logPart(Timestamp timestamp, String channel, String nick) {
+        writer.add(LogRecord.event(timestamp, "part", channel, nick));
     }
 
-    void logQuit(Timestamp timestamp, String channel, String nick) throws SQLException {
-        synchronized (eventStatement) {
-            this.eventStatement.setTimestamp(1, timestamp);
-            this.eventStatement.setString(2, "quit");
-            this.eventStatement.setString(3, nick);
-            this.eventStatement.setString(4, channel);
-            this.eventStatement.executeUpdate();
-            this.eventStatement.clearParameters();
-        }
+    void logQuit(Timestamp timestamp, String channel, String nick) {
+        writer.add(LogRecord.event(timestamp, "quit", channel, nick));
     }
 
-    void logMessage(Timestamp timestamp, String channel, String from, String message) throws SQLException {
-        synchronized (messageStatement) {
-            this.messageStatement.setTimestamp(1, timestamp);
-            this.messageStatement.setString(2, channel);
-            this.messageStatement.setString(3, from);
-            this.messageStatement.setString(4, message);
-            this.messageStatement.executeUpdate();
-            this.messageStatement.clearParameters();
-        }
+    void logMessage(Timestamp timestamp, String channel, String from, String message) {
+        writer.add(LogRecord.message(timestamp, channel, from, message));
     }
 
     private Timestamp getCurrentTimestamp() {
@@ -286,37 +467,21 @@ public class IRCLogger implements ChannelListener {
 
     @Override
     public void onJoin(Channel channel, User user) {
-        try {
-            this.logJoin(this.getCurrentTimestamp(), channel.getName(), user.getNick());
-        } catch (SQLException e) {
-            log.error("SQL error while logging join", e);
-        }
+        this.logJoin(this.getCurrentTimestamp(), channel.getName(), user.getNick());
     }
 
     @Override
     public void onPart(Channel channel, User user) {
-        try {
-            this.logPart(this.getCurrentTimestamp(), channel.getName(), user.getNick());
-        } catch (SQLException e) {
-            log.error("SQL error while loggin part", e);
-        }
+        this.logPart(this.getCurrentTimestamp(), channel.getName(), user.getNick());
     }
 
     @Override
     public void onQuit(Channel channel, User user) {
-        try {
-            this.logQuit(this.getCurrentTimestamp(), channel.getName(), user.getNick());
-        } catch (SQLException e) {
-            log.error("SQL error while logging quit", e);
-        }
+        this.logQuit(this.getCurrentTimestamp(), channel.getName(), user.getNick());
     }
 
     @Override
     public void onMessage(Channel channel, User from, String message) {
-        try {
-            this.logMessage(this.getCurrentTimestamp(), channel.getName(), from.getNick(), message);
-        } catch (SQLException e) {
-            log.error("SQL error while logging message", e);
-        }
+        this.logMessage(this.getCurrentTimestamp(), channel.getName(), from.getNick(), message);
     }
 }
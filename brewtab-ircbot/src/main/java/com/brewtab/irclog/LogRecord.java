@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irclog;
+
+import java.sql.Timestamp;
+
+/**
+ * A row waiting to be written to the log tables: an event (join, part or
+ * quit) or a message
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+class LogRecord {
+    /* Type of message rows; events use their type column value */
+    static final String MESSAGE = "message";
+
+    /* Last field of every line, missing if the line was only partly written */
+    private static final String END = "$";
+
+    private final String type;
+    private final long time;
+    private final String channel;
+    private final String nick;
+    private final String message;
+
+    /* When the record was queued, for measuring lag */
+    private final long queuedNanos;
+
+    LogRecord(String type, long time, String channel, String nick, String message) {
+        this.type = type;
+        this.time = time;
+        this.channel = channel;
+        this.nick = nick;
+        this.message = message;
+        this.queuedNanos = System.nanoTime();
+    }
+
+    static LogRecord event(Timestamp timestamp, String type, String channel, String nick) {
+        return new LogRecord(type, timestamp.getTime(), channel, nick, null);
+    }
+
+    static LogRecord message(Timestamp timestamp, String channel, String nick, String message) {
+        return new LogRecord(MESSAGE, timestamp.getTime(), channel, nick, message);
+    }
+
+    boolean isMessage() {
+        return type.equals(MESSAGE);
+    }
+
+    String getType() {
+        return type;
+    }
+
+    Timestamp getTimestamp() {
+        return new Timestamp(time);
+    }
+
+    String getChannel() {
+        return channel;
+    }
+
+    String getNick() {
+        return nick;
+    }
+
+    String getMessage() {
+        return message;
+    }
+
+    long getQueuedNanos() {
+        return queuedNanos;
+    }
+
+    private static void appendEscaped(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("\\0");
+            return;
+        }
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            switch (c) {
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            default:
+                sb.append(c);
+            }
+        }
+    }
+
+    private static String unescape(String value) {
+        if (value.equals("\\0")) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder(value.length());
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+
+                switch (next) {
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                default:
+                    sb.append(next);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Format the record as a single line of tab separated fields, ending with
+     * a marker field
+     */
+    String toLine() {
+        StringBuilder sb = new StringBuilder();
+
+        appendEscaped(sb, type);
+        sb.append('\t').append(time).append('\t');
+        appendEscaped(sb, channel);
+        sb.append('\t');
+        appendEscaped(sb, nick);
+        sb.append('\t');
+        appendEscaped(sb, message);
+        sb.append('\t').append(END);
+
+        return sb.toString();
+    }
+
+    /**
+     * Parse a line written by {@link #toLine()}
+     * 
+     * @return the record or null if the line is malformed, e.g. because it
+     *         was only partly written
+     */
+    static LogRecord fromLine(String line) {
+        String[] fields = line.split("\t", -1);
+
+        if (fields.length != 6 || !fields[5].equals(END) || fields[0].equals("\\0")) {
+            return null;
+        }
+
+        try {
+            return new LogRecord(unescape(fields[0]), Long.parseLong(fields[1]),
+                unescape(fields[2]), unescape(fields[3]), unescape(fields[4]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
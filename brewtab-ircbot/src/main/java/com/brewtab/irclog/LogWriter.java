@@ -0,0 +1,540 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irclog;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.brewtab.irc.OverflowPolicy;
+import com.brewtab.ircbot.util.ConnectionPool;
+import com.brewtab.ircbot.util.PooledConnection;
+
+/**
+ * Writes log rows from a background thread so the threads logging them never
+ * wait for the database. Rows are queued and written with JDBC batches once
+ * enough have been queued or the oldest has waited for the flush interval.
+ * While the database is unavailable rows are appended to a spill file, which
+ * is written to the database once it is available again.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public class LogWriter {
+    private static final Logger log = LoggerFactory.getLogger(LogWriter.class);
+
+    private static final Charset SPILL_CHARSET = Charset.forName("UTF-8");
+
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+    public static final long DEFAULT_RETRY_INTERVAL_MILLIS = 30000;
+
+    private final ConnectionPool pool;
+    private final File spillFile;
+    private final BlockingQueue<LogRecord> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final Thread thread;
+
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+    private volatile long retryIntervalMillis = DEFAULT_RETRY_INTERVAL_MILLIS;
+    private volatile boolean closed = false;
+
+    /* Only used by the writer thread */
+    private long retryAt;
+
+    /* Metrics */
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private volatile long lagMillis = 0;
+    private volatile boolean databaseAvailable = true;
+
+    /**
+     * @param pool the database to write to
+     * @param spillFile the file rows are appended to while the database is
+     *            unavailable
+     * @param queueSize the number of rows which may be waiting to be written
+     * @param overflowPolicy what happens to rows logged while the queue is
+     *            full
+     */
+    public LogWriter(ConnectionPool pool, File spillFile, int queueSize, OverflowPolicy overflowPolicy) {
+        this.pool = pool;
+        this.spillFile = spillFile;
+        this.queue = new LinkedBlockingQueue<LogRecord>(queueSize);
+        this.overflowPolicy = overflowPolicy;
+        this.retryAt = System.nanoTime();
+
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "irclog-writer");
+
+        this.thread.setDaemon(true);
+    }
+
+    public LogWriter(ConnectionPool pool, File spillFile) {
+        this(pool, spillFile, DEFAULT_QUEUE_SIZE, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param batchSize the largest number of rows written at once
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param interval the longest a row waits for a batch to fill up
+     * @param unit the unit of the interval
+     */
+    public void setFlushInterval(long interval, TimeUnit unit) {
+        this.flushIntervalMillis = unit.toMillis(interval);
+    }
+
+    /**
+     * @param interval how long to spill rows after a failed write before
+     *            trying the database again
+     * @param unit the unit of the interval
+     */
+    public void setRetryInterval(long interval, TimeUnit unit) {
+        this.retryIntervalMillis = unit.toMillis(interval);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Stop accepting rows, write everything queued and stop the writer thread
+     * 
+     * @throws InterruptedException if interrupted while waiting for the
+     *             writer thread
+     */
+    public void close() throws InterruptedException {
+        closed = true;
+        thread.join();
+    }
+
+    /**
+     * Queue a row, applying the overflow policy if the queue is full
+     */
+    void add(LogRecord record) {
+        if (closed) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        switch (overflowPolicy) {
+        case BLOCK:
+            try {
+                queue.put(record);
+            } catch (InterruptedException e) {
+                dropped.incrementAndGet();
+                Thread.currentThread().interrupt();
+            }
+            break;
+
+        case DROP_NEWEST:
+            if (!queue.offer(record)) {
+                dropped.incrementAndGet();
+            }
+            break;
+
+        case DROP_OLDEST:
+            while (!queue.offer(record)) {
+                if (queue.poll() != null) {
+                    dropped.incrementAndGet();
+                }
+            }
+            break;
+        }
+    }
+
+    /**
+     * @return the number of rows waiting to be written
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of rows written to the database
+     */
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    /**
+     * @return the number of rows discarded because the queue was full or they
+     *         could not be spilled
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of rows appended to the spill file
+     */
+    public long getSpilledCount() {
+        return spilled.get();
+    }
+
+    /**
+     * @return how long the oldest row of the last batch written waited in the
+     *         queue
+     */
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    /**
+     * @return false if the last write to the database failed
+     */
+    public boolean isDatabaseAvailable() {
+        return databaseAvailable;
+    }
+
+    private void writeLoop() {
+        List<LogRecord> batch = new ArrayList<LogRecord>();
+
+        while (!closed || !queue.isEmpty()) {
+            try {
+                LogRecord first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+
+                if (first == null) {
+                    /* Idle, catch up on anything spilled */
+                    flush(batch);
+                    continue;
+                }
+
+                batch.add(first);
+
+                int size = batchSize;
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+
+                while (batch.size() < size) {
+                    queue.drainTo(batch, size - batch.size());
+
+                    long remaining = deadline - System.nanoTime();
+
+                    if (batch.size() >= size || remaining <= 0 || closed) {
+                        break;
+                    }
+
+                    LogRecord next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+
+                    if (next == null) {
+                        break;
+                    }
+
+                    batch.add(next);
+                }
+
+                flush(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                /* Rows already taken from the queue are written with the rest */
+                log.warn("log writer interrupted, writing queued rows and exiting");
+                closed = true;
+            } catch (RuntimeException e) {
+                log.error("unexpected error in log writer, dropping " + batch.size() + " rows", e);
+                dropped.addAndGet(batch.size());
+                batch.clear();
+            }
+        }
+
+        queue.drainTo(batch);
+        flush(batch);
+    }
+
+    /**
+     * Write a batch to the database, after anything spilled, or spill it if
+     * the database is unavailable
+     */
+    private void flush(List<LogRecord> batch) {
+        if (System.nanoTime() - retryAt >= 0) {
+            try {
+                replaySpill();
+                write(batch);
+                databaseAvailable = true;
+                return;
+            } catch (SQLException e) {
+                log.warn("failed to write log rows, spilling to " + spillFile, e);
+                databaseAvailable = false;
+                retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryIntervalMillis);
+            }
+        }
+
+        spill(batch);
+    }
+
+    private void write(List<LogRecord> batch) throws SQLException {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        PooledConnection connection = pool.borrow();
+
+        try {
+            write(connection, batch);
+        } catch (SQLException e) {
+            /* Rolled back, but the statements may hold part of the batch */
+            pool.discard(connection);
+            throw e;
+        } catch (RuntimeException e) {
+            pool.discard(connection);
+            throw e;
+        }
+
+        pool.release(connection);
+
+        written.addAndGet(batch.size());
+        lagMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batch.get(0).getQueuedNanos());
+    }
+
+    /**
+     * Insert a batch in a single transaction, so that a failure leaves none of
+     * its rows written and the whole batch can safely be written again
+     */
+    private void write(PooledConnection connection, List<LogRecord> batch) throws SQLException {
+        Connection db = connection.getConnection();
+        db.setAutoCommit(false);
+
+        try {
+            insert(connection, batch);
+            db.commit();
+        } catch (SQLException e) {
+            rollbackQuietly(db);
+            throw e;
+        } catch (RuntimeException e) {
+            rollbackQuietly(db);
+            throw e;
+        }
+
+        db.setAutoCommit(true);
+    }
+
+    private static void rollbackQuietly(Connection db) {
+        try {
+            db.rollback();
+        } catch (SQLException e) {
+            log.warn("failed to roll back log rows", e);
+        }
+    }
+
+    private void insert(PooledConnection connection, List<LogRecord> batch) throws SQLException {
+        PreparedStatement eventStatement = connection.prepare(
+            "INSERT INTO events (event_time, type, nick, extra) VALUES (?, ?, ?, ?)");
+        PreparedStatement messageStatement = connection.prepare(
+            "INSERT INTO messages (msg_time, channel, nick, message) VALUES (?, ?, ?, ?)");
+
+        int events = 0;
+        int messages = 0;
+
+        for (LogRecord record : batch) {
+            if (record.isMessage()) {
+                messageStatement.setTimestamp(1, record.getTimestamp());
+                messageStatement.setString(2, record.getChannel());
+                messageStatement.setString(3, record.getNick());
+                messageStatement.setString(4, record.getMessage());
+                messageStatement.addBatch();
+                messages++;
+            } else {
+                eventStatement.setTimestamp(1, record.getTimestamp());
+                eventStatement.setString(2, record.getType());
+                eventStatement.setString(3, record.getNick());
+                eventStatement.setString(4, record.getChannel());
+                eventStatement.addBatch();
+                events++;
+            }
+        }
+
+        if (events > 0) {
+            eventStatement.executeBatch();
+        }
+
+        if (messages > 0) {
+            messageStatement.executeBatch();
+        }
+    }
+
+    /**
+     * Append rows to the spill file and sync it to disk
+     */
+    private void spill(List<LogRecord> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            appendToFile(spillFile, batch);
+            spilled.addAndGet(batch.size());
+        } catch (IOException e) {
+            log.error("failed to spill " + batch.size() + " log rows to " + spillFile, e);
+            dropped.addAndGet(batch.size());
+        }
+    }
+
+    private static boolean endsWithNewline(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+
+        try {
+            if (in.length() == 0) {
+                return true;
+            }
+
+            in.seek(in.length() - 1);
+            return in.read() == '\n';
+        } finally {
+            in.close();
+        }
+    }
+
+    static void appendToFile(File file, List<LogRecord> records) throws IOException {
+        boolean terminated = !file.exists() || endsWithNewline(file);
+        FileOutputStream out = new FileOutputStream(file, true);
+
+        try {
+            Writer writer = new OutputStreamWriter(out, SPILL_CHARSET);
+
+            /* Finish a line left partly written by a failed append */
+            if (!terminated) {
+                writer.write('\n');
+            }
+
+            for (LogRecord record : records) {
+                writer.write(record.toLine());
+                writer.write('\n');
+            }
+
+            writer.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    static List<LogRecord> readFile(File file) throws IOException {
+        List<LogRecord> records = new ArrayList<LogRecord>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), SPILL_CHARSET));
+
+        try {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                LogRecord record = LogRecord.fromLine(line);
+
+                if (record != null) {
+                    records.add(record);
+                } else if (line.length() > 0) {
+                    log.warn("skipping malformed spilled log row");
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return records;
+    }
+
+    /**
+     * Write spilled rows to the database. Each chunk is committed on its own,
+     * so the rows of the chunk which failed and of those after it are left in
+     * the spill file.
+     */
+    private void replaySpill() throws SQLException {
+        if (!spillFile.exists() || spillFile.length() == 0) {
+            return;
+        }
+
+        List<LogRecord> records;
+
+        try {
+            records = readFile(spillFile);
+        } catch (IOException e) {
+            log.error("failed to read spilled log rows from " + spillFile, e);
+            return;
+        }
+
+        log.info("writing {} spilled log rows", records.size());
+
+        int done = 0;
+
+        try {
+            while (done < records.size()) {
+                List<LogRecord> chunk = records.subList(done, Math.min(records.size(), done + batchSize));
+                write(chunk);
+                done += chunk.size();
+            }
+        } finally {
+            if (done < records.size()) {
+                rewriteSpill(records.subList(done, records.size()));
+            } else if (!spillFile.delete()) {
+                log.error("failed to delete spill file {}", spillFile);
+            }
+        }
+    }
+
+    /**
+     * Replace the spill file's contents with the given rows
+     */
+    private void rewriteSpill(List<LogRecord> remaining) {
+        File temp = new File(spillFile.getPath() + ".tmp");
+
+        try {
+            if (temp.exists() && !temp.delete()) {
+                throw new IOException("could not delete " + temp);
+            }
+
+            appendToFile(temp, remaining);
+
+            if (!spillFile.delete() || !temp.renameTo(spillFile)) {
+                throw new IOException("could not replace " + spillFile);
+            }
+        } catch (IOException e) {
+            log.error("failed to rewrite spill file, some rows may be written twice", e);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irclog;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.brewtab.ircbot.util.BatchMigrator;
+import com.brewtab.ircbot.util.ConnectionPool;
+import com.brewtab.ircbot.util.PooledConnection;
+import com.brewtab.ircbot.util.SQLCallback;
+
+/**
+ * Brings an existing log database up to the search schema of init_log.sql.
+ * Adds the stored message_tsv column and the trigger which maintains it,
+ * fills in the column for existing messages a range of ids at a time,
+ * pausing between batches, and then builds the GIN index without locking
+ * out writes, along with the (channel, msg_time, id) index that .more pages
+ * through. Every step may be repeated, so an interrupted migration is
+ * finished by running it again.
+ * 
+ * @author Christopher Thunes <cthunes@brewtab.com>
+ */
+public class SearchSchemaMigrator extends BatchMigrator {
+    private static final Logger log = LoggerFactory.getLogger(SearchSchemaMigrator.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private static final String[] SCHEMA = {
+        "ALTER TABLE messages ADD COLUMN IF NOT EXISTS message_tsv TSVECTOR",
+
+        "CREATE OR REPLACE FUNCTION messages_tsv_update() RETURNS trigger AS $$\n"
+            + "BEGIN\n"
+            + "    IF NEW.message LIKE '.search %' THEN\n"
+            + "        NEW.message_tsv := NULL;\n"
+            + "    ELSE\n"
+            + "        NEW.message_tsv := to_tsvector('english', NEW.message);\n"
+            + "    END IF;\n"
+            + "    RETURN NEW;\n"
+            + "END\n"
+            + "$$ LANGUAGE plpgsql",
+
+        "DROP TRIGGER IF EXISTS messages_tsv_trigger ON messages",
+
+        "CREATE TRIGGER messages_tsv_trigger BEFORE INSERT OR UPDATE OF message ON messages"
+            + " FOR EACH ROW EXECUTE PROCEDURE messages_tsv_update()",
+    };
+
+    /*
+     * Concurrent index builds can not run in a transaction, so these are run
+     * with autocommit on. An interrupted build leaves an invalid index behind
+     * which IF NOT EXISTS would keep, so its validity is checked first.
+     */
+    private static final String TSV_INDEX = "messages_tsv_idx";
+
+    private static final String CREATE_TSV_INDEX =
+        "CREATE INDEX CONCURRENTLY IF NOT EXISTS messages_tsv_idx ON messages USING gin(message_tsv)";
+
+    private static final String CHANNEL_TIME_INDEX = "messages_channel_time_idx";
+
+    private static final String CREATE_CHANNEL_TIME_INDEX =
+        "CREATE INDEX CONCURRENTLY IF NOT EXISTS messages_channel_time_idx ON messages(channel, msg_time, id)";
+
+    private static final String DROP_OLD_INDEX = "DROP INDEX CONCURRENTLY IF EXISTS messages_message_ts";
+
+    /* Ids up to which messages need filling in, and the next id to fill */
+    private int maxId;
+    private int nextId;
+
+    private int updated = 0;
+
+    /**
+     * @param pool the database
+     */
+    public SearchSchemaMigrator(ConnectionPool pool) {
+        super(pool, "search schema migration", DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @return the number of messages given a tsvector so far
+     */
+    @Override
+    public int getMigratedCount() {
+        return updated;
+    }
+
+    @Override
+    protected void prepare() throws SQLException {
+        execute(SCHEMA);
+        log.info("added message_tsv column and trigger");
+
+        /*
+         * Messages inserted from here on are given a tsvector by the trigger,
+         * so only ids up to the current maximum need filling in
+         */
+        maxId = pool.execute(new SQLCallback<Integer>() {
+            @Override
+            public Integer run(PooledConnection connection) throws SQLException {
+                ResultSet results = connection.prepare("SELECT COALESCE(MAX(id), 0) FROM messages").executeQuery();
+
+                try {
+                    results.next();
+                    return results.getInt(1);
+                } finally {
+                    results.close();
+                }
+            }
+        });
+
+        nextId = 0;
+    }
+
+    @Override
+    protected boolean migrateBatch() throws SQLException {
+        if (nextId >= maxId) {
+            return false;
+        }
+
+        final int from = nextId;
+        final int to = from + getBatchSize();
+
+        /* Setting message to itself fires the trigger */
+        updated += pool.execute(new SQLCallback<Integer>() {
+            @Override
+            public Integer run(PooledConnection connection) throws SQLException {
+                PreparedStatement statement = connection.prepare(
+                    "UPDATE messages SET message = message WHERE id > ? AND id <= ?"
+                        + " AND message_tsv IS NULL AND message NOT LIKE '.search %'");
+
+                statement.setInt(1, from);
+                statement.setInt(2, to);
+
+                return statement.executeUpdate();
+            }
+        });
+
+        nextId = to;
+        log.info("updated {} messages, up to id {}", updated, Math.min(to, maxId));
+        return true;
+    }
+
+    @Override
+    protected void complete() throws SQLException {
+        buildIndex(TSV_INDEX, CREATE_TSV_INDEX);
+        execute(DROP_OLD_INDEX);
+
+        buildIndex(CHANNEL_TIME_INDEX, CREATE_CHANNEL_TIME_INDEX);
+
+        log.info("search schema migration complete, {} messages updated", updated);
+    }
+
+    /**
+     * Build an index, rebuilding it if an earlier build was interrupted
+     * 
+     * @throws SQLException if the index is not valid once built
+     */
+    private void buildIndex(String name, String create) throws SQLException {
+        if (Boolean.FALSE.equals(isIndexValid(name))) {
+            log.warn("dropping invalid {} left by an interrupted build", name);
+            execute("DROP INDEX CONCURRENTLY IF EXISTS " + name);
+        }
+
+        log.info("building {}", name);
+        execute(create);
+
+        if (!Boolean.TRUE.equals(isIndexValid(name))) {
+            throw new SQLException(name + " is not valid");
+        }
+    }
+
+    /**
+     * @return whether the named index is valid, or null if it does not exist
+     */
+    private Boolean isIndexValid(final String name) throws SQLException {
+        return pool.execute(new SQLCallback<Boolean>() {
+            @Override
+            public Boolean run(PooledConnection connection) throws SQLException {
+                PreparedStatement statement = connection.prepare(
+                    "SELECT indisvalid FROM pg_index WHERE indexrelid = to_regclass(?)");
+
+                statement.setString(1, name);
+
+                ResultSet results = statement.executeQuery();
+
+                try {
+                    return results.next() ? results.getBoolean(1) : null;
+                } finally {
+                    results.close();
+                }
+            }
+        });
+    }
+
+    private void execute(final String... sql) throws SQLException {
+        pool.execute(new SQLCallback<Void>() {
+            @Override
+            public Void run(PooledConnection connection) throws SQLException {
+                Statement statement = connection.getConnection().createStatement();
+
+                try {
+                    for (String s : sql) {
+                        statement.execute(s);
+                    }
+                } finally {
+                    statement.close();
+                }
+
+                return null;
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        main(args, new Factory() {
+            @Override
+            public BatchMigrator create(ConnectionPool pool) {
+                return new SearchSchemaMigrator(pool);
+            }
+        });
+    }
+}
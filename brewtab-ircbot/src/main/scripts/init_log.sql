@@ -21,15 +21,32 @@ CREATE TABLE messages (
        msg_time TIMESTAMP,
        channel VARCHAR(64),
        nick VARCHAR(64),
-       message TEXT
+       message TEXT,
+       message_tsv TSVECTOR
        );
 
+-- Searchable text of a message, leaving out .search commands themselves
+CREATE FUNCTION messages_tsv_update() RETURNS trigger AS $$
+BEGIN
+    IF NEW.message LIKE '.search %' THEN
+        NEW.message_tsv := NULL;
+    ELSE
+        NEW.message_tsv := to_tsvector('english', NEW.message);
+    END IF;
+    RETURN NEW;
+END
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER messages_tsv_trigger BEFORE INSERT OR UPDATE OF message ON messages
+       FOR EACH ROW EXECUTE PROCEDURE messages_tsv_update();
+
 CREATE TABLE properties (
        k VARCHAR PRIMARY KEY,
        v bytea
        );
 
 CREATE INDEX messages_nick_channel_idx ON messages(nick, channel);
-CREATE INDEX messages_message_ts ON messages USING gin(to_tsvector('english', message));
+CREATE INDEX messages_tsv_idx ON messages USING gin(message_tsv);
+CREATE INDEX messages_channel_time_idx ON messages(channel, msg_time, id);
 
 CREATE INDEX properties_idx ON properties(k);
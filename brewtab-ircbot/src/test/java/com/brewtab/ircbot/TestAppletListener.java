@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.brewtab.irc.client.Channel;
+
+import static org.junit.Assert.*;
+
+public class TestAppletListener {
+    private AppletListener listener;
+    private List<String> written;
+    private Channel channel;
+
+    @Before
+    public void setUp() {
+        listener = new AppletListener();
+        written = new ArrayList<String>();
+        channel = FakeChannel.newChannel("bot", written);
+    }
+
+    @After
+    public void tearDown() {
+        listener.shutdown();
+    }
+
+    private List<String> say(String message) {
+        written.clear();
+        listener.onMessage(channel, null, message);
+        return written;
+    }
+
+    @Test
+    public void testNotACommand() {
+        assertTrue(say("hello there").isEmpty());
+        assertTrue(say("").isEmpty());
+        assertTrue(say(".").isEmpty());
+        assertTrue(say("...").isEmpty());
+        assertTrue(say("bot").isEmpty());
+        assertTrue(say("bot:").isEmpty());
+        assertTrue(say("robot: echo hi").isEmpty());
+
+        /* Unknown or abbreviated commands prefixed with '.' are chat */
+        assertTrue(say(".com").isEmpty());
+        assertTrue(say(".ec hi").isEmpty());
+        assertTrue(say(".echoes hi").isEmpty());
+    }
+
+    @Test
+    public void testPrefixed() {
+        assertEquals(Arrays.asList("hi", "there"), say(".echo hi there"));
+        assertEquals(Arrays.asList("a b"), say("  .echo \"a b\"  "));
+        assertEquals(Arrays.asList("Mismatched quotes in argument"), say(".echo \"a b"));
+    }
+
+    @Test
+    public void testAddressed() {
+        assertEquals(Arrays.asList("hi"), say("bot: echo hi"));
+
+        /* Abbreviations are accepted when the bot is asked directly */
+        assertEquals(Arrays.asList("hi"), say("bot: ec hi"));
+        assertEquals(Arrays.asList("Unknown command"), say("bot: xyzzy"));
+        assertEquals(Arrays.asList("Unknown command"), say("bot: e"));
+    }
+}
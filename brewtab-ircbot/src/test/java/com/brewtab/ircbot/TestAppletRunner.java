@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.brewtab.irc.User;
+import com.brewtab.irc.client.Channel;
+import com.brewtab.ircbot.applets.BotApplet;
+import com.brewtab.ircbot.metrics.BotMetrics;
+import com.brewtab.ircbot.metrics.CommandMetrics;
+
+import static org.junit.Assert.*;
+
+public class TestAppletRunner {
+    /**
+     * Runs for as long as its first argument says: a number of milliseconds,
+     * "block" to run until interrupted, or "stubborn" to ignore interrupts
+     * and run until released
+     */
+    private static class FakeApplet implements BotApplet {
+        final Semaphore started = new Semaphore(0);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger interrupted = new AtomicInteger();
+
+        @Override
+        public void run(Channel channel, User from, String command, String[] args, String unparsed) {
+            started.release();
+
+            try {
+                if (args[0].equals("block")) {
+                    Thread.sleep(Long.MAX_VALUE);
+                } else if (args[0].equals("stubborn")) {
+                    release.await();
+                } else {
+                    Thread.sleep(Long.parseLong(args[0]));
+                }
+            } catch (InterruptedException e) {
+                interrupted.incrementAndGet();
+
+                if (args[0].equals("stubborn")) {
+                    awaitUninterruptibly(release);
+                }
+            }
+        }
+
+        void awaitStarted(int count) throws InterruptedException {
+            assertTrue(started.tryAcquire(count, 5, TimeUnit.SECONDS));
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException e) {
+                // Keep waiting
+            }
+        }
+    }
+
+    /* Poll until the count is reached, failing after a few seconds */
+    private interface Count {
+        public long get();
+    }
+
+    private static void awaitCount(long expected, Count count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (count.get() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(expected, count.get());
+    }
+
+    private BotMetrics metrics;
+    private AppletRunner runner;
+    private FakeApplet applet;
+    private List<String> written;
+    private Channel channel;
+
+    @Before
+    public void setUp() {
+        metrics = new BotMetrics();
+        runner = new AppletRunner(metrics);
+        applet = new FakeApplet();
+        written = Collections.synchronizedList(new ArrayList<String>());
+        channel = FakeChannel.newChannel("bot", written);
+    }
+
+    @After
+    public void tearDown() {
+        applet.release.countDown();
+        runner.shutdown();
+    }
+
+    private boolean run(String arg) {
+        return runner.run(applet, channel, null, "fake", new String[] { arg }, arg);
+    }
+
+    @Test
+    public void testBusyWhenQueueFull() throws Exception {
+        runner.setLimits(applet, 1, 1, 10, TimeUnit.SECONDS);
+
+        assertTrue(run("stubborn"));
+        applet.awaitStarted(1);
+
+        /* Queued behind the first, then refused */
+        assertTrue(run("0"));
+        assertFalse(run("0"));
+
+        CommandMetrics command = metrics.findCommand("fake");
+        assertEquals(1, command.getRejectedCount());
+        assertEquals(1, command.getInFlight());
+        assertEquals(Collections.singletonList("fake is busy, try again later"), written);
+
+        applet.release.countDown();
+        applet.awaitStarted(1);
+
+        awaitCount(2, new Count() {
+            @Override
+            public long get() {
+                return metrics.findCommand("fake").getCallCount();
+            }
+        });
+
+        assertEquals(0, command.getTimeoutCount());
+    }
+
+    @Test
+    public void testTimeoutCountsFromStartOfRun() throws Exception {
+        runner.setLimits(applet, 1, 1, 500, TimeUnit.MILLISECONDS);
+
+        /* The second waits 300 ms to start, but only runs for 300 ms */
+        assertTrue(run("300"));
+        assertTrue(run("300"));
+        applet.awaitStarted(2);
+
+        final CommandMetrics command = metrics.findCommand("fake");
+
+        awaitCount(2, new Count() {
+            @Override
+            public long get() {
+                return command.getCallCount();
+            }
+        });
+
+        assertEquals(0, command.getTimeoutCount());
+        assertEquals(0, applet.interrupted.get());
+
+        /* Cancelled and interrupted once the timeout passes */
+        assertTrue(run("block"));
+        applet.awaitStarted(1);
+
+        awaitCount(1, new Count() {
+            @Override
+            public long get() {
+                return applet.interrupted.get();
+            }
+        });
+
+        awaitCount(0, new Count() {
+            @Override
+            public long get() {
+                return command.getInFlight();
+            }
+        });
+
+        awaitCount(1, new Count() {
+            @Override
+            public long get() {
+                return written.size();
+            }
+        });
+
+        assertEquals(1, command.getTimeoutCount());
+        assertEquals(3, command.getCallCount());
+        assertEquals(Collections.singletonList("fake timed out, try again later"), written);
+    }
+
+    @Test
+    public void testMetricsAfterLateFinish() throws Exception {
+        runner.setLimits(applet, 1, 1, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue(run("stubborn"));
+        applet.awaitStarted(1);
+
+        final CommandMetrics command = metrics.findCommand("fake");
+
+        awaitCount(1, new Count() {
+            @Override
+            public long get() {
+                return command.getTimeoutCount();
+            }
+        });
+
+        /* Still running despite the interrupt */
+        awaitCount(1, new Count() {
+            @Override
+            public long get() {
+                return applet.interrupted.get();
+            }
+        });
+
+        assertEquals(1, command.getInFlight());
+        assertEquals(0, command.getCallCount());
+
+        applet.release.countDown();
+
+        awaitCount(0, new Count() {
+            @Override
+            public long get() {
+                return command.getInFlight();
+            }
+        });
+
+        assertEquals(1, command.getCallCount());
+        assertEquals(1, command.getTimeoutCount());
+        assertEquals(0, command.getErrorCount());
+        assertEquals(0, command.getRejectedCount());
+
+        /* The thread is free again */
+        assertTrue(run("0"));
+        applet.awaitStarted(1);
+
+        awaitCount(2, new Count() {
+            @Override
+            public long get() {
+                return command.getCallCount();
+            }
+        });
+
+        assertEquals(1, command.getTimeoutCount());
+    }
+}
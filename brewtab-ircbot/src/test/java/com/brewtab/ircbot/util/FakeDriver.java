@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * JDBC driver for tests which hands out connections made by a test, usually
+ * proxies built with {@link #proxy(Class, InvocationHandler)}
+ */
+class FakeDriver implements Driver {
+    interface ConnectionFactory {
+        public Connection newConnection();
+    }
+
+    private final String url;
+    private final ConnectionFactory factory;
+
+    private FakeDriver(String url, ConnectionFactory factory) {
+        this.url = url;
+        this.factory = factory;
+    }
+
+    /**
+     * Register a driver for URLs starting with the given prefix
+     */
+    static FakeDriver register(String url, ConnectionFactory factory) throws SQLException {
+        FakeDriver driver = new FakeDriver(url, factory);
+        DriverManager.registerDriver(driver);
+
+        return driver;
+    }
+
+    void deregister() throws SQLException {
+        DriverManager.deregisterDriver(this);
+    }
+
+    /**
+     * Implement an interface with an invocation handler
+     */
+    static Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(FakeDriver.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) {
+        return acceptsURL(url) ? factory.newConnection() : null;
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url.startsWith(this.url);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    public Logger getParentLogger() {
+        return Logger.getLogger(url);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot.util;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestCommandTrie {
+    private CommandTrie<Integer> trie() {
+        CommandTrie<Integer> trie = new CommandTrie<Integer>();
+
+        trie.put("w", 1);
+        trie.put("weather", 1);
+        trie.put("wiki", 2);
+        trie.put("spell", 3);
+        trie.put("sp", 3);
+        trie.put("stock", 4);
+
+        return trie;
+    }
+
+    private String resolve(CommandTrie<Integer> trie, String s) {
+        CommandTrie.Entry<Integer> entry = trie.resolve(s, 0, s.length());
+        return entry == null ? null : entry.getName();
+    }
+
+    @Test
+    public void testExact() {
+        CommandTrie<Integer> trie = trie();
+
+        assertEquals("w", resolve(trie, "w"));
+        assertEquals("sp", resolve(trie, "sp"));
+        assertEquals(Integer.valueOf(2), trie.get("wiki"));
+        assertNull(trie.get("wik"));
+        assertEquals(6, trie.size());
+    }
+
+    @Test
+    public void testAbbreviations() {
+        CommandTrie<Integer> trie = trie();
+
+        assertEquals("weather", resolve(trie, "wea"));
+        assertEquals("wiki", resolve(trie, "wi"));
+        assertEquals("spell", resolve(trie, "spe"));
+        assertEquals("stock", resolve(trie, "st"));
+
+        /* Ambiguous, too short, or no match */
+        assertNull(resolve(trie, "s"));
+        assertNull(resolve(trie, "x"));
+        assertNull(resolve(trie, "wikis"));
+        assertNull(resolve(trie, ""));
+    }
+
+    @Test
+    public void testLookupNotAbbreviated() {
+        CommandTrie<Integer> trie = trie();
+        String line = ".wea Boston";
+
+        assertNull(trie.lookup(line, 1, 4));
+        assertNull(trie.lookup(line, 1, 1));
+        assertEquals("w", trie.lookup(line, 1, 2).getName());
+        assertEquals("weather", trie.lookup(".weather", 1, 8).getName());
+    }
+
+    @Test
+    public void testRegion() {
+        CommandTrie<Integer> trie = trie();
+        String line = ".wiki Java";
+
+        assertEquals("wiki", trie.resolve(line, 1, 5).getName());
+        assertEquals("wiki", trie.resolve(line, 1, 3).getName());
+    }
+
+    @Test
+    public void testReplaceAndNames() {
+        CommandTrie<Integer> trie = trie();
+        trie.put("wiki", 5);
+
+        assertEquals(6, trie.size());
+        assertEquals(Integer.valueOf(5), trie.get("wiki"));
+        assertEquals(Arrays.asList("sp", "spell", "stock", "w", "weather", "wiki"), trie.names());
+    }
+}
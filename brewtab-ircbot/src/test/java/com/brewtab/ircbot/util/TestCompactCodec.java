@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestCompactCodec {
+    private final CompactCodec codec = new CompactCodec();
+
+    private Serializable roundTrip(Serializable value) {
+        return codec.decode(codec.encode(value));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        assertNull(roundTrip(null));
+        assertEquals(Boolean.TRUE, roundTrip(true));
+        assertEquals(Boolean.FALSE, roundTrip(false));
+        assertEquals(Integer.valueOf(-7), roundTrip(-7));
+        assertEquals(Integer.valueOf(Integer.MIN_VALUE), roundTrip(Integer.MIN_VALUE));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), roundTrip(Long.MAX_VALUE));
+        assertEquals(Long.valueOf(-1L), roundTrip(-1L));
+        assertEquals(Double.valueOf(2.5), roundTrip(2.5));
+        assertEquals("Z\u00fcrich", roundTrip("Z\u00fcrich"));
+
+        HashMap<String, Serializable> map = new LinkedHashMap<String, Serializable>();
+        map.put("metric", true);
+        map.put("location", "02139");
+        map.put("none", null);
+
+        assertEquals(map, roundTrip(map));
+    }
+
+    @Test
+    public void testCompact() {
+        assertEquals(2, codec.encode(42L).length);
+        assertEquals(1, codec.encode(true).length);
+    }
+
+    @Test
+    public void testReadsSerializedValues() {
+        SerializationCodec legacy = new SerializationCodec();
+
+        assertEquals(Long.valueOf(42L), codec.decode(legacy.encode(42L)));
+        assertEquals("02139", codec.decode(legacy.encode("02139")));
+    }
+
+    @Test
+    public void testOtherValuesSerialized() {
+        ArrayList<String> list = new ArrayList<String>();
+        list.add("a");
+
+        byte[] bytes = codec.encode(list);
+
+        assertTrue(SerializationCodec.isSerialized(bytes));
+        assertEquals(list, codec.decode(bytes));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncated() {
+        byte[] bytes = codec.encode("truncated");
+        byte[] truncated = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+
+        codec.decode(truncated);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestConnectionPool {
+    private static final String URL = "jdbc:testpool:";
+
+    /* Counts of everything the fake driver has opened and closed */
+    private static final AtomicInteger prepared = new AtomicInteger();
+    private static final AtomicInteger statementsClosed = new AtomicInteger();
+    private static final AtomicInteger connectionsClosed = new AtomicInteger();
+
+    private static FakeDriver driver;
+
+    private static PreparedStatement newStatement() {
+        prepared.incrementAndGet();
+
+        return (PreparedStatement) FakeDriver.proxy(PreparedStatement.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("close")) {
+                    statementsClosed.incrementAndGet();
+                }
+
+                return null;
+            }
+        });
+    }
+
+    private static Connection newConnection() {
+        return (Connection) FakeDriver.proxy(Connection.class, new InvocationHandler() {
+            private boolean closed = false;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+
+                if (name.equals("prepareStatement")) {
+                    return newStatement();
+                } else if (name.equals("close")) {
+                    closed = true;
+                    connectionsClosed.incrementAndGet();
+                } else if (name.equals("isClosed")) {
+                    return closed;
+                }
+
+                return null;
+            }
+        });
+    }
+
+    @BeforeClass
+    public static void registerDriver() throws SQLException {
+        driver = FakeDriver.register(URL, new FakeDriver.ConnectionFactory() {
+            @Override
+            public Connection newConnection() {
+                return TestConnectionPool.newConnection();
+            }
+        });
+    }
+
+    @AfterClass
+    public static void deregisterDriver() throws SQLException {
+        driver.deregister();
+    }
+
+    @Test
+    public void testStatementsCachedBySql() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(URL, "user", "pass", 1);
+        pool.setStatementCacheSize(2);
+
+        int preparedBefore = prepared.get();
+        int closedBefore = statementsClosed.get();
+
+        PooledConnection connection = pool.borrow();
+        PreparedStatement a = connection.prepare("a");
+
+        assertSame(a, connection.prepare("a"));
+        connection.prepare("b");
+        connection.prepare("a");
+
+        /* Evicts b, the least recently used */
+        connection.prepare("c");
+
+        assertEquals(3, prepared.get() - preparedBefore);
+        assertEquals(1, statementsClosed.get() - closedBefore);
+        assertEquals(2, connection.getStatementCount());
+        assertSame(a, connection.prepare("a"));
+
+        pool.release(connection);
+        assertSame(connection, pool.borrow());
+        pool.release(connection);
+
+        pool.close();
+        assertEquals(3, statementsClosed.get() - closedBefore);
+        assertEquals(0, pool.getOpenCount());
+    }
+
+    @Test
+    public void testBorrowWaitsForRelease() throws Exception {
+        final ConnectionPool pool = new ConnectionPool(URL, "user", "pass", 1);
+        pool.setBorrowTimeout(50, TimeUnit.MILLISECONDS);
+
+        final PooledConnection connection = pool.borrow();
+
+        try {
+            pool.borrow();
+            fail("borrowed more connections than the pool allows");
+        } catch (SQLException e) {
+            // Expected
+        }
+
+        pool.setBorrowTimeout(10, TimeUnit.SECONDS);
+
+        Thread releaser = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                pool.release(connection);
+            }
+        };
+
+        releaser.start();
+        assertSame(connection, pool.borrow());
+        releaser.join();
+
+        pool.close();
+    }
+
+    @Test
+    public void testLostConnectionDiscarded() throws SQLException {
+        ConnectionPool pool = new ConnectionPool(URL, "user", "pass", 1);
+        int closedBefore = connectionsClosed.get();
+
+        try {
+            pool.execute(new SQLCallback<Void>() {
+                @Override
+                public Void run(PooledConnection connection) throws SQLException {
+                    throw new SQLException("connection reset", "08006");
+                }
+            });
+            fail("callback failure not propagated");
+        } catch (SQLException e) {
+            assertEquals("08006", e.getSQLState());
+        }
+
+        assertEquals(1, connectionsClosed.get() - closedBefore);
+        assertEquals(0, pool.getOpenCount());
+
+        /* Other failures leave the connection in the pool */
+        try {
+            pool.execute(new SQLCallback<Void>() {
+                @Override
+                public Void run(PooledConnection connection) throws SQLException {
+                    throw new SQLException("syntax error", "42601");
+                }
+            });
+            fail("callback failure not propagated");
+        } catch (SQLException e) {
+            // Expected
+        }
+
+        assertEquals(1, pool.getIdleCount());
+        pool.close();
+    }
+}
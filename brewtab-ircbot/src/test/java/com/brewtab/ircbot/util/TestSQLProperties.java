@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.ircbot.util;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestSQLProperties {
+    private static final String URL = "jdbc:testproperties:";
+
+    private static final CompactCodec codec = new CompactCodec();
+
+    /* The properties table of the fake driver */
+    private static final Map<String, byte[]> table = new ConcurrentHashMap<String, byte[]>();
+
+    /* Everything the fake driver has been asked to do */
+    private static final AtomicInteger selects = new AtomicInteger();
+    private static final List<String> inserted = Collections.synchronizedList(new ArrayList<String>());
+
+    /* Fail batches with a non-connection error while set */
+    private static volatile boolean failWrites = false;
+
+    /* If set, SELECTs and batches wait for the gate once they have started */
+    private static volatile CountDownLatch selectStarted = null;
+    private static volatile CountDownLatch selectGate = null;
+    private static volatile CountDownLatch batchStarted = null;
+    private static volatile CountDownLatch batchGate = null;
+
+    private static FakeDriver driver;
+
+    private static void pass(CountDownLatch started, CountDownLatch gate) {
+        if (gate == null) {
+            return;
+        }
+
+        started.countDown();
+
+        try {
+            gate.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ResultSet newResultSet(final byte[] value) {
+        return (ResultSet) FakeDriver.proxy(ResultSet.class, new InvocationHandler() {
+            private boolean read = false;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+
+                if (name.equals("next")) {
+                    boolean more = !read && value != null;
+                    read = true;
+                    return more;
+                } else if (name.equals("getBytes")) {
+                    return value;
+                }
+
+                return null;
+            }
+        });
+    }
+
+    private static PreparedStatement newStatement(final String sql) {
+        return (PreparedStatement) FakeDriver.proxy(PreparedStatement.class, new InvocationHandler() {
+            private final Object[] params = new Object[3];
+            private final List<Object[]> batch = new ArrayList<Object[]>();
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+                String name = method.getName();
+
+                if (name.equals("setString") || name.equals("setBytes")) {
+                    params[(Integer) args[0]] = args[1];
+                } else if (name.equals("addBatch")) {
+                    batch.add(params.clone());
+                } else if (name.equals("clearBatch")) {
+                    batch.clear();
+                } else if (name.equals("executeQuery")) {
+                    selects.incrementAndGet();
+                    byte[] value = table.get((String) params[1]);
+                    pass(selectStarted, selectGate);
+                    return newResultSet(value);
+                } else if (name.equals("executeBatch")) {
+                    pass(batchStarted, batchGate);
+                    return executeBatch();
+                }
+
+                return null;
+            }
+
+            private int[] executeBatch() throws SQLException {
+                if (failWrites) {
+                    batch.clear();
+                    throw new SQLException("could not serialize access", "40001");
+                }
+
+                int[] counts = new int[batch.size()];
+
+                for (int i = 0; i < counts.length; i++) {
+                    Object[] row = batch.get(i);
+
+                    if (sql.startsWith("UPDATE")) {
+                        String key = (String) row[2];
+
+                        if (table.containsKey(key)) {
+                            table.put(key, (byte[]) row[1]);
+                            counts[i] = 1;
+                        }
+                    } else {
+                        String key = (String) row[1];
+
+                        table.put(key, (byte[]) row[2]);
+                        inserted.add(key);
+                        counts[i] = 1;
+                    }
+                }
+
+                batch.clear();
+                return counts;
+            }
+        });
+    }
+
+    private static Connection newConnection() {
+        return (Connection) FakeDriver.proxy(Connection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+
+                if (name.equals("prepareStatement")) {
+                    return newStatement((String) args[0]);
+                } else if (name.equals("isClosed")) {
+                    return false;
+                }
+
+                return null;
+            }
+        });
+    }
+
+    @BeforeClass
+    public static void registerDriver() throws SQLException {
+        driver = FakeDriver.register(URL, new FakeDriver.ConnectionFactory() {
+            @Override
+            public Connection newConnection() {
+                return TestSQLProperties.newConnection();
+            }
+        });
+    }
+
+    @AfterClass
+    public static void deregisterDriver() throws SQLException {
+        driver.deregister();
+    }
+
+    @Before
+    public void resetTable() {
+        table.clear();
+        inserted.clear();
+        failWrites = false;
+        selectStarted = null;
+        selectGate = null;
+        batchStarted = null;
+        batchGate = null;
+    }
+
+    /* Flushed only when asked to */
+    private static SQLProperties newProperties(ConnectionPool pool, int cacheSize) {
+        return new SQLProperties(pool, codec, cacheSize, 1, TimeUnit.HOURS);
+    }
+
+    private static Serializable stored(String key) {
+        byte[] value = table.get(key);
+        return value == null ? null : codec.decode(value);
+    }
+
+    @Test
+    public void testReadRacingWriteNotCached() throws Exception {
+        ConnectionPool pool = new ConnectionPool(URL, "user", "pass", 2);
+        final SQLProperties properties = newProperties(pool, 16);
+
+        table.put("k", codec.encode("old"));
+        selectStarted = new CountDownLatch(1);
+        selectGate = new CountDownLatch(1);
+
+        final Serializable[] read = new Serializable[1];
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                read[0] = properties.get("k");
+            }
+        };
+
+        reader.start();
+        assertTrue(selectStarted.await(10, TimeUnit.SECONDS));
+
+        /* Written while the reader holds the old value */
+        properties.set("k", "new");
+        properties.flush();
+
+        selectGate.countDown();
+        reader.join();
+
+        assertEquals("old", read[0]);
+        assertEquals("new", properties.get("k"));
+        assertEquals("new", stored("k"));
+
+        properties.close();
+        pool.close();
+    }
+
+    @Test
+    public void testValueSetDuringFlushKept() throws Exception {
+        ConnectionPool pool = new ConnectionPool(URL, "user", "pass", 1);
+        final SQLProperties properties = newProperties(pool, 16);
+
+        properties.set("k", "a");
+        batchStarted = new CountDownLatch(1);
+        batchGate = new CountDownLatch(1);
+
+        Thread flusher = new Thread() {
+            @Override
+            public void run() {
+                properties.flush();
+            }
+        };
+
+        flusher.start();
+        assertTrue(batchStarted.await(10, TimeUnit.SECONDS));
+
+        properties.set("k", "b");
+
+        batchGate.countDown();
+        flusher.join();
+        batchGate = null;
+
+        assertEquals("a", stored("k"));
+        assertEquals(1, properties.getDirtyCount());
+        assertEquals("b", properties.get("k"));
+
+        properties.flush();
+        assertEquals("b", stored("k"));
+        assertEquals(0, properties.getDirtyCount());
+
+        properties.close();
+        pool.close();
+    }
+
+    @Test
+    public void testDirtyValuesSurviveEviction() throws Exception {
+        ConnectionPool pool = new ConnectionPool(URL, "user", "pass", 1);
+        SQLProperties properties = newProperties(pool, 2);
+        int selectsBefore = selects.get();
+
+        for (int i = 0; i < 5; i++) {
+            properties.set("k" + i, i);
+        }
+
+        /* Evicted from the cache but not yet written */
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Integer.valueOf(i), properties.get("k" + i));
+        }
+
+        assertEquals(selectsBefore, selects.get());
+        assertEquals(5, properties.getDirtyCount());
+
+        properties.flush();
+        assertEquals(0, properties.getDirtyCount());
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Integer.valueOf(i), stored("k" + i));
+        }
+
+        /* Only the two most recently used remain cached */
+        assertEquals(Integer.valueOf(0), properties.get("k0"));
+        assertEquals(selectsBefore + 1, selects.get());
+
+        properties.close();
+        pool.close();
+    }
+
+    @Test
+    public void testInsertsKeysNotUpdated() throws Exception {
+        ConnectionPool pool = new ConnectionPool(URL, "user", "pass", 1);
+        SQLProperties properties = newProperties(pool, 16);
+
+        table.put("b", codec.encode("old"));
+
+        properties.set("a", "1");
+        properties.set("b", "2");
+        properties.set("c", "3");
+        properties.flush();
+
+        assertEquals(2, inserted.size());
+        assertEquals("a", inserted.get(0));
+        assertEquals("c", inserted.get(1));
+
+        assertEquals("1", stored("a"));
+        assertEquals("2", stored("b"));
+        assertEquals("3", stored("c"));
+
+        properties.close();
+        pool.close();
+    }
+
+    @Test
+    public void testFailedFlushRetried() throws Exception {
+        ConnectionPool pool = new ConnectionPool(URL, "user", "pass", 1);
+        SQLProperties properties = newProperties(pool, 16);
+
+        properties.set("k", "v");
+        failWrites = true;
+
+        try {
+            properties.flush();
+            fail("write failure not propagated");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+
+        assertNull(stored("k"));
+        assertEquals(1, properties.getDirtyCount());
+        assertEquals("v", properties.get("k"));
+
+        failWrites = false;
+        properties.flush();
+
+        assertEquals("v", stored("k"));
+        assertEquals(0, properties.getDirtyCount());
+
+        properties.close();
+        pool.close();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2013 Christopher Thunes
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.brewtab.irclog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestLogRecord {
+    @Test
+    public void testLineRoundTrip() {
+        LogRecord record = LogRecord.message(new Timestamp(1234L), "#chan", "nick", "tab\there\\n, newline\nnull \\0");
+        LogRecord parsed = LogRecord.fromLine(record.toLine());
+
+        assertEquals(-1, record.toLine().indexOf('\n'));
+        assertTrue(parsed.isMessage());
+        assertEquals(1234L, parsed.getTimestamp().getTime());
+        assertEquals("#chan", parsed.getChannel());
+        assertEquals("nick", parsed.getNick());
+        assertEquals(record.getMessage(), parsed.getMessage());
+    }
+
+    @Test
+    public void testEventHasNoMessage() {
+        LogRecord parsed = LogRecord.fromLine(LogRecord.event(new Timestamp(0L), "join", "#chan", "nick").toLine());
+
+        assertFalse(parsed.isMessage());
+        assertEquals("join", parsed.getType());
+        assertNull(parsed.getMessage());
+    }
+
+    @Test
+    public void testPartialLineRejected() {
+        String line = LogRecord.event(new Timestamp(0L), "quit", "#chan", "nick").toLine();
+        assertNull(LogRecord.fromLine(line.substring(0, line.lastIndexOf('\t'))));
+    }
+
+    @Test
+    public void testTruncatedMessageRejected() {
+        String line = LogRecord.message(new Timestamp(0L), "#chan", "nick", "a long message").toLine();
+
+        assertNotNull(LogRecord.fromLine(line));
+
+        for (int length = 0; length < line.length(); length++) {
+            assertNull(LogRecord.fromLine(line.substring(0, length)));
+        }
+    }
+
+    @Test
+    public void testAppendAfterPartialLine() throws Exception {
+        File file = File.createTempFile("spill", ".log");
+
+        try {
+            String partial = LogRecord.message(new Timestamp(1L), "#chan", "nick", "cut short").toLine();
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(partial.substring(0, partial.length() - 6).getBytes("UTF-8"));
+            out.close();
+
+            LogWriter.appendToFile(file, Arrays.asList(
+                LogRecord.message(new Timestamp(2L), "#chan", "nick", "whole")));
+
+            List<LogRecord> records = LogWriter.readFile(file);
+
+            assertEquals(1, records.size());
+            assertEquals("whole", records.get(0).getMessage());
+        } finally {
+            file.delete();
+        }
+    }
+}